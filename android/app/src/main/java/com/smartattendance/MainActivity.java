@@ -11,7 +11,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.Trace;
 import android.util.Log;
 import android.widget.Button;
 import android.widget.EditText;
@@ -23,17 +26,23 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.claudeattendance.endpoints.EndpointRouter;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -58,15 +67,24 @@ public class MainActivity extends AppCompatActivity {
     // Session data
     private String currentSessionId;
     private Map<String, OTPData> activeOTPs = new HashMap<>();
+    // Survives the process being killed, so a running session can be resumed
+    private OtpCheckpoint checkpoint;
+    private long resumeStartedNanos = 0;
+    // Today's classes with backend-provisioned session ids
+    private Timetable timetable;
     
     // HTTP Client
     private OkHttpClient httpClient;
-    private static final String BASE_URL = "http://your-backend-url.com/api"; // Change this to your backend URL
+    private final EndpointRouter endpointRouter = new EndpointRouter(BuildConfig.API_ENDPOINTS.split(","));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     
     // Beacon configuration
     private static final String BEACON_UUID = "12345678-1234-1234-1234-123456789abc";
     private static final String SERVICE_UUID = "12345678-1234-1234-1234-123456789abc";
     
+    // Delay between attempts to report a locally started session
+    private static final long START_RETRY_MS = 15000;
+    
     // OTP data structure
     private static class OTPData {
         String otp;
@@ -84,13 +102,29 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Trace.beginSection("SmartAttendance.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         
         initializeComponents();
-        setupBluetooth();
         setupClickListeners();
-        setupHttpClient();
+        Trace.endSection();
+        
+        // Bluetooth setup and the permission prompt wait until the first frame
+        // is drawn; the HTTP client is built in parallel off the main thread
+        Looper.myQueue().addIdleHandler(() -> {
+            Trace.beginSection("SmartAttendance.idleInit");
+            setupBluetooth();
+            Trace.endSection();
+            return false;
+        });
+        new Thread(() -> {
+            endpointRouter.startProbes();
+            String teacherId = getTimetable().getTeacherId();
+            if (teacherId != null) {
+                prefetchTimetable(teacherId);
+            }
+        }).start();
         
         Log.i(TAG, "Smart Attendance Teacher App initialized");
     }
@@ -115,12 +149,114 @@ public class MainActivity extends AppCompatActivity {
         etTeacherId.setText("T001");
     }
 
-    private void setupHttpClient() {
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
+    private synchronized OkHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = new OkHttpClient.Builder()
+                    .connectTimeout(30, TimeUnit.SECONDS)
+                    .writeTimeout(30, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    private synchronized Timetable getTimetable() {
+        if (timetable == null) {
+            timetable = new Timetable(getSharedPreferences("timetable", MODE_PRIVATE));
+        }
+        return timetable;
+    }
+    
+    // Fetches today's timetable in one request unless it is already cached.
+    // Blocking, so only called off the main thread; fails over across
+    // endpoints like the session calls, best first
+    private void prefetchTimetable(String teacherId) {
+        if (getTimetable().isCurrent(teacherId)) {
+            return;
+        }
+        for (EndpointRouter.Endpoint endpoint : endpointRouter.candidates()) {
+            HttpUrl base = HttpUrl.parse(endpoint.baseUrl);
+            if (base == null) {
+                continue;
+            }
+            // Slot start times are computed in the zone of the offset we send
+            HttpUrl url = base.newBuilder()
+                    .addPathSegment("timetable")
+                    .addPathSegment(teacherId)
+                    .addQueryParameter("date", Timetable.today())
+                    .addQueryParameter("utcOffset", String.valueOf(Timetable.utcOffsetMinutes()))
+                    .build();
+            Request request = new Request.Builder().url(url).get().build();
+            long startedAt = System.nanoTime();
+            try (Response response = getHttpClient().newCall(request).execute()) {
+                if (response.code() >= 500) {
+                    endpointRouter.recordFailure(endpoint);
+                    Log.w(TAG, "Timetable fetch failed on " + endpoint.baseUrl + ": HTTP " + response.code());
+                    continue;
+                }
+                endpointRouter.recordSuccess(endpoint,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                String responseBody = response.body() != null ? response.body().string() : "";
+                if (!response.isSuccessful()) {
+                    Log.w(TAG, "Timetable fetch failed with code: " + response.code());
+                    return;
+                }
+                getTimetable().update(teacherId, responseBody);
+                Log.i(TAG, "Timetable for " + teacherId + " cached");
+                return;
+            } catch (IOException e) {
+                endpointRouter.recordFailure(endpoint);
+                Log.w(TAG, "Timetable fetch failed on " + endpoint.baseUrl + ": " + e.getMessage());
+            } catch (JSONException e) {
+                Log.e(TAG, "Timetable parsing error", e);
+                return;
+            }
+        }
+    }
+
+    // Null if the checkpoint file can't be mapped; the session then just isn't resumable
+    private synchronized OtpCheckpoint getCheckpoint() {
+        if (checkpoint == null) {
+            try {
+                checkpoint = new OtpCheckpoint(new File(getFilesDir(), "otp.ckpt"));
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open session checkpoint", e);
+            }
+        }
+        return checkpoint;
+    }
+
+    private void checkpointSession(String className, String period, String roomNumber) {
+        OtpCheckpoint store = getCheckpoint();
+        if (store != null) {
+            store.saveSession(new OtpCheckpoint.Session(currentSessionId, className, period, roomNumber));
+        }
+    }
+
+    /**
+     * Restarts the session a killed process left behind: same session id in
+     * the advertisement and the OTPs that were still valid.
+     */
+    private void maybeResumeSession() {
+        OtpCheckpoint store = getCheckpoint();
+        OtpCheckpoint.Session saved = store != null ? store.getSession() : null;
+        if (saved == null || currentSessionId != null) {
+            return;
+        }
+        resumeStartedNanos = System.nanoTime();
+        long now = System.currentTimeMillis();
+        store.forEachOtp((studentId, otp, expiryTime, used) -> {
+            if (expiryTime >= now && !used) {
+                activeOTPs.put(studentId, new OTPData(otp, studentId, expiryTime));
+            }
+        });
+        currentSessionId = saved.sessionId;
+        etClassName.setText(saved.className);
+        etPeriod.setText(saved.period);
+        etRoomNumber.setText(saved.roomNumber);
+        Log.i(TAG, "Resuming session " + currentSessionId + " with " + activeOTPs.size() + " active OTPs");
+        startBluetoothBeacon();
+        updateUI(true, saved.className, saved.period, saved.roomNumber);
     }
 
     private void setupBluetooth() {
@@ -188,12 +324,50 @@ public class MainActivity extends AppCompatActivity {
         }
         
         Log.d(TAG, "Starting beacon session with: " + className + ", Period: " + period);
+        JSONObject slot = getTimetable().findSlot(teacherId, className, period);
+        if (slot != null) {
+            // Provisioned with today's timetable: beacon straight away and
+            // report the start to the backend afterwards
+            currentSessionId = slot.optString("sessionId");
+            Log.i(TAG, "Starting provisioned session " + currentSessionId);
+            checkpointSession(className, period, roomNumber);
+            startBluetoothBeacon();
+            updateUI(true, className, period, roomNumber);
+            reportSessionStart(currentSessionId, className, period, roomNumber, teacherId);
+            return;
+        }
         createSessionOnBackend(className, period, roomNumber, teacherId);
+        prefetchTimetable(teacherId);
+    }
+    
+    private void reportSessionStart(String sessionId, String className, String period,
+                                    String roomNumber, String teacherId) {
+        try {
+            JSONObject sessionData = new JSONObject();
+            sessionData.put("sessionId", sessionId);
+            sessionData.put("teacherId", teacherId);
+            sessionData.put("className", className);
+            sessionData.put("period", period);
+            sessionData.put("room", roomNumber);
+            sessionData.put("timestamp", System.currentTimeMillis());
+            
+            RequestBody body = RequestBody.create(
+                sessionData.toString(),
+                MediaType.get("application/json; charset=utf-8")
+            );
+            new SessionCreateCall("/sessions/" + sessionId + "/start", body, sessionId,
+                    className, period, roomNumber).start();
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON creation error", e);
+        }
     }
 
     private void createSessionOnBackend(String className, String period, String roomNumber, String teacherId) {
         try {
             JSONObject sessionData = new JSONObject();
+            // Chosen here so a hedged duplicate that reaches another backend
+            // process upserts the same session instead of creating a second
+            sessionData.put("sessionId", UUID.randomUUID().toString());
             sessionData.put("className", className);
             sessionData.put("period", Integer.parseInt(period));
             sessionData.put("roomNumber", roomNumber);
@@ -206,23 +380,77 @@ public class MainActivity extends AppCompatActivity {
                 MediaType.get("application/json; charset=utf-8")
             );
             
+            new SessionCreateCall("/sessions", body, null, className, period, roomNumber).start();
+            
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON creation error", e);
+            Toast.makeText(this, "Error creating session data", Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    /**
+     * Sends the session create to the best endpoint and, if it hasn't answered
+     * within the hedge delay, to the next one as well. Errors fail over to the
+     * next endpoint immediately. All attempts carry the same session id (and
+     * idempotency key), so the backend creates the session once even when the
+     * attempts reach different processes, and the first answer wins.
+     *
+     * With a startedSessionId the session is already beaconing locally and
+     * this only reports its start: failures retry later, and the answer
+     * carries the backend's view of the session to reconcile with.
+     */
+    private class SessionCreateCall {
+        private final String path;
+        private final RequestBody body;
+        private final String startedSessionId;
+        private final String className, period, roomNumber;
+        private final String idempotencyKey = UUID.randomUUID().toString();
+        private final List<EndpointRouter.Endpoint> candidates = endpointRouter.candidates();
+        private final Runnable hedge = this::launchNext;
+        private int next = 0;
+        private int inFlight = 0;
+        private boolean settled = false;
+        
+        SessionCreateCall(String path, RequestBody body, String startedSessionId,
+                          String className, String period, String roomNumber) {
+            this.path = path;
+            this.body = body;
+            this.startedSessionId = startedSessionId;
+            this.className = className;
+            this.period = period;
+            this.roomNumber = roomNumber;
+        }
+        
+        // All state is touched on the main thread only
+        void start() {
+            launchNext();
+        }
+        
+        private void launchNext() {
+            if (settled || next >= candidates.size()) {
+                return;
+            }
+            EndpointRouter.Endpoint endpoint = candidates.get(next++);
+            inFlight++;
+            if (next < candidates.size()) {
+                mainHandler.postDelayed(hedge, endpointRouter.hedgeDelayMs(endpoint));
+            }
+            
             Request request = new Request.Builder()
-                    .url(BASE_URL + "/sessions")
+                    .url(endpoint.baseUrl + path)
                     .post(body)
                     .addHeader("Content-Type", "application/json")
+                    .addHeader("Idempotency-Key", idempotencyKey)
                     .build();
+            Log.d(TAG, "Sending session request to: " + endpoint.baseUrl + path);
             
-            Log.d(TAG, "Sending session creation request to: " + BASE_URL + "/sessions");
-            
-            httpClient.newCall(request).enqueue(new Callback() {
+            long startedAt = System.nanoTime();
+            getHttpClient().newCall(request).enqueue(new Callback() {
                 @Override
                 public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    Log.e(TAG, "Session creation request failed", e);
-                    runOnUiThread(() -> {
-                        Toast.makeText(MainActivity.this, "Failed to create session: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                        // For demo purposes, still start the beacon
-                        startDemoMode(className, period, roomNumber);
-                    });
+                    Log.e(TAG, "Session creation request failed on " + endpoint.baseUrl, e);
+                    endpointRouter.recordFailure(endpoint);
+                    mainHandler.post(() -> onAttemptFailed(e.getMessage()));
                 }
                 
                 @Override
@@ -230,40 +458,110 @@ public class MainActivity extends AppCompatActivity {
                     String responseBody = response.body() != null ? response.body().string() : "";
                     Log.d(TAG, "Session creation response: " + responseBody);
                     
-                    if (response.isSuccessful()) {
-                        try {
-                            JSONObject result = new JSONObject(responseBody);
-                            currentSessionId = result.getString("sessionId");
-                            
-                            Log.i(TAG, "Session created successfully with ID: " + currentSessionId);
-                            
-                            runOnUiThread(() -> {
-                                startBluetoothBeacon();
-                                updateUI(true, className, period, roomNumber);
-                            });
-                        } catch (JSONException e) {
-                            Log.e(TAG, "JSON parsing error", e);
-                            runOnUiThread(() -> startDemoMode(className, period, roomNumber));
-                        }
-                    } else {
-                        Log.w(TAG, "Session creation failed with code: " + response.code());
-                        runOnUiThread(() -> {
-                            Toast.makeText(MainActivity.this, "Session creation failed. Starting demo mode.", Toast.LENGTH_SHORT).show();
-                            startDemoMode(className, period, roomNumber);
-                        });
+                    if (response.code() >= 500) {
+                        endpointRouter.recordFailure(endpoint);
+                        mainHandler.post(() -> onAttemptFailed("HTTP " + response.code()));
+                        return;
                     }
+                    endpointRouter.recordSuccess(endpoint,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                    mainHandler.post(() -> onAnswered(response.isSuccessful(), response.code(), responseBody));
                 }
             });
+        }
+        
+        private void onAttemptFailed(String reason) {
+            inFlight--;
+            if (settled) {
+                return;
+            }
+            if (next < candidates.size()) {
+                mainHandler.removeCallbacks(hedge);
+                launchNext();
+                return;
+            }
+            if (inFlight == 0) {
+                settled = true;
+                if (startedSessionId != null) {
+                    retryLater();
+                    return;
+                }
+                Toast.makeText(MainActivity.this, "Failed to create session: " + reason, Toast.LENGTH_LONG).show();
+                // For demo purposes, still start the beacon
+                startDemoMode(className, period, roomNumber);
+            }
+        }
+        
+        private void onAnswered(boolean successful, int code, String responseBody) {
+            inFlight--;
+            if (settled) {
+                return;
+            }
+            settled = true;
+            mainHandler.removeCallbacks(hedge);
             
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON creation error", e);
-            Toast.makeText(this, "Error creating session data", Toast.LENGTH_SHORT).show();
+            if (startedSessionId != null) {
+                onStartReported(successful, code, responseBody);
+                return;
+            }
+            if (!successful) {
+                Log.w(TAG, "Session creation failed with code: " + code);
+                Toast.makeText(MainActivity.this, "Session creation failed. Starting demo mode.", Toast.LENGTH_SHORT).show();
+                startDemoMode(className, period, roomNumber);
+                return;
+            }
+            try {
+                JSONObject result = new JSONObject(responseBody);
+                currentSessionId = result.getString("sessionId");
+                
+                Log.i(TAG, "Session created successfully with ID: " + currentSessionId);
+                
+                checkpointSession(className, period, roomNumber);
+                startBluetoothBeacon();
+                updateUI(true, className, period, roomNumber);
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON parsing error", e);
+                startDemoMode(className, period, roomNumber);
+            }
+        }
+        
+        private void retryLater() {
+            Log.w(TAG, "Could not report start of " + startedSessionId + ", retrying");
+            mainHandler.postDelayed(() -> {
+                if (isAdvertising && startedSessionId.equals(currentSessionId)) {
+                    new SessionCreateCall(path, body, startedSessionId, className, period, roomNumber).start();
+                }
+            }, START_RETRY_MS);
+        }
+        
+        // The backend keeps its own values for a provisioned session, so a
+        // room changed on the timetable since the prefetch shows up here
+        private void onStartReported(boolean successful, int code, String responseBody) {
+            if (!successful) {
+                Log.w(TAG, "Session start report rejected with code: " + code);
+                return;
+            }
+            try {
+                JSONObject session = new JSONObject(responseBody).getJSONObject("session");
+                String room = session.optString("room", roomNumber);
+                String backendClass = session.optString("className", className);
+                if (startedSessionId.equals(currentSessionId)
+                        && (!room.equals(roomNumber) || !backendClass.equalsIgnoreCase(className))) {
+                    Log.i(TAG, "Backend updated session " + startedSessionId + ": " + backendClass + " in " + room);
+                    updateUI(true, backendClass, period, room);
+                    Toast.makeText(MainActivity.this, "Timetable updated: " + backendClass + " in " + room,
+                            Toast.LENGTH_LONG).show();
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "JSON parsing error", e);
+            }
         }
     }
     
     private void startDemoMode(String className, String period, String roomNumber) {
         currentSessionId = "demo-session-" + System.currentTimeMillis();
         Log.i(TAG, "Starting demo mode with session ID: " + currentSessionId);
+        checkpointSession(className, period, roomNumber);
         startBluetoothBeacon();
         updateUI(true, className, period, roomNumber);
     }
@@ -319,6 +617,10 @@ public class MainActivity extends AppCompatActivity {
             runOnUiThread(() -> {
                 tvStatus.setText("🟢 Beacon Active - Session: " + 
                     (currentSessionId.length() > 20 ? currentSessionId.substring(0, 20) + "..." : currentSessionId));
+                if (resumeStartedNanos != 0) {
+                    Log.i(TAG, "Session resumed in " + (System.nanoTime() - resumeStartedNanos) / 1_000_000 + " ms");
+                    resumeStartedNanos = 0;
+                }
                 Toast.makeText(MainActivity.this, "Beacon started! Students can now mark attendance.", Toast.LENGTH_LONG).show();
                 
                 // Start OTP generation timer
@@ -367,6 +669,10 @@ public class MainActivity extends AppCompatActivity {
                     Thread.sleep(10000); // Generate OTP every 10 seconds for demo
                     if (isAdvertising) {
                         generateDemoOTP();
+                        OtpCheckpoint store = getCheckpoint();
+                        if (store != null) {
+                            store.flush();
+                        }
                     }
                 } catch (InterruptedException e) {
                     break;
@@ -396,6 +702,10 @@ public class MainActivity extends AppCompatActivity {
         isAdvertising = false;
         currentSessionId = null;
         activeOTPs.clear();
+        OtpCheckpoint store = getCheckpoint();
+        if (store != null) {
+            store.clear();
+        }
         
         updateUI(false, "", "", "");
         
@@ -425,7 +735,11 @@ public class MainActivity extends AppCompatActivity {
         long expiryTime = System.currentTimeMillis() + 90000; // 90 seconds
         
         activeOTPs.put(studentId, new OTPData(otp, studentId, expiryTime));
-        
+        OtpCheckpoint store = getCheckpoint();
+        if (store != null) {
+            store.putOtp(studentId, otp, expiryTime, false);
+        }
+
         Log.d(TAG, "Generated OTP for student " + studentId + ": " + otp + " (expires at " + new java.util.Date(expiryTime) + ")");
         
         runOnUiThread(() -> {
@@ -437,8 +751,17 @@ public class MainActivity extends AppCompatActivity {
     
     private void cleanExpiredOTPs() {
         long currentTime = System.currentTimeMillis();
-        activeOTPs.entrySet().removeIf(entry -> 
-            entry.getValue().expiryTime < currentTime || entry.getValue().used);
+        OtpCheckpoint store = getCheckpoint();
+        Iterator<Map.Entry<String, OTPData>> it = activeOTPs.entrySet().iterator();
+        while (it.hasNext()) {
+            OTPData data = it.next().getValue();
+            if (data.expiryTime < currentTime || data.used) {
+                if (store != null) {
+                    store.removeOtp(data.studentId);
+                }
+                it.remove();
+            }
+        }
     }
 
     @Override
@@ -457,6 +780,7 @@ public class MainActivity extends AppCompatActivity {
             if (allPermissionsGranted) {
                 Log.i(TAG, "All Bluetooth permissions granted");
                 Toast.makeText(this, "Permissions granted. Ready to start beacon.", Toast.LENGTH_SHORT).show();
+                maybeResumeSession();
             } else {
                 Log.w(TAG, "Some Bluetooth permissions denied");
                 Toast.makeText(this, "Bluetooth permissions required for beacon functionality", Toast.LENGTH_LONG).show();
@@ -483,6 +807,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         Log.d(TAG, "MainActivity being destroyed");
+        endpointRouter.stopProbes();
         if (isAdvertising) {
             stopBeaconSession();
         }
@@ -0,0 +1,209 @@
+package com.smartattendance;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped checkpoint of the running session and its active OTPs, so
+ * the beacon can be resumed if the app is killed mid-class. Each OTP owns a
+ * fixed 64-byte slot and only that slot is rewritten when it changes. Writes
+ * reach the page cache immediately, which outlives the process. Header and
+ * slots carry a CRC32, so a torn write is skipped on restore.
+ */
+class OtpCheckpoint {
+    private static final String TAG = "OtpCheckpoint";
+
+    private static final int MAGIC = 0x4F434B50; // "OCKP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 512;
+    private static final int RECORD_BYTES = 64;
+    private static final int MAX_RECORDS = 1024;
+    private static final int MAX_STUDENT_ID_BYTES = 40;
+
+    static final class Session {
+        final String sessionId;
+        final String className;
+        final String period;
+        final String roomNumber;
+
+        Session(String sessionId, String className, String period, String roomNumber) {
+            this.sessionId = sessionId;
+            this.className = className;
+            this.period = period;
+            this.roomNumber = roomNumber;
+        }
+    }
+
+    // Called back for each saved OTP on restore
+    interface OtpVisitor {
+        void visit(String studentId, String otp, long expiryTime, boolean used);
+    }
+
+    private final MappedByteBuffer map;
+    private final Map<String, Integer> slotByStudent = new HashMap<>();
+    private final BitSet usedSlots = new BitSet(MAX_RECORDS);
+    private Session session;
+
+    OtpCheckpoint(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_BYTES + (long) MAX_RECORDS * RECORD_BYTES);
+        }
+        session = readHeader();
+        for (int slot = 0; slot < MAX_RECORDS; slot++) {
+            if (session == null) {
+                map.putInt(HEADER_BYTES + slot * RECORD_BYTES, 0);
+            } else {
+                String studentId = readStudentId(slot);
+                if (studentId != null) {
+                    slotByStudent.put(studentId, slot);
+                    usedSlots.set(slot);
+                }
+            }
+        }
+    }
+
+    synchronized Session getSession() {
+        return session;
+    }
+
+    synchronized void saveSession(Session newSession) {
+        if (session == null || !session.sessionId.equals(newSession.sessionId)) {
+            clearSlots();
+        }
+        session = newSession;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION);
+        for (String value : new String[] { newSession.sessionId, newSession.className,
+                newSession.period, newSession.roomNumber }) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, 100);
+            header.putShort((short) length).put(bytes, 0, length);
+        }
+        header.putInt(HEADER_BYTES - 4, crc(header.array(), HEADER_BYTES - 4));
+        map.position(0);
+        map.put(header.array());
+    }
+
+    synchronized void clear() {
+        session = null;
+        map.putInt(0, 0);
+        clearSlots();
+    }
+
+    synchronized void putOtp(String studentId, String otp, long expiryTime, boolean used) {
+        byte[] id = studentId.getBytes(StandardCharsets.UTF_8);
+        if (session == null || id.length > MAX_STUDENT_ID_BYTES) {
+            return;
+        }
+        Integer slot = slotByStudent.get(studentId);
+        if (slot == null) {
+            slot = usedSlots.nextClearBit(0);
+            if (slot >= MAX_RECORDS) {
+                Log.w(TAG, "Checkpoint full, OTP for " + studentId + " not saved");
+                return;
+            }
+            usedSlots.set(slot);
+            slotByStudent.put(studentId, slot);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.putInt(used ? 2 : 1)
+            .putLong(expiryTime)
+            .putInt(Integer.parseInt(otp))
+            .put((byte) id.length)
+            .put(id);
+        record.putInt(RECORD_BYTES - 4, crc(record.array(), RECORD_BYTES - 4));
+        map.position(HEADER_BYTES + slot * RECORD_BYTES);
+        map.put(record.array());
+    }
+
+    synchronized void removeOtp(String studentId) {
+        Integer slot = slotByStudent.remove(studentId);
+        if (slot != null) {
+            usedSlots.clear(slot);
+            map.putInt(HEADER_BYTES + slot * RECORD_BYTES, 0);
+        }
+    }
+
+    synchronized void forEachOtp(OtpVisitor visitor) {
+        for (int slot = usedSlots.nextSetBit(0); slot >= 0; slot = usedSlots.nextSetBit(slot + 1)) {
+            ByteBuffer record = readRecord(slot);
+            if (record == null) {
+                continue;
+            }
+            boolean used = record.getInt(0) == 2;
+            long expiryTime = record.getLong(4);
+            String otp = String.valueOf(record.getInt(12));
+            visitor.visit(readStudentId(slot), otp, expiryTime, used);
+        }
+    }
+
+    // Pushes changes to storage; only needed against power loss
+    synchronized void flush() {
+        map.force();
+    }
+
+    private void clearSlots() {
+        for (int slot = usedSlots.nextSetBit(0); slot >= 0; slot = usedSlots.nextSetBit(slot + 1)) {
+            map.putInt(HEADER_BYTES + slot * RECORD_BYTES, 0);
+        }
+        usedSlots.clear();
+        slotByStudent.clear();
+    }
+
+    private ByteBuffer readRecord(int slot) {
+        byte[] bytes = new byte[RECORD_BYTES];
+        map.position(HEADER_BYTES + slot * RECORD_BYTES);
+        map.get(bytes);
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        int length = bytes[16] & 0xFF;
+        if (record.getInt(0) == 0 || length > MAX_STUDENT_ID_BYTES
+                || record.getInt(RECORD_BYTES - 4) != crc(bytes, RECORD_BYTES - 4)) {
+            return null;
+        }
+        return record;
+    }
+
+    private String readStudentId(int slot) {
+        ByteBuffer record = readRecord(slot);
+        if (record == null) {
+            return null;
+        }
+        return new String(record.array(), 17, record.get(16) & 0xFF, StandardCharsets.UTF_8);
+    }
+
+    private Session readHeader() {
+        byte[] bytes = new byte[HEADER_BYTES];
+        map.position(0);
+        map.get(bytes);
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt(HEADER_BYTES - 4) != crc(bytes, HEADER_BYTES - 4)) {
+            return null;
+        }
+        String[] values = new String[4];
+        for (int i = 0; i < values.length; i++) {
+            int length = header.getShort();
+            values[i] = new String(bytes, header.position(), length, StandardCharsets.UTF_8);
+            header.position(header.position() + length);
+        }
+        return new Session(values[0], values[1], values[2], values[3]);
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,95 @@
+package com.smartattendance;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Today's timetable as fetched from /timetable/:teacherId, kept in
+ * preferences. Every slot carries a session id the backend provisioned when
+ * the day was fetched, so a class on the timetable starts without waiting
+ * for a session create.
+ */
+class Timetable {
+    private static final String TAG = "Timetable";
+    private static final String KEY_DATE = "date";
+    private static final String KEY_TEACHER_ID = "teacher_id";
+    private static final String KEY_SESSIONS = "sessions";
+
+    private final SharedPreferences prefs;
+    private String date;
+    private String teacherId;
+    private JSONArray sessions;
+
+    Timetable(SharedPreferences prefs) {
+        this.prefs = prefs;
+        date = prefs.getString(KEY_DATE, null);
+        teacherId = prefs.getString(KEY_TEACHER_ID, null);
+        try {
+            sessions = new JSONArray(prefs.getString(KEY_SESSIONS, "[]"));
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable cached timetable");
+            sessions = new JSONArray();
+        }
+    }
+
+    static String today() {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date());
+    }
+
+    // The device zone's offset at midday today, when classes run; a DST
+    // switch happens at night, so this is the offset of every slot
+    static int utcOffsetMinutes() {
+        Calendar midday = Calendar.getInstance();
+        midday.set(Calendar.HOUR_OF_DAY, 12);
+        midday.set(Calendar.MINUTE, 0);
+        return TimeZone.getDefault().getOffset(midday.getTimeInMillis()) / (60 * 1000);
+    }
+
+    synchronized String getTeacherId() {
+        return teacherId;
+    }
+
+    synchronized boolean isCurrent(String teacher) {
+        return teacher.equals(teacherId) && today().equals(date);
+    }
+
+    // Stores a fetched day; body is the /timetable response
+    synchronized void update(String teacher, String body) throws JSONException {
+        JSONObject day = new JSONObject(body);
+        sessions = day.getJSONArray(KEY_SESSIONS);
+        date = day.optString(KEY_DATE, today());
+        teacherId = teacher;
+        prefs.edit()
+            .putString(KEY_DATE, date)
+            .putString(KEY_TEACHER_ID, teacherId)
+            .putString(KEY_SESSIONS, sessions.toString())
+            .apply();
+    }
+
+    // The provisioned slot for this class today, or null
+    synchronized JSONObject findSlot(String teacher, String className, String period) {
+        if (!isCurrent(teacher)) {
+            return null;
+        }
+        for (int i = 0; i < sessions.length(); i++) {
+            JSONObject slot = sessions.optJSONObject(i);
+            if (slot != null
+                    && !"cancelled".equals(slot.optString("status"))
+                    && className.equalsIgnoreCase(slot.optString("className"))
+                    && period.equals(slot.optString("period"))) {
+                return slot;
+            }
+        }
+        return null;
+    }
+}
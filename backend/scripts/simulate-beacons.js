@@ -0,0 +1,123 @@
+// Simulates several beacons sharing one session to check partitioning and
+// the backend merge. Students pick a beacon by rendezvous hashing exactly as
+// the student app does; beacons issue codes from their own residue class and
+// upload their logs in shuffled batches.
+//
+//   node scripts/simulate-beacons.js [beacons] [students]
+const assert = require('assert');
+const BeaconLogService = require('../src/services/BeaconLogService');
+
+const BEACONS = Number(process.argv[2]) || 4;
+const STUDENTS = Number(process.argv[3]) || 400;
+const SESSION_ID = 'SES_SIMULATED';
+const BATCH_SIZE = 50;
+
+// 32-bit FNV-1a over UTF-8, as in BeaconShard / ShardSelector
+const fnv1a = (value) => {
+  let hash = 0x811c9dc5;
+  for (const byte of Buffer.from(value, 'utf8')) {
+    hash ^= byte;
+    hash = Math.imul(hash, 0x01000193);
+  }
+  return hash >>> 0;
+};
+
+const weight = (studentKey, beaconId) => fnv1a(`${studentKey}:${(beaconId >>> 0).toString(16)}`);
+
+const pickBeacon = (studentKey, beacons) => beacons.reduce((best, beacon) =>
+  (weight(studentKey, beacon.beaconId) > weight(studentKey, best.beaconId) ? beacon : best));
+
+const nextOtp = (beacon) => {
+  const slot = Math.floor(Math.random() * Math.floor(1000000 / beacon.count));
+  return String(slot * beacon.count + beacon.index).padStart(6, '0');
+};
+
+const beacons = Array.from({ length: BEACONS }, (_, index) => ({
+  index,
+  count: BEACONS,
+  beaconId: fnv1a(`install-${index}`) | 0,
+  log: []
+}));
+
+// Partition
+const students = Array.from({ length: STUDENTS }, (_, i) => `CS${String(i + 1).padStart(3, '0')}`);
+const assignment = new Map();
+for (const student of students) {
+  const beacon = pickBeacon(student, beacons);
+  assignment.set(student, beacon);
+  assert.strictEqual(pickBeacon(student, beacons), beacon, 'partition must be deterministic');
+}
+
+// Issue OTPs; each beacon keeps its own log, ordered by issue time
+let clock = Date.now();
+const issuedAt = new Map();
+for (const student of students) {
+  const beacon = assignment.get(student);
+  let otp = nextOtp(beacon);
+  while (issuedAt.has(otp)) {
+    otp = nextOtp(beacon);
+  }
+  clock += Math.floor(Math.random() * 20);
+  issuedAt.set(otp, clock);
+  beacon.log.push({
+    otp,
+    sessionId: SESSION_ID,
+    deviceAddress: `AA:BB:${student}`,
+    createdAt: clock,
+    expiresAt: clock + 90000,
+    beaconId: beacon.beaconId,
+    shardIndex: beacon.index,
+    shardCount: beacon.count
+  });
+}
+
+// Upload per-beacon batches in an interleaved, shuffled order, with one retry
+const uploads = [];
+for (const beacon of beacons) {
+  for (let i = 0; i < beacon.log.length; i += BATCH_SIZE) {
+    uploads.push(beacon.log.slice(i, i + BATCH_SIZE));
+  }
+}
+uploads.sort(() => Math.random() - 0.5);
+uploads.push(uploads[0]);
+const known = { isKnownSession: sessionId => sessionId === SESSION_ID };
+for (const batch of uploads) {
+  BeaconLogService.ingest(batch, known);
+}
+
+// Logs for a session the backend doesn't know are not stored
+const stray = { ...beacons[0].log[0], sessionId: 'SES_UNKNOWN' };
+assert.strictEqual(BeaconLogService.ingest([stray], known).unknownSessions, 1, 'unknown session must be refused');
+assert.strictEqual(BeaconLogService.summary('SES_UNKNOWN'), null, 'unknown session must not be stored');
+
+// A code outside the beacon's space is refused
+const forged = { ...beacons[0].log[0], otp: String((Number(beacons[0].log[0].otp) + 1) % 1000000).padStart(6, '0') };
+if (BEACONS > 1) {
+  assert.strictEqual(BeaconLogService.ingest([forged], known).rejected, 1, 'forged code must be rejected');
+}
+
+// Verify the merge
+const summary = BeaconLogService.summary(SESSION_ID);
+const stream = BeaconLogService.stream(SESSION_ID);
+assert.strictEqual(stream.length, STUDENTS, 'every issued code appears exactly once');
+for (let i = 1; i < stream.length; i++) {
+  assert.ok(stream[i - 1].createdAt <= stream[i].createdAt, 'stream is ordered by issue time');
+}
+for (const entry of stream) {
+  assert.strictEqual(Number(entry.otp) % BEACONS, entry.shardIndex, 'code maps back to its beacon');
+}
+assert.deepStrictEqual(summary.missingShards, []);
+
+// A used code can't be reissued back into an unused state
+const used = beacons[0].log[0];
+assert.ok(BeaconLogService.consume(SESSION_ID, used.otp));
+const reissue = { ...used, deviceAddress: 'AA:BB:CC:DD:EE:FF', createdAt: used.createdAt + 1 };
+assert.strictEqual(BeaconLogService.ingest([reissue], known).rejected, 1, 'reissue of a used code must be rejected');
+assert.ok(BeaconLogService.find(SESSION_ID, used.otp).consumedAt, 'code must stay used');
+
+const loads = summary.beacons.map(b => b.issued);
+const ideal = STUDENTS / BEACONS;
+console.log(`${BEACONS} beacons, ${STUDENTS} students`);
+summary.beacons.forEach(b => console.log(`  beacon ${b.shardIndex + 1}/${b.shardCount}: ${b.issued} students`));
+console.log(`  max/ideal load: ${(Math.max(...loads) / ideal).toFixed(2)}`);
+console.log('Partition and merge OK');
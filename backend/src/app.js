@@ -8,6 +8,7 @@ const winston = require('winston');
 const compression = require('compression');
 const morgan = require('morgan');
 const path = require('path');
+const LiveEventService = require('./services/LiveEventService');
 require('dotenv').config();
 
 const app = express();
@@ -106,7 +107,7 @@ app.post('/api/sessions', (req, res) => {
     logger.info('Session created:', { sessionId, className: req.body.className });
     
     // Emit to connected clients
-    io.emit('session-created', { sessionId, session });
+    LiveEventService.publish(io, null, 'session-created', { sessionId, session });
     
     res.json({ 
       success: true, 
@@ -174,7 +175,7 @@ app.post('/api/attendance/submit', (req, res) => {
     });
     
     // Emit real-time update
-    io.to(`session-${sessionId}`).emit('attendance-update', {
+    LiveEventService.publish(io, `session-${sessionId}`, 'attendance-update', {
       type: 'new-attendance',
       attendance
     });
@@ -221,6 +222,9 @@ io.on('connection', (socket) => {
     socket.join(`session-${sessionId}`);
     logger.info(`Client ${socket.id} joined session ${sessionId}`);
   });
+
+  // Rejoin plus replay of missed events for reconnecting clients
+  LiveEventService.attach(socket, logger);
   
   socket.on('disconnect', () => {
     logger.info(`Client disconnected: ${socket.id}`);
@@ -0,0 +1,69 @@
+// Replays the first response for a repeated Idempotency-Key. Clients hedge
+// latency-critical POSTs (e.g. session creation) across endpoints, so the
+// same request can arrive more than once; only the first one runs.
+//
+// The store is per process. Duplicates that reach another endpoint (a relay
+// or a fallback) are not seen here, so the hedged handlers must also be
+// upserts on an id the client chose (session create and start are).
+const TTL_MS = 10 * 60 * 1000;
+const MAX_KEYS = 5000;
+
+const entries = new Map();
+
+const sweep = (now) => {
+  for (const [key, entry] of entries) {
+    if (entry.expiresAt > now && entries.size <= MAX_KEYS) {
+      break;
+    }
+    entries.delete(key);
+  }
+};
+
+const idempotent = (req, res, next) => {
+  const key = req.get('Idempotency-Key');
+  if (!key) {
+    return next();
+  }
+
+  const now = Date.now();
+  sweep(now);
+
+  const existing = entries.get(key);
+  if (existing) {
+    // A duplicate that arrives while the first is still running waits for it
+    return existing.done.then(({ status, body }) => {
+      res.set('Idempotent-Replay', 'true');
+      res.status(status).json(body);
+    });
+  }
+
+  let resolve;
+  const entry = {
+    expiresAt: now + TTL_MS,
+    done: new Promise((r) => { resolve = r; })
+  };
+  entries.set(key, entry);
+
+  let settled = false;
+  const settle = (status, body) => {
+    if (settled) {
+      return;
+    }
+    settled = true;
+    if (status >= 500) {
+      // Let a retry run the handler again after a server error
+      entries.delete(key);
+    }
+    resolve({ status, body });
+  };
+
+  const json = res.json.bind(res);
+  res.json = (body) => {
+    settle(res.statusCode, body);
+    return json(body);
+  };
+  res.on('close', () => settle(503, { message: 'Original request did not complete' }));
+  next();
+};
+
+module.exports = { idempotent };
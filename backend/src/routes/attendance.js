@@ -2,6 +2,8 @@ const express = require('express');
 const { body, validationResult } = require('express-validator');
 const { Attendance, OTP, Session, User, DeviceTracking } = require('../models');
 const SecurityService = require('../services/SecurityService');
+const LiveEventService = require('../services/LiveEventService');
+const SessionStatsService = require('../services/SessionStatsService');
 const { authenticateToken } = require('../middleware/auth');
 
 const router = express.Router();
@@ -63,6 +65,12 @@ router.post('/submit', [
         rollNumber,
         reason: 'Invalid or expired OTP'
       });
+      LiveEventService.publish(io, `session-${sessionId}`, 'security-alert', {
+        type: 'failed_attempt',
+        sessionId,
+        rollNumber,
+        reason: 'Invalid or expired OTP'
+      });
       return res.status(400).json({ message: 'Invalid or expired OTP' });
     }
 
@@ -95,6 +103,13 @@ router.post('/submit', [
         reason: securityAnalysis.reason,
         flags: securityAnalysis.flags
       }, 'high');
+      LiveEventService.publish(io, `session-${sessionId}`, 'security-alert', {
+        type: 'security_violation',
+        sessionId,
+        rollNumber,
+        reason: securityAnalysis.reason,
+        flags: securityAnalysis.flags
+      });
 
       // Block device/IP if score is critically low
       if (securityAnalysis.score < 30) {
@@ -102,6 +117,7 @@ router.post('/submit', [
         await SecurityService.blockIP(ipAddress, 'Critical security score');
       }
 
+      SessionStatsService.recordBlocked(sessionId);
       return res.status(403).json({
         message: securityAnalysis.reason,
         securityScore: securityAnalysis.score,
@@ -122,6 +138,7 @@ router.post('/submit', [
       securityFlags: securityAnalysis.flags,
       status: 'present'
     });
+    SessionStatsService.recordAttendance(sessionId, securityAnalysis.score);
 
     // Step 7: Mark OTP as used
     await otpRecord.update({ used: true });
@@ -138,8 +155,9 @@ router.post('/submit', [
     });
 
     // Step 9: Real-time notification
-    io.to(`session-${sessionId}`).emit('attendance-update', {
+    LiveEventService.publish(io, `session-${sessionId}`, 'attendance-update', {
       type: 'new-attendance',
+      sessionId,
       attendance: {
         ...attendanceRecord.toJSON(),
         studentName: student.name
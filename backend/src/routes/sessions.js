@@ -2,11 +2,15 @@ const express = require('express');
 const { body, validationResult } = require('express-validator');
 const { Session, User, Attendance } = require('../models');
 const { v4: uuidv4 } = require('uuid');
+const LiveEventService = require('../services/LiveEventService');
+const SessionStatsService = require('../services/SessionStatsService');
+const { idempotent } = require('../middleware/idempotency');
 
 const router = express.Router();
 
 // Create new session
-router.post('/', [
+router.post('/', idempotent, [
+  body('sessionId').optional().isUUID().withMessage('Session ID must be a UUID'),
   body('className').notEmpty().withMessage('Class name is required'),
   body('period').isInt({ min: 1, max: 10 }).withMessage('Period must be between 1-10'),
   body('roomNumber').notEmpty().withMessage('Room number is required'),
@@ -18,7 +22,7 @@ router.post('/', [
       return res.status(400).json({ errors: errors.array() });
     }
 
-    const { className, period, roomNumber, teacherId, date, startTime } = req.body;
+    const { sessionId, className, period, roomNumber, teacherId, date, startTime } = req.body;
 
     // Find teacher
     const teacher = await User.findOne({ where: { rollNumber: teacherId, role: 'teacher' } });
@@ -26,25 +30,31 @@ router.post('/', [
       return res.status(404).json({ message: 'Teacher not found' });
     }
 
-    // Create session
-    const session = await Session.create({
-      teacherId: teacher.id,
-      className,
-      period: parseInt(period),
-      roomNumber,
-      date: date || new Date().toISOString().split('T')[0],
-      startTime: startTime || new Date(),
-      status: 'active'
-    });
-
-    const io = req.app.get('io');
-    io.emit('session-created', {
-      sessionId: session.id,
-      className,
-      teacherName: teacher.name
+    // Upsert on the id the device chose: a hedged duplicate of this request
+    // can reach another process, where the idempotency store can't see the
+    // first, but the database still holds one session per id
+    const [session, created] = await Session.findOrCreate({
+      where: { id: sessionId || uuidv4() },
+      defaults: {
+        teacherId: teacher.id,
+        className,
+        period: parseInt(period),
+        roomNumber,
+        date: date || new Date().toISOString().split('T')[0],
+        startTime: startTime || new Date(),
+        status: 'active'
+      }
     });
+    if (created) {
+      const io = req.app.get('io');
+      LiveEventService.publish(io, null, 'session-created', {
+        sessionId: session.id,
+        className,
+        teacherName: teacher.name
+      });
+    }
 
-    res.status(201).json({
+    res.status(created ? 201 : 200).json({
       success: true,
       sessionId: session.id,
       session: {
@@ -200,7 +210,7 @@ router.put('/:sessionId/status', [
     });
 
     const io = req.app.get('io');
-    io.to(`session-${sessionId}`).emit('session-status-updated', {
+    LiveEventService.publish(io, `session-${sessionId}`, 'session-status-updated', {
       sessionId,
       status,
       endTime: session.endTime
@@ -230,6 +240,16 @@ router.get('/:sessionId/stats', async (req, res) => {
     if (!session) {
       return res.status(404).json({ message: 'Session not found' });
     }
+    const sessionDuration = session.endTime
+      ? Math.round((new Date(session.endTime) - new Date(session.startTime)) / 60000)
+      : Math.round((new Date() - new Date(session.startTime)) / 60000);
+
+    // The precomputed record (beacon statistics plus totals kept by the
+    // submission path) is complete if this process saw the whole session
+    const record = SessionStatsService.get(sessionId);
+    if (record && SessionStatsService.covers(session.startTime)) {
+      return res.json({ ...record, className: session.className, sessionDuration });
+    }
 
     const attendanceStats = await Attendance.findAll({
       where: { sessionId },
@@ -249,9 +269,7 @@ router.get('/:sessionId/stats', async (req, res) => {
       averageSecurityScore: Math.round(parseFloat(attendanceStats[0].avgSecurityScore) || 0),
       minSecurityScore: parseInt(attendanceStats[0].minSecurityScore) || 0,
       maxSecurityScore: parseInt(attendanceStats[0].maxSecurityScore) || 0,
-      sessionDuration: session.endTime 
-        ? Math.round((new Date(session.endTime) - new Date(session.startTime)) / 60000) 
-        : Math.round((new Date() - new Date(session.startTime)) / 60000)
+      sessionDuration
     };
 
     res.json(stats);
@@ -7,6 +7,12 @@ const winston = require('winston');
 const path = require('path');
 const fs = require('fs');
 const { v4: uuidv4 } = require('uuid');
+const LiveEventService = require('./services/LiveEventService');
+const BeaconLogService = require('./services/BeaconLogService');
+const TimetableService = require('./services/TimetableService');
+const SessionStatsService = require('./services/SessionStatsService');
+const RelayAuthService = require('./services/RelayAuthService');
+const { idempotent } = require('./middleware/idempotency');
 require('dotenv').config();
 
 const app = express();
@@ -19,6 +25,14 @@ const io = new Server(server, {
 });
 
 const PORT = process.env.PORT || 3000;
+const MAX_RELAY_BATCH = 500;
+const MAX_STATS_BATCH = 100;
+// Beacons upload OTP logs in batches, so a code can reach us before its log
+const OTP_LOG_RETRY_AFTER_S = 1;
+// Session ids devices may choose themselves (UUIDs, timetable ids)
+const CLIENT_SESSION_ID = /^[A-Za-z0-9_-]{8,64}$/;
+// Score deducted per risk flag raised by the beacon's on-device pre-filter
+const BEACON_FLAG_PENALTY = 15;
 
 // Create logs directory if it doesn't exist
 const logsDir = path.join(__dirname, '../logs');
@@ -69,10 +83,19 @@ users.set('student@demo.com', {
   password: 'password123'
 });
 
+// Demo timetable for the demo teacher, Monday to Friday
+const demoDay = [
+  { className: 'Computer Science 101', period: '1', room: 'A101', startTime: '09:00' },
+  { className: 'Data Structures', period: '2', room: 'A104', startTime: '10:00' },
+  { className: 'Computer Networks', period: '4', room: 'B201', startTime: '13:00' }
+];
+TimetableService.setTimetable('T001', { 1: demoDay, 2: demoDay, 3: demoDay, 4: demoDay, 5: demoDay });
+
 // Middleware
 app.use(helmet());
 app.use(cors());
-app.use(express.json({ limit: '10mb' }));
+// The raw (inflated) body is kept for checking relay batch signatures
+app.use(express.json({ limit: '10mb', verify: (req, res, buf) => { req.rawBody = buf; } }));
 app.use(express.urlencoded({ extended: true }));
 
 // Health check
@@ -135,19 +158,28 @@ app.post('/api/auth/login', (req, res) => {
   }
 });
 
-// Session management
-app.post('/api/sessions', (req, res) => {
+// Session management. Devices choose the session id, and a create for an
+// existing id answers with that session: a hedged duplicate that reaches
+// another process (where the idempotency store can't see the first) still
+// ends up with one session.
+app.post('/api/sessions', idempotent, (req, res) => {
   try {
-    const sessionId = uuidv4();
+    const { sessionId: requestedId, relayKey, ...fields } = req.body || {};
+    const sessionId = CLIENT_SESSION_ID.test(requestedId || '') ? requestedId : uuidv4();
+    const existing = sessions.get(sessionId);
+    if (existing) {
+      return res.json({ success: true, sessionId, session: sessionSummary(existing) });
+    }
     const session = {
       id: sessionId,
-      ...req.body,
+      ...fields,
       createdAt: new Date(),
       startTime: new Date(),
       status: 'active'
     };
     
     sessions.set(sessionId, session);
+    RelayAuthService.register(sessionId, relayKey);
     
     logger.info('Session created:', { 
       sessionId, 
@@ -157,19 +189,12 @@ app.post('/api/sessions', (req, res) => {
     });
     
     // Emit to connected clients
-    io.emit('session-created', { sessionId, session });
+    LiveEventService.publish(io, null, 'session-created', { sessionId, session });
     
     res.json({ 
       success: true, 
       sessionId, 
-      session: {
-        id: session.id,
-        className: session.className,
-        period: session.period,
-        roomNumber: session.roomNumber,
-        status: session.status,
-        startTime: session.createdAt
-      }
+      session: sessionSummary(session)
     });
   } catch (error) {
     logger.error('Session creation error:', error);
@@ -177,6 +202,15 @@ app.post('/api/sessions', (req, res) => {
   }
 });
 
+const sessionSummary = (session) => ({
+  id: session.id,
+  className: session.className,
+  period: session.period,
+  roomNumber: session.roomNumber,
+  status: session.status,
+  startTime: session.createdAt
+});
+
 // Get sessions
 app.get('/api/sessions', (req, res) => {
   try {
@@ -199,6 +233,40 @@ app.get('/api/sessions', (req, res) => {
   }
 });
 
+// Timetables. The teacher app fetches its whole day in one request and gets
+// every slot back with a provisioned session id, so starting a class needs no
+// round trip; the start is reported afterwards through /sessions/:id/start.
+app.put('/api/timetable/:teacherId', (req, res) => {
+  const week = TimetableService.setTimetable(req.params.teacherId, req.body);
+  res.json({ success: true, days: week.size });
+});
+
+// Slot times are local; devices pass their UTC offset in minutes (utcOffset)
+// so scheduled starts don't depend on the server's zone.
+app.get('/api/timetable/:teacherId', (req, res) => {
+  const requested = TimetableService.parseUtcOffset(req.query.utcOffset);
+  if (requested === null && req.query.utcOffset) {
+    return res.status(400).json({ message: 'utcOffset must be whole minutes between -720 and 840' });
+  }
+  const utcOffset = requested !== null ? requested : TimetableService.CONFIG.DEFAULT_UTC_OFFSET_MINUTES;
+  const date = /^\d{4}-\d{2}-\d{2}$/.test(req.query.date || '')
+    ? req.query.date
+    : TimetableService.localDate(utcOffset);
+  const day = TimetableService.provisionDay(sessions, req.params.teacherId, date, utcOffset);
+  res.json({ date, utcOffset, sessions: day });
+});
+
+app.post('/api/sessions/:sessionId/start', idempotent, (req, res) => {
+  const { relayKey, ...fields } = req.body || {};
+  const { session, created, activated } = TimetableService.start(sessions, req.params.sessionId, fields);
+  if (activated) {
+    RelayAuthService.register(session.id, relayKey);
+  }
+  logger.info('Session started:', { sessionId: session.id, className: session.className, created });
+  LiveEventService.publish(io, null, 'session-created', { sessionId: session.id, session });
+  res.status(created ? 201 : 200).json({ success: true, session: TimetableService.toSessionData(session) });
+});
+
 // Get attendance for session
 app.get('/api/attendance/session/:sessionId', (req, res) => {
   try {
@@ -223,66 +291,163 @@ app.get('/api/attendance/session/:sessionId', (req, res) => {
   }
 });
 
-// Attendance submission with security checks
-app.post('/api/attendance/submit', (req, res) => {
-  try {
-    const {
-      rollNumber,
-      otp,
-      sessionId,
-      deviceFingerprint,
-      ipAddress,
-      browserFingerprint,
-      geoLocation
-    } = req.body;
-    
-    // Basic validation
-    if (!rollNumber || !otp || !sessionId) {
-      return res.status(400).json({ message: 'Missing required fields: rollNumber, otp, sessionId' });
-    }
-    
-    // Check if session exists
-    const session = sessions.get(sessionId);
-    if (!session) {
-      return res.status(404).json({ message: 'Session not found' });
+const respond = (status, body, headers = {}) => ({ status, body, headers });
+
+// OTP issue logs uploaded by teacher/TA beacons; logs from every beacon of a
+// session are merged into one stream ordered by issue time. Like stats, only
+// logs for sessions this backend knows of are kept.
+const knownSession = { isKnownSession: sessionId => sessions.has(sessionId) };
+
+app.post('/api/otp/generate', (req, res) => {
+  const result = BeaconLogService.ingest([req.body], knownSession);
+  res.status(result.accepted || !result.rejected ? 201 : 400).json({ success: result.rejected === 0, ...result });
+});
+
+app.post('/api/otp/generate/batch', (req, res) => {
+  if (!Array.isArray(req.body)) {
+    return res.status(400).json({ message: 'Expected an array of OTP logs' });
+  }
+  const result = BeaconLogService.ingest(req.body, knownSession);
+  res.status(201).json({ success: true, ...result });
+});
+
+// Statistics snapshots computed on the beacons serving each session
+app.post('/api/sessions/stats', (req, res) => {
+  if (!Array.isArray(req.body)) {
+    return res.status(400).json({ message: 'Expected an array of stats snapshots' });
+  }
+  if (req.body.length > MAX_STATS_BATCH) {
+    return res.status(413).json({ message: `At most ${MAX_STATS_BATCH} snapshots per batch` });
+  }
+  // Only sessions this backend knows of; anything else could grow the
+  // stats store without bound
+  const result = SessionStatsService.ingest(req.body, {
+    isKnownSession: sessionId => sessions.has(sessionId)
+  });
+  res.status(201).json({ success: true, ...result });
+});
+
+// One precomputed record; nothing is aggregated per request
+app.get('/api/sessions/:sessionId/stats', (req, res) => {
+  const session = sessions.get(req.params.sessionId);
+  const stats = SessionStatsService.get(req.params.sessionId);
+  if (!session && !stats) {
+    return res.status(404).json({ message: 'Session not found' });
+  }
+  res.json({
+    ...(stats || { sessionId: req.params.sessionId }),
+    className: session?.className
+  });
+});
+
+app.get('/api/sessions/:sessionId/beacons', (req, res) => {
+  const summary = BeaconLogService.summary(req.params.sessionId);
+  if (!summary) {
+    return res.status(404).json({ message: 'No beacon logs for this session' });
+  }
+  if (req.query.stream === 'true') {
+    summary.stream = BeaconLogService.stream(req.params.sessionId, Number(req.query.since) || 0);
+  }
+  res.json(summary);
+});
+
+// Attendance submission with security checks. A code comes either from the
+// web portal's request-otp (kept per student) or from a beacon over BLE
+// (found in the beacons' merged OTP log). Submissions in a batch signed by a
+// classroom relay (see RelayAuthService) can only carry beacon codes, so the
+// per-student OTP lookup is skipped for them; their code must still be in the
+// beacon log, unexpired and unused, since the relay can't know whether it was
+// already submitted to this backend directly. Relayed submissions also carry
+// the beacon's risk flags; an empty list means the beacon screened the
+// traffic and found it clean, so the history scans below are skipped.
+// relayAuthenticated is only ever set by the signed batch route; flags on any
+// other submission are ignored.
+const processSubmission = (submission, { relayAuthenticated = false } = {}) => {
+  const {
+    rollNumber,
+    otp,
+    sessionId,
+    deviceFingerprint,
+    ipAddress,
+    browserFingerprint,
+    geoLocation,
+    riskFlags
+  } = submission;
+  const screened = relayAuthenticated && Array.isArray(riskFlags)
+    && riskFlags.every(flag => typeof flag === 'string');
+  
+  // Basic validation
+  if (!rollNumber || !otp || !sessionId) {
+    return respond(400, { message: 'Missing required fields: rollNumber, otp, sessionId' });
+  }
+  
+  // Check if session exists
+  const session = sessions.get(sessionId);
+  if (!session) {
+    return respond(404, { message: 'Session not found' });
+  }
+  
+  if (session.status !== 'active') {
+    return respond(400, { message: 'Session is not active' });
+  }
+  
+  // Check OTP
+  const otpKey = `${sessionId}:${rollNumber}`;
+  const otpData = otps.get(otpKey);
+  const beaconOtp = BeaconLogService.find(sessionId, otp);
+  
+  if (beaconOtp) {
+    if (beaconOtp.expiresAt && Date.now() > beaconOtp.expiresAt) {
+      return respond(400, { message: 'OTP expired' });
     }
     
-    if (session.status !== 'active') {
-      return res.status(400).json({ message: 'Session is not active' });
+    if (beaconOtp.consumedAt) {
+      return respond(400, { message: 'OTP already used' });
     }
-    
-    // Check OTP
-    const otpKey = `${sessionId}:${rollNumber}`;
-    const otpData = otps.get(otpKey);
-    
+  } else if (relayAuthenticated) {
+    // The relay's beacon issued the code, but its log upload may still be in flight
+    return respond(425, { message: 'OTP not in the beacon log yet. Retry shortly.' },
+      { 'Retry-After': String(OTP_LOG_RETRY_AFTER_S) });
+  } else {
     if (!otpData) {
-      return res.status(400).json({ message: 'OTP not found. Please request OTP first.' });
+      // Possibly a beacon's code whose log upload is still in flight
+      return respond(425, { message: 'OTP not found. Request one, or retry shortly if it came from a beacon.' },
+        { 'Retry-After': String(OTP_LOG_RETRY_AFTER_S) });
     }
     
     if (otpData.otp !== otp) {
-      return res.status(400).json({ message: 'Invalid OTP' });
+      return respond(400, { message: 'Invalid OTP' });
     }
     
     if (Date.now() > otpData.expiresAt) {
-      return res.status(400).json({ message: 'OTP expired' });
+      return respond(400, { message: 'OTP expired' });
     }
     
     if (otpData.used) {
-      return res.status(400).json({ message: 'OTP already used' });
+      return respond(400, { message: 'OTP already used' });
     }
-    
-    // Check for duplicate attendance
-    const existingAttendance = Array.from(attendance.values())
-      .find(a => a.rollNumber === rollNumber && a.sessionId === sessionId);
-    
-    if (existingAttendance) {
-      return res.status(409).json({ message: 'Attendance already marked for this session' });
+  }
+  
+  // Check for duplicate attendance
+  const existingAttendance = Array.from(attendance.values())
+    .find(a => a.rollNumber === rollNumber && a.sessionId === sessionId);
+  
+  if (existingAttendance) {
+    return respond(409, { message: 'Attendance already marked for this session' });
+  }
+  
+  // Security analysis (production-ready)
+  let securityScore = 100;
+  const securityFlags = [];
+  
+  if (screened) {
+    for (const flag of riskFlags) {
+      securityScore -= BEACON_FLAG_PENALTY;
+      securityFlags.push(`Beacon: ${flag}`);
     }
-    
-    // Security analysis (production-ready)
-    let securityScore = 100;
-    const securityFlags = [];
-    
+  }
+  
+  if (!screened || riskFlags.length > 0) {
     // Check device usage
     const deviceUsage = Array.from(attendance.values())
       .filter(a => a.deviceFingerprint === deviceFingerprint);
@@ -312,80 +477,130 @@ app.post('/api/attendance/submit', (req, res) => {
       securityScore -= 40;
       securityFlags.push('Rapid submission detected');
     }
-    
-    securityScore = Math.max(0, securityScore);
-    
-    // Block if security score too low
-    if (securityScore < 60) {
-      const logId = uuidv4();
-      securityLogs.set(logId, {
-        id: logId,
-        type: 'security_violation',
-        rollNumber,
-        sessionId,
-        reason: `Security score too low: ${securityScore}%. Flags: ${securityFlags.join(', ')}`,
-        severity: 'high',
-        timestamp: new Date(),
-        data: { securityFlags, securityScore }
-      });
-      
-      return res.status(403).json({
-        message: `Security check failed. Score: ${securityScore}%`,
-        securityScore,
-        flags: securityFlags
-      });
-    }
-    
-    // Save attendance
-    const attendanceId = uuidv4();
-    const attendanceRecord = {
-      id: attendanceId,
+  }
+  
+  securityScore = Math.max(0, securityScore);
+  
+  // Block if security score too low
+  if (securityScore < 60) {
+    SessionStatsService.recordBlocked(sessionId);
+    const logId = uuidv4();
+    securityLogs.set(logId, {
+      id: logId,
+      type: 'security_violation',
       rollNumber,
       sessionId,
-      studentName: `Student ${rollNumber}`,
+      reason: `Security score too low: ${securityScore}%. Flags: ${securityFlags.join(', ')}`,
+      severity: 'high',
       timestamp: new Date(),
-      securityScore,
-      deviceFingerprint: deviceFingerprint?.substring(0, 50) + '...',
-      ipAddress,
-      browserFingerprint: browserFingerprint?.substring(0, 50) + '...',
-      securityFlags,
-      status: 'present'
-    };
-    
-    attendance.set(attendanceId, attendanceRecord);
-    
-    // Mark OTP as used
-    otpData.used = true;
-    otps.set(otpKey, otpData);
-    
-    logger.info('Attendance marked:', {
-      attendanceId,
-      rollNumber,
-      sessionId,
-      securityScore,
-      flags: securityFlags
+      data: { securityFlags, securityScore }
     });
     
-    // Real-time update
-    io.to(`session-${sessionId}`).emit('attendance-update', {
-      type: 'new-attendance',
-      sessionId,
-      attendance: attendanceRecord
-    });
-    
-    res.json({ 
-      success: true, 
-      message: 'Attendance marked successfully',
-      attendanceId,
+    return respond(403, {
+      message: `Security check failed. Score: ${securityScore}%`,
       securityScore,
-      timestamp: attendanceRecord.timestamp
+      flags: securityFlags
     });
+  }
+  
+  // Save attendance
+  const attendanceId = uuidv4();
+  const attendanceRecord = {
+    id: attendanceId,
+    rollNumber,
+    sessionId,
+    studentName: `Student ${rollNumber}`,
+    timestamp: new Date(),
+    securityScore,
+    deviceFingerprint: deviceFingerprint?.substring(0, 50) + '...',
+    ipAddress,
+    browserFingerprint: browserFingerprint?.substring(0, 50) + '...',
+    securityFlags,
+    prescreened: screened && riskFlags.length === 0,
+    status: 'present'
+  };
+  
+  attendance.set(attendanceId, attendanceRecord);
+  SessionStatsService.recordAttendance(sessionId, securityScore);
+  
+  // Mark OTP as used
+  if (beaconOtp) {
+    BeaconLogService.consume(sessionId, otp);
+  } else if (otpData) {
+    otpData.used = true;
+    otps.set(otpKey, otpData);
+  }
+  
+  logger.info('Attendance marked:', {
+    attendanceId,
+    rollNumber,
+    sessionId,
+    securityScore,
+    flags: securityFlags
+  });
+  
+  // Real-time update
+  LiveEventService.publish(io, `session-${sessionId}`, 'attendance-update', {
+    type: 'new-attendance',
+    sessionId,
+    attendance: attendanceRecord
+  });
+  
+  return respond(200, {
+    success: true,
+    message: 'Attendance marked successfully',
+    attendanceId,
+    securityScore,
+    timestamp: attendanceRecord.timestamp
+  });
+};
+
+app.post('/api/attendance/submit', (req, res) => {
+  try {
+    const { status, body, headers } = processSubmission(req.body);
+    res.set(headers).status(status).json(body);
   } catch (error) {
     logger.error('Attendance submission error:', error);
     res.status(500).json({ message: 'Internal server error: ' + error.message });
   }
 });
 
+// Batched submissions from a teacher-device LAN relay (sent gzipped; the
+// JSON body parser inflates them). Each batch is signed with the relay key
+// registered for its session, and may only carry that session's submissions.
+app.post('/api/attendance/submit/batch', (req, res) => {
+  const relaySessionId = RelayAuthService.verify(req.headers, req.rawBody);
+  if (!relaySessionId) {
+    logger.warn('Rejected unauthenticated relay batch:', { ip: req.ip, session: req.get('X-Relay-Session') });
+    return res.status(401).json({ message: 'Relay signature missing or invalid' });
+  }
+  if (!Array.isArray(req.body)) {
+    return res.status(400).json({ message: 'Expected an array of submissions' });
+  }
+  if (req.body.length > MAX_RELAY_BATCH) {
+    return res.status(413).json({ message: `At most ${MAX_RELAY_BATCH} submissions per batch` });
+  }
+
+  const results = req.body.map((item) => {
+    const submission = item || {};
+    if (submission.sessionId !== relaySessionId) {
+      return { rollNumber: submission.rollNumber, status: 403, message: 'Submission is for another session' };
+    }
+    try {
+      const { status, body } = processSubmission(submission, { relayAuthenticated: true });
+      return { rollNumber: submission.rollNumber, status, message: body.message };
+    } catch (error) {
+      logger.error('Relayed submission error:', error);
+      return { rollNumber: submission.rollNumber, status: 500, message: error.message };
+    }
+  });
+  const accepted = results.filter(r => r.status === 200).length;
+  const prescreened = req.body.filter(item => item && Array.isArray(item.riskFlags) && item.riskFlags.length === 0).length;
+
+  logger.info('Relay batch processed:', { total: results.length, accepted, prescreened });
+  res.json({ success: true, total: results.length, accepted, results });
+});
+
 // OTP generation
 app.post('/api/attendance/request-otp', (req, res) => {
   try {
@@ -455,6 +670,18 @@ app.get('/api/attendance/history/:rollNumber', (req, res) => {
 });
 
 // Security alerts
+// Read from hourly rollups kept as submissions are decided and beacon
+// stats arrive
+app.get('/api/security/metrics', (req, res) => {
+  const timeframe = ['1h', '24h', '7d'].includes(req.query.timeframe) ? req.query.timeframe : '24h';
+  const hours = timeframe === '1h' ? 1 : timeframe === '7d' ? 168 : 24;
+  res.json({
+    ...SessionStatsService.metrics(hours),
+    timeframe,
+    generatedAt: new Date().toISOString()
+  });
+});
+
 app.get('/api/security/alerts', (req, res) => {
   try {
     const alertsList = Array.from(securityLogs.values())
@@ -490,6 +717,9 @@ io.on('connection', (socket) => {
     socket.leave(`session-${sessionId}`);
     logger.info(`Client ${socket.id} left session ${sessionId}`);
   });
+
+  // Rejoin plus replay of missed events for reconnecting clients
+  LiveEventService.attach(socket, logger);
   
   socket.on('disconnect', () => {
     logger.info(`Client disconnected: ${socket.id}`);
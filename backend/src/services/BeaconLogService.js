@@ -0,0 +1,214 @@
+// Merges OTP issue logs from the beacons serving a session into one stream.
+// A session can be served by several teacher/TA devices; beacon i of n only
+// issues codes with otp % n === i, so every code maps back to exactly one
+// beacon and codes from different beacons can never collide.
+class BeaconLogService {
+  constructor() {
+    this.CONFIG = {
+      MAX_ENTRIES_PER_SESSION: 20000,
+      SESSION_TTL_MS: 12 * 60 * 60 * 1000
+    };
+
+    this.sessions = new Map();
+  }
+
+  sessionFor(sessionId) {
+    let session = this.sessions.get(sessionId);
+    if (!session) {
+      session = {
+        beacons: new Map(),
+        stream: [],
+        byOtp: new Map(),
+        rejected: 0,
+        updatedAt: Date.now()
+      };
+      this.sessions.set(sessionId, session);
+    }
+    return session;
+  }
+
+  // Ingests one beacon's batch; entries are ordered by createdAt within a
+  // beacon, so each batch is merged into the session stream in one pass.
+  // Entries for sessions isKnownSession() rejects are counted as rejected
+  // and stored nowhere.
+  ingest(entries, { isKnownSession = () => false } = {}) {
+    const bySession = new Map();
+    let rejected = 0;
+    let unknownSessions = 0;
+    for (const entry of entries) {
+      if (!entry || !entry.sessionId || !/^\d{6}$/.test(String(entry.otp))) {
+        continue;
+      }
+      if (!isKnownSession(entry.sessionId)) {
+        unknownSessions++;
+        rejected++;
+        continue;
+      }
+      if (!bySession.has(entry.sessionId)) {
+        bySession.set(entry.sessionId, []);
+      }
+      bySession.get(entry.sessionId).push(entry);
+    }
+
+    let accepted = 0;
+    for (const [sessionId, batch] of bySession) {
+      const session = this.sessionFor(sessionId);
+      const fresh = [];
+      for (const entry of batch) {
+        const record = this.normalize(entry);
+        if (!this.ownsCode(record)) {
+          rejected++;
+          session.rejected++;
+          continue;
+        }
+        if (session.byOtp.has(record.otp)) {
+          const existing = session.byOtp.get(record.otp);
+          // A retried upload of the same issue is fine; anything else is a reissue
+          if (existing.deviceAddress === record.deviceAddress && existing.createdAt === record.createdAt) {
+            continue;
+          }
+          // A used code stays used; a reissue must not make it submittable again
+          if (existing.consumedAt) {
+            rejected++;
+            session.rejected++;
+            continue;
+          }
+        }
+        session.byOtp.set(record.otp, record);
+        this.trackBeacon(session, record);
+        fresh.push(record);
+      }
+      fresh.sort((a, b) => a.createdAt - b.createdAt);
+      session.stream = this.mergeSorted(session.stream, fresh);
+      if (session.stream.length > this.CONFIG.MAX_ENTRIES_PER_SESSION) {
+        const dropped = session.stream.splice(0, session.stream.length - this.CONFIG.MAX_ENTRIES_PER_SESSION);
+        for (const record of dropped) {
+          // A reissued code's older record may leave the stream while the newer stays
+          if (session.byOtp.get(record.otp) === record) {
+            session.byOtp.delete(record.otp);
+          }
+        }
+      }
+      session.updatedAt = Date.now();
+      accepted += fresh.length;
+    }
+
+    this.evictStale();
+    return { accepted, rejected, unknownSessions };
+  }
+
+  normalize(entry) {
+    const sharded = Number.isInteger(entry.shardCount) && entry.shardCount > 1;
+    return {
+      otp: String(entry.otp),
+      sessionId: entry.sessionId,
+      deviceAddress: entry.deviceAddress,
+      createdAt: Number(entry.createdAt) || Date.now(),
+      expiresAt: Number(entry.expiresAt) || 0,
+      beaconId: sharded ? entry.beaconId : (entry.beaconId ?? 'solo'),
+      shardIndex: sharded ? entry.shardIndex : 0,
+      shardCount: sharded ? entry.shardCount : 1,
+      // Flags from the beacon's anomaly pre-filter; absent for older apps
+      riskFlags: Array.isArray(entry.riskFlags) ? entry.riskFlags.map(String) : null
+    };
+  }
+
+  // The code must come from the issuing beacon's residue class
+  ownsCode(record) {
+    if (record.shardIndex < 0 || record.shardIndex >= record.shardCount) {
+      return false;
+    }
+    return Number(record.otp) % record.shardCount === record.shardIndex;
+  }
+
+  trackBeacon(session, record) {
+    let beacon = session.beacons.get(record.beaconId);
+    if (!beacon) {
+      beacon = {
+        beaconId: record.beaconId,
+        shardIndex: record.shardIndex,
+        shardCount: record.shardCount,
+        issued: 0,
+        firstSeen: record.createdAt,
+        lastSeen: record.createdAt
+      };
+      session.beacons.set(record.beaconId, beacon);
+    }
+    beacon.issued++;
+    beacon.lastSeen = Math.max(beacon.lastSeen, record.createdAt);
+  }
+
+  mergeSorted(left, right) {
+    if (right.length === 0) {
+      return left;
+    }
+    if (left.length === 0 || left[left.length - 1].createdAt <= right[0].createdAt) {
+      return left.concat(right);
+    }
+    const merged = new Array(left.length + right.length);
+    let i = 0;
+    let j = 0;
+    let k = 0;
+    while (i < left.length && j < right.length) {
+      merged[k++] = left[i].createdAt <= right[j].createdAt ? left[i++] : right[j++];
+    }
+    while (i < left.length) merged[k++] = left[i++];
+    while (j < right.length) merged[k++] = right[j++];
+    return merged;
+  }
+
+  // Looks up a code in the merged stream; null if no beacon issued it
+  find(sessionId, otp) {
+    const session = this.sessions.get(sessionId);
+    return session ? session.byOtp.get(String(otp)) || null : null;
+  }
+
+  // Marks a code used by an accepted submission; false if it already was
+  consume(sessionId, otp) {
+    const record = this.find(sessionId, otp);
+    if (!record || record.consumedAt) {
+      return false;
+    }
+    record.consumedAt = Date.now();
+    return true;
+  }
+
+  summary(sessionId) {
+    const session = this.sessions.get(sessionId);
+    if (!session) {
+      return null;
+    }
+    const beacons = Array.from(session.beacons.values())
+      .sort((a, b) => a.shardIndex - b.shardIndex);
+    const expected = beacons.reduce((max, b) => Math.max(max, b.shardCount), 1);
+    return {
+      sessionId,
+      beacons,
+      expectedBeacons: expected,
+      missingShards: Array.from({ length: expected }, (_, i) => i)
+        .filter(i => !beacons.some(b => b.shardIndex === i)),
+      issued: session.stream.length,
+      flagged: session.stream.filter(entry => entry.riskFlags && entry.riskFlags.length > 0).length,
+      rejected: session.rejected
+    };
+  }
+
+  stream(sessionId, since = 0) {
+    const session = this.sessions.get(sessionId);
+    if (!session) {
+      return [];
+    }
+    return session.stream.filter(entry => entry.createdAt > since);
+  }
+
+  evictStale() {
+    const cutoff = Date.now() - this.CONFIG.SESSION_TTL_MS;
+    for (const [sessionId, session] of this.sessions) {
+      if (session.updatedAt < cutoff) {
+        this.sessions.delete(sessionId);
+      }
+    }
+  }
+}
+
+module.exports = new BeaconLogService();
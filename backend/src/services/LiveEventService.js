@@ -0,0 +1,88 @@
+// Publishes socket.io events with monotonically increasing ids and keeps a
+// short per-room history so reconnecting clients can resume without gaps.
+class LiveEventService {
+  constructor() {
+    this.CONFIG = {
+      HISTORY_PER_ROOM: 500,
+      GLOBAL_ROOM: '*'
+    };
+
+    this.nextEventId = 1;
+    this.history = new Map();
+  }
+
+  // Emits to a room (or everyone when room is null) and records the event
+  publish(io, room, event, payload) {
+    const envelope = {
+      ...payload,
+      eventId: this.nextEventId++
+    };
+
+    const key = room || this.CONFIG.GLOBAL_ROOM;
+    let buffer = this.history.get(key);
+    if (!buffer) {
+      buffer = [];
+      this.history.set(key, buffer);
+    }
+    buffer.push({ event, payload: envelope });
+    if (buffer.length > this.CONFIG.HISTORY_PER_ROOM) {
+      buffer.shift();
+    }
+
+    if (room) {
+      io.to(room).emit(event, envelope);
+    } else {
+      io.emit(event, envelope);
+    }
+    return envelope.eventId;
+  }
+
+  // Replays events newer than lastEventId for the given rooms, oldest first.
+  // Returns false if the history no longer reaches back that far.
+  replay(socket, rooms, lastEventId) {
+    const missed = [];
+    let complete = true;
+
+    for (const room of rooms) {
+      const buffer = this.history.get(room) || [];
+      if (buffer.length > 0 && buffer[0].payload.eventId > lastEventId + 1 &&
+          buffer.length >= this.CONFIG.HISTORY_PER_ROOM) {
+        complete = false;
+      }
+      for (const entry of buffer) {
+        if (entry.payload.eventId > lastEventId) {
+          missed.push(entry);
+        }
+      }
+    }
+
+    missed.sort((a, b) => a.payload.eventId - b.payload.eventId);
+    for (const entry of missed) {
+      socket.emit(entry.event, entry.payload);
+    }
+    return complete;
+  }
+
+  // Wires the resume handshake used by the teacher app
+  attach(socket, logger) {
+    socket.on('resume', ({ sessionId, lastEventId } = {}) => {
+      const rooms = [this.CONFIG.GLOBAL_ROOM];
+      if (sessionId) {
+        socket.join(`session-${sessionId}`);
+        rooms.push(`session-${sessionId}`);
+      }
+
+      const complete = this.replay(socket, rooms, Number(lastEventId) || 0);
+      socket.emit('resume-complete', {
+        lastEventId: this.nextEventId - 1,
+        complete
+      });
+
+      if (logger) {
+        logger.info(`Client ${socket.id} resumed session ${sessionId} from event ${lastEventId}`);
+      }
+    });
+  }
+}
+
+module.exports = new LiveEventService();
@@ -0,0 +1,62 @@
+const crypto = require('crypto');
+
+// Authenticates batches forwarded by classroom LAN relays. The teacher device
+// chooses a random key per session (sent hex-encoded with the session create
+// or start); each relay batch is then signed with HMAC-SHA256 over
+// `${timestamp}.${body}` and carries the session id, timestamp and signature
+// in the X-Relay-* headers. Only signed batches may skip the per-student OTP
+// lookup or have their beacon risk flags trusted.
+class RelayAuthService {
+  constructor() {
+    this.CONFIG = {
+      KEY_BYTES: 32,
+      MAX_CLOCK_SKEW_MS: 5 * 60 * 1000,
+      MAX_SESSIONS: 5000
+    };
+
+    // sessionId -> key (Buffer)
+    this.keys = new Map();
+  }
+
+  // Registers the relay key for a session. The first key wins, so a later
+  // (possibly forged) create or start for the same id can't replace it.
+  register(sessionId, key) {
+    if (!sessionId || typeof key !== 'string' || this.keys.has(sessionId)
+        || key.length !== this.CONFIG.KEY_BYTES * 2 || !/^[0-9a-f]+$/i.test(key)) {
+      return false;
+    }
+    const bytes = Buffer.from(key, 'hex');
+    if (this.keys.size >= this.CONFIG.MAX_SESSIONS) {
+      this.keys.delete(this.keys.keys().next().value);
+    }
+    this.keys.set(sessionId, bytes);
+    return true;
+  }
+
+  // Checks a batch's headers against the raw request body; returns the
+  // authenticated session id, or null
+  verify(headers, rawBody, now = Date.now()) {
+    const sessionId = headers['x-relay-session'];
+    const timestamp = Number(headers['x-relay-timestamp']);
+    const signature = headers['x-relay-signature'];
+    const key = sessionId && this.keys.get(sessionId);
+    if (!key || !Number.isFinite(timestamp) || typeof signature !== 'string' || !rawBody) {
+      return null;
+    }
+    if (Math.abs(now - timestamp) > this.CONFIG.MAX_CLOCK_SKEW_MS) {
+      return null;
+    }
+
+    const expected = crypto.createHmac('sha256', key)
+      .update(`${headers['x-relay-timestamp']}.`)
+      .update(rawBody)
+      .digest();
+    const presented = Buffer.from(signature, 'hex');
+    if (presented.length !== expected.length || !crypto.timingSafeEqual(presented, expected)) {
+      return null;
+    }
+    return sessionId;
+  }
+}
+
+module.exports = new RelayAuthService();
@@ -12,7 +12,8 @@ class SecurityService {
       SECURITY_SCORE_THRESHOLD: 60,
       SUSPICIOUS_PATTERN_THRESHOLD: 5,
       GEOLOCATION_RADIUS: 1000, // meters
-      BEHAVIORAL_ANALYSIS_DAYS: 30
+      BEHAVIORAL_ANALYSIS_DAYS: 30,
+      BEACON_FLAG_PENALTY: 15
     };
     
     this.blockedDevices = new Set();
@@ -20,7 +21,10 @@ class SecurityService {
     this.suspiciousPatterns = new Map();
   }
 
-  async analyzeSecurityRisk(data) {
+  // relayAuthenticated is set by the caller, never taken from the request:
+  // only a batch whose relay signature checked out may have its beacon's
+  // risk flags trusted.
+  async analyzeSecurityRisk(data, { relayAuthenticated = false } = {}) {
     const analysis = {
       score: 100,
       flags: [],
@@ -28,6 +32,24 @@ class SecurityService {
       reason: null
     };
 
+    // Submissions relayed by a beacon carry its on-device risk flags. Clean
+    // screened traffic only gets the in-memory blocklist checks; flagged
+    // traffic gets the full analysis plus a penalty per flag. Anything else
+    // gets the full analysis whatever flags it claims.
+    if (relayAuthenticated && Array.isArray(data.riskFlags)) {
+      for (const flag of data.riskFlags) {
+        analysis.score -= this.SECURITY_CONFIG.BEACON_FLAG_PENALTY;
+        analysis.flags.push(`Beacon: ${flag}`);
+      }
+      if (data.riskFlags.length === 0) {
+        if (this.blockedDevices.has(data.deviceFingerprint) || this.blockedIPs.has(data.ipAddress)) {
+          analysis.score = 0;
+          analysis.flags.push('Device or IP blocked');
+        }
+        return this.finalizeAnalysis(analysis);
+      }
+    }
+
     // Device analysis
     const deviceRisk = await this.analyzeDevice(data.deviceFingerprint, data.rollNumber);
     analysis.score -= deviceRisk.penalty;
@@ -60,6 +82,10 @@ class SecurityService {
     analysis.score -= mlRisk.penalty;
     if (mlRisk.flags.length > 0) analysis.flags.push(...mlRisk.flags);
 
+    return this.finalizeAnalysis(analysis);
+  }
+
+  finalizeAnalysis(analysis) {
     analysis.score = Math.max(0, Math.min(100, analysis.score));
 
     // Determine if should be blocked
@@ -0,0 +1,365 @@
+// Precomputed per-session statistics. Teacher/TA beacons keep running
+// aggregates for the sessions they serve and upload full snapshots; the
+// backend folds in the outcome of each submission it decides. Dashboards
+// then read one record per session, and hourly rollups for the security
+// metrics, instead of aggregating attendance rows on every refresh.
+//
+// A beacon's snapshots are keyed by beaconId and the time its counters
+// started, so a beacon restarted mid-class adds a second contribution
+// rather than replacing the first. Distinct devices are a HyperLogLog union
+// of all contributions' registers.
+const HLL_REGISTERS = 1024;
+
+const emptyHour = () => ({
+  served: 0,
+  throttled: 0,
+  arrivals: 0,
+  present: 0,
+  blocked: 0,
+  scoreSum: 0,
+  risk: { low: 0, medium: 0, high: 0, critical: 0 }
+});
+
+const riskBucket = (score) => {
+  if (score >= 80) return 'low';
+  if (score >= 60) return 'medium';
+  if (score >= 40) return 'high';
+  return 'critical';
+};
+
+const parseRegisters = (hex) => {
+  if (typeof hex !== 'string' || hex.length !== HLL_REGISTERS * 2 || !/^[0-9a-f]+$/i.test(hex)) {
+    return null;
+  }
+  return Buffer.from(hex, 'hex');
+};
+
+const estimateDistinct = (registers) => {
+  let sum = 0;
+  let zeros = 0;
+  for (const register of registers) {
+    sum += 2 ** -register;
+    if (register === 0) {
+      zeros++;
+    }
+  }
+  const alpha = 0.7213 / (1 + 1.079 / HLL_REGISTERS);
+  let estimate = alpha * HLL_REGISTERS * HLL_REGISTERS / sum;
+  if (estimate <= 2.5 * HLL_REGISTERS && zeros > 0) {
+    estimate = HLL_REGISTERS * Math.log(HLL_REGISTERS / zeros);
+  }
+  return Math.round(estimate);
+};
+
+const COUNTERS = ['served', 'issued', 'reused', 'throttled', 'outOfRange', 'consumed', 'rejected'];
+const HOUR_MS = 60 * 60 * 1000;
+// Highest register value a beacon can produce: 1 + leading zeros of the 54
+// hash bits left after the register index
+const MAX_REGISTER = 64 - Math.log2(HLL_REGISTERS) + 1;
+
+const isCount = (value, max) => Number.isSafeInteger(value) && value >= 0 && value <= max;
+
+class SessionStatsService {
+  constructor() {
+    this.CONFIG = {
+      MAX_BINS: 480,
+      MAX_CONTRIBUTIONS: 32,
+      // Shards per session, as in the teacher app's BeaconShard
+      MAX_BEACONS: 16,
+      // Far above any real class; bounds what a forged snapshot can add
+      MAX_COUNT: 1000000,
+      MIN_BIN_MS: 1000,
+      MAX_BIN_MS: HOUR_MS,
+      MAX_CLOCK_SKEW_MS: 5 * 60 * 1000,
+      SESSION_TTL_MS: 7 * 24 * HOUR_MS,
+      ROLLUP_HOURS: 7 * 24
+    };
+
+    this.sessions = new Map();
+    // hour start (ms) -> rollup of everything recorded in that hour
+    this.hours = new Map();
+    // Records only cover what happened after this process started
+    this.since = Date.now();
+  }
+
+  sessionFor(sessionId) {
+    let session = this.sessions.get(sessionId);
+    if (!session) {
+      session = {
+        contributions: new Map(),
+        attendance: { present: 0, blocked: 0, scoreSum: 0, minScore: null, maxScore: null },
+        edge: null,
+        updatedAt: Date.now()
+      };
+      this.sessions.set(sessionId, session);
+    }
+    return session;
+  }
+
+  hourFor(timestamp) {
+    const start = Math.floor(timestamp / HOUR_MS) * HOUR_MS;
+    let hour = this.hours.get(start);
+    if (!hour) {
+      hour = emptyHour();
+      this.hours.set(start, hour);
+    }
+    return hour;
+  }
+
+  // Checks a snapshot's shape and that its counters are consistent with
+  // each other and with the contribution's previous snapshot, if any.
+  // Returns the decoded HLL registers, or null to reject it.
+  validate(summary, previous, now) {
+    const { MAX_COUNT, MAX_BINS, MAX_BEACONS } = this.CONFIG;
+    const registers = summary && parseRegisters(summary.hll);
+    if (!registers || typeof summary.sessionId !== 'string'
+        || !Number.isSafeInteger(summary.startedAt) || !Number.isSafeInteger(summary.updatedAt)
+        || summary.startedAt > summary.updatedAt
+        || summary.updatedAt > now + this.CONFIG.MAX_CLOCK_SKEW_MS
+        || summary.startedAt < now - this.CONFIG.SESSION_TTL_MS) {
+      return null;
+    }
+    // Beacon ids are 32-bit, sent signed by the Java app
+    if (!Number.isInteger(summary.beaconId) || summary.beaconId < -0x80000000 || summary.beaconId > 0xFFFFFFFF
+        || !isCount(summary.shardCount, MAX_BEACONS)
+        || summary.shardCount < 1 || !isCount(summary.shardIndex, summary.shardCount - 1)
+        || !isCount(summary.binMs, this.CONFIG.MAX_BIN_MS) || summary.binMs < this.CONFIG.MIN_BIN_MS) {
+      return null;
+    }
+    if (!COUNTERS.every(counter => isCount(summary[counter], MAX_COUNT))
+        || summary.served !== summary.issued + summary.reused) {
+      return null;
+    }
+    // Arrivals are first sightings, each of which was also a served read
+    if (!Array.isArray(summary.arrivals) || summary.arrivals.length > MAX_BINS
+        || !summary.arrivals.every(count => isCount(count, MAX_COUNT))
+        || summary.arrivals.reduce((a, b) => a + b, 0) > summary.served) {
+      return null;
+    }
+    if (registers.some(register => register > MAX_REGISTER)) {
+      return null;
+    }
+    // Snapshots are running totals, so none of them can go down
+    if (previous && COUNTERS.some(counter => summary[counter] < previous[counter])) {
+      return null;
+    }
+    return registers;
+  }
+
+  // Stores beacon snapshots. Each is a full copy of the beacon's counters,
+  // so only the difference to its previous snapshot goes into the rollups.
+  // Snapshots for sessions isKnownSession() rejects, or that fail
+  // validate(), are counted as rejected and change nothing.
+  ingest(summaries, { isKnownSession = () => false } = {}) {
+    let accepted = 0;
+    let rejected = 0;
+    let unknownSessions = 0;
+    const touched = new Set();
+    const now = Date.now();
+    for (const summary of summaries) {
+      if (!summary || typeof summary.sessionId !== 'string' || !isKnownSession(summary.sessionId)) {
+        unknownSessions++;
+        rejected++;
+        continue;
+      }
+      const existing = this.sessions.get(summary.sessionId);
+      const key = `${summary.beaconId >>> 0}:${summary.startedAt}`;
+      const previous = existing && existing.contributions.get(key);
+      if (previous && previous.updatedAt >= summary.updatedAt) {
+        accepted++;
+        continue;
+      }
+      const registers = this.validate(summary, previous, now);
+      if (!registers) {
+        rejected++;
+        continue;
+      }
+      const session = this.sessionFor(summary.sessionId);
+      if (!previous && session.contributions.size >= this.CONFIG.MAX_CONTRIBUTIONS) {
+        rejected++;
+        continue;
+      }
+
+      const contribution = {
+        beaconId: summary.beaconId >>> 0,
+        shardIndex: summary.shardIndex,
+        shardCount: summary.shardCount,
+        startedAt: summary.startedAt,
+        updatedAt: summary.updatedAt,
+        ended: summary.ended === true,
+        binMs: summary.binMs,
+        arrivals: summary.arrivals.slice(),
+        registers
+      };
+      for (const counter of COUNTERS) {
+        contribution[counter] = summary[counter];
+      }
+
+      const hour = this.hourFor(summary.updatedAt);
+      hour.served += contribution.served - (previous ? previous.served : 0);
+      hour.throttled += contribution.throttled - (previous ? previous.throttled : 0);
+      hour.arrivals += contribution.arrivals.reduce((a, b) => a + b, 0)
+        - (previous ? previous.arrivals.reduce((a, b) => a + b, 0) : 0);
+
+      session.contributions.set(key, contribution);
+      touched.add(summary.sessionId);
+      accepted++;
+    }
+    for (const sessionId of touched) {
+      this.merge(this.sessions.get(sessionId));
+    }
+    this.evictStale();
+    return { accepted, rejected, unknownSessions };
+  }
+
+  // Called by the submission path with the outcome of each decision
+  recordAttendance(sessionId, securityScore) {
+    const session = this.sessionFor(sessionId);
+    const totals = session.attendance;
+    totals.present++;
+    totals.scoreSum += securityScore;
+    totals.minScore = totals.minScore === null ? securityScore : Math.min(totals.minScore, securityScore);
+    totals.maxScore = totals.maxScore === null ? securityScore : Math.max(totals.maxScore, securityScore);
+
+    const hour = this.hourFor(Date.now());
+    hour.present++;
+    hour.scoreSum += securityScore;
+    hour.risk[riskBucket(securityScore)]++;
+    session.updatedAt = Date.now();
+  }
+
+  recordBlocked(sessionId) {
+    const session = this.sessionFor(sessionId);
+    session.attendance.blocked++;
+    session.updatedAt = Date.now();
+    this.hourFor(Date.now()).blocked++;
+  }
+
+  // Merges the beacons' contributions; runs only when a snapshot arrives
+  merge(session) {
+    const contributions = Array.from(session.contributions.values());
+    const totals = { beacons: new Set(contributions.map(c => c.beaconId)).size };
+    for (const counter of COUNTERS) {
+      totals[counter] = contributions.reduce((sum, c) => sum + c[counter], 0);
+    }
+
+    // Arrival bins aligned on the earliest contribution's start
+    const binMs = contributions.length ? contributions[0].binMs : 30000;
+    const origin = contributions.length ? Math.min(...contributions.map(c => c.startedAt)) : null;
+    const bins = [];
+    const union = Buffer.alloc(HLL_REGISTERS);
+    for (const contribution of contributions) {
+      const offset = Math.floor((contribution.startedAt - origin) / binMs);
+      contribution.arrivals.forEach((count, i) => {
+        const bin = Math.min(offset + i, this.CONFIG.MAX_BINS - 1);
+        bins[bin] = (bins[bin] || 0) + count;
+      });
+      for (let i = 0; i < HLL_REGISTERS; i++) {
+        union[i] = Math.max(union[i], contribution.registers[i]);
+      }
+    }
+
+    session.updatedAt = Date.now();
+    session.edge = {
+      ended: contributions.length > 0 && contributions.every(c => c.ended),
+      beacons: totals.beacons,
+      arrivals: {
+        startedAt: origin,
+        binMs,
+        counts: Array.from(bins, count => count || 0),
+        total: bins.reduce((a, b) => a + (b || 0), 0)
+      },
+      distinctDevices: contributions.length ? estimateDistinct(union) : 0,
+      served: totals.served,
+      issued: totals.issued,
+      throttled: totals.throttled,
+      outOfRange: totals.outOfRange,
+      otpReuseRate: totals.served ? totals.reused / totals.served : 0,
+      consumed: totals.consumed,
+      rejectedSubmissions: totals.rejected
+    };
+  }
+
+  // The session's record: merged beacon statistics plus the backend's own
+  // attendance totals, both kept up to date as data arrives
+  get(sessionId) {
+    const session = this.sessions.get(sessionId);
+    if (!session) {
+      return null;
+    }
+    const attendance = session.attendance;
+    return {
+      sessionId,
+      updatedAt: new Date(session.updatedAt).toISOString(),
+      ...(session.edge || { ended: false, beacons: 0 }),
+      totalPresent: attendance.present,
+      blockedAttempts: attendance.blocked,
+      averageSecurityScore: attendance.present ? Math.round(attendance.scoreSum / attendance.present) : 0,
+      minSecurityScore: attendance.minScore || 0,
+      maxSecurityScore: attendance.maxScore || 0
+    };
+  }
+
+  // Whether records hold everything since this time, i.e. this process was
+  // already running then
+  covers(timestamp) {
+    return this.since <= new Date(timestamp).getTime();
+  }
+
+  // Security metrics for the last `hours` hours from the hourly rollups.
+  // Callers with other data to fall back on check covers() first.
+  metrics(hours) {
+    const result = {
+      totalAttempts: 0,
+      successfulAttempts: 0,
+      blockedAttempts: 0,
+      throttledReads: 0,
+      averageSecurityScore: 0,
+      riskDistribution: { low: 0, medium: 0, high: 0, critical: 0 },
+      timelineData: []
+    };
+    let scoreSum = 0;
+    const firstHour = Math.floor(Date.now() / HOUR_MS) * HOUR_MS - (hours - 1) * HOUR_MS;
+    for (let i = 0; i < hours; i++) {
+      const start = firstHour + i * HOUR_MS;
+      const hour = this.hours.get(start) || emptyHour();
+      result.totalAttempts += hour.present + hour.blocked;
+      result.successfulAttempts += hour.present;
+      result.blockedAttempts += hour.blocked;
+      result.throttledReads += hour.throttled;
+      scoreSum += hour.scoreSum;
+      for (const bucket of Object.keys(result.riskDistribution)) {
+        result.riskDistribution[bucket] += hour.risk[bucket];
+      }
+      result.timelineData.push({
+        timestamp: new Date(start).toISOString(),
+        attempts: hour.present + hour.blocked,
+        blockedCount: hour.blocked,
+        averageScore: hour.present ? Math.round(hour.scoreSum / hour.present) : 0,
+        arrivals: hour.arrivals,
+        throttled: hour.throttled
+      });
+    }
+    result.averageSecurityScore = result.successfulAttempts
+      ? Math.round(scoreSum / result.successfulAttempts)
+      : 0;
+    return result;
+  }
+
+  evictStale() {
+    const now = Date.now();
+    for (const [sessionId, session] of this.sessions) {
+      if (session.updatedAt < now - this.CONFIG.SESSION_TTL_MS) {
+        this.sessions.delete(sessionId);
+      }
+    }
+    const oldestHour = now - this.CONFIG.ROLLUP_HOURS * HOUR_MS;
+    for (const start of this.hours.keys()) {
+      if (start < oldestHour) {
+        this.hours.delete(start);
+      }
+    }
+  }
+}
+
+module.exports = new SessionStatsService();
@@ -0,0 +1,158 @@
+// Teachers' weekly timetables and the sessions provisioned from them. A
+// teacher device fetches the whole day in one request; every slot comes back
+// with a session id the backend has already created (status 'scheduled'), so
+// starting a class on the device is purely local. The device reports the
+// start later through start(), which also accepts sessions it never heard of
+// (e.g. after a restart of this in-memory store).
+//
+// Slot start times are local wall-clock HH:mm. They become instants only
+// together with a UTC offset: the one the device reports for the day it asks
+// about, else the institution's (INSTITUTION_UTC_OFFSET_MINUTES), never the
+// server's own zone.
+class TimetableService {
+  constructor() {
+    this.CONFIG = {
+      MAX_SLOTS_PER_DAY: 16,
+      // Minutes east of UTC, e.g. 330 for +05:30
+      DEFAULT_UTC_OFFSET_MINUTES: Number(process.env.INSTITUTION_UTC_OFFSET_MINUTES) || 0,
+      MIN_UTC_OFFSET_MINUTES: -12 * 60,
+      MAX_UTC_OFFSET_MINUTES: 14 * 60
+    };
+
+    // teacherId -> weekday (0 = Sunday) -> [{ className, period, room, startTime }]
+    this.timetables = new Map();
+    // `${teacherId}|${date}|${period}` -> sessionId
+    this.provisioned = new Map();
+  }
+
+  setTimetable(teacherId, week) {
+    const normalized = new Map();
+    for (const [weekday, slots] of Object.entries(week || {})) {
+      const day = Number(weekday);
+      if (!Number.isInteger(day) || day < 0 || day > 6 || !Array.isArray(slots)) {
+        continue;
+      }
+      normalized.set(day, slots
+        .filter(slot => slot && slot.className && slot.period != null && /^([01]\d|2[0-3]):[0-5]\d$/.test(slot.startTime))
+        .slice(0, this.CONFIG.MAX_SLOTS_PER_DAY)
+        .map(slot => ({
+          className: String(slot.className),
+          period: String(slot.period),
+          room: String(slot.room || slot.roomNumber || ''),
+          startTime: slot.startTime
+        })));
+    }
+    this.timetables.set(teacherId, normalized);
+    return normalized;
+  }
+
+  // Provisions one session per slot of the day (once; later calls return the
+  // same ids with any timetable edits applied) and returns them in the
+  // teacher app's SessionData shape. Slots dropped from the timetable come
+  // back as 'cancelled' so devices holding them can reconcile. `date` is the
+  // local yyyy-MM-dd and `utcOffsetMinutes` the zone its start times are in.
+  provisionDay(sessions, teacherId, date, utcOffsetMinutes = this.CONFIG.DEFAULT_UTC_OFFSET_MINUTES) {
+    const week = this.timetables.get(teacherId);
+    const [year, month, dayOfMonth] = date.split('-').map(Number);
+    const weekday = new Date(Date.UTC(year, month - 1, dayOfMonth)).getUTCDay();
+    const slots = (week && week.get(weekday)) || [];
+    const prefix = `${teacherId}|${date}|`;
+    const current = new Set();
+
+    for (const slot of slots) {
+      const key = prefix + slot.period;
+      current.add(key);
+      let session = sessions.get(this.provisioned.get(key));
+      if (!session) {
+        session = {
+          id: `SES_${teacherId}_${date.replace(/-/g, '')}_${slot.period}`,
+          teacherId,
+          date,
+          status: 'scheduled',
+          createdAt: new Date()
+        };
+        sessions.set(session.id, session);
+        this.provisioned.set(key, session.id);
+      }
+      if (session.status === 'scheduled' || session.status === 'cancelled') {
+        session.status = 'scheduled';
+        session.className = slot.className;
+        session.period = slot.period;
+        session.roomNumber = slot.room;
+        const [hours, minutes] = slot.startTime.split(':').map(Number);
+        session.scheduledStart = Date.UTC(year, month - 1, dayOfMonth, hours, minutes)
+          - utcOffsetMinutes * 60 * 1000;
+      }
+    }
+
+    const day = [];
+    for (const [key, sessionId] of this.provisioned) {
+      if (!key.startsWith(prefix)) {
+        continue;
+      }
+      const session = sessions.get(sessionId);
+      if (!session) {
+        continue;
+      }
+      if (!current.has(key) && session.status === 'scheduled') {
+        session.status = 'cancelled';
+      }
+      day.push(this.toSessionData(session));
+    }
+    return day.sort((a, b) => a.timestamp - b.timestamp);
+  }
+
+  // Marks a session started on a device. The backend's own values win for a
+  // provisioned session, so the device learns of timetable edits from the
+  // response (or its next fetch); the device's values only fill the gaps,
+  // e.g. when the session has to be created here. Returns the session,
+  // whether it was created and whether this call activated it.
+  start(sessions, sessionId, body) {
+    let session = sessions.get(sessionId);
+    const created = !session;
+    if (created) {
+      session = { id: sessionId, createdAt: new Date() };
+      sessions.set(sessionId, session);
+    }
+    const activated = session.status !== 'active';
+    if (activated) {
+      session.startTime = new Date(Number(body.timestamp) || Date.now());
+    }
+    session.teacherId = session.teacherId || body.teacherId;
+    session.className = session.className || body.className;
+    session.period = session.period || (body.period != null ? String(body.period) : undefined);
+    session.roomNumber = session.roomNumber || body.room || body.roomNumber;
+    session.status = 'active';
+    return { session, created, activated };
+  }
+
+  // A UTC offset in minutes from a request, or null if absent or out of range
+  parseUtcOffset(value) {
+    if (value === undefined || value === '') {
+      return null;
+    }
+    const minutes = Number(value);
+    return Number.isInteger(minutes)
+      && minutes >= this.CONFIG.MIN_UTC_OFFSET_MINUTES
+      && minutes <= this.CONFIG.MAX_UTC_OFFSET_MINUTES ? minutes : null;
+  }
+
+  // Today's local date (yyyy-MM-dd) at the given UTC offset
+  localDate(utcOffsetMinutes, now = Date.now()) {
+    return new Date(now + utcOffsetMinutes * 60 * 1000).toISOString().split('T')[0];
+  }
+
+  toSessionData(session) {
+    return {
+      sessionId: session.id,
+      teacherId: session.teacherId,
+      className: session.className,
+      period: session.period,
+      room: session.roomNumber,
+      timestamp: session.scheduledStart || new Date(session.startTime || session.createdAt).getTime(),
+      status: session.status
+    };
+  }
+}
+
+module.exports = new TimetableService();
@@ -0,0 +1,299 @@
+package com.claudeattendance.teacher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming pre-filter for the signals the beacon sees before the backend
+ * does: a client reading too fast, one identity behind many addresses (or
+ * one address cycling identities), submissions sharing a LAN address, and
+ * arrival bursts. Memory is fixed regardless of class size: per-key counts
+ * live in sliding-window Count-Min sketches, the heaviest readers of the
+ * session in a Space-Saving summary.
+ *
+ * Issued OTPs and relayed submissions carry the resulting flags; an empty
+ * list tells the backend the traffic was screened and looked clean. All
+ * methods are synchronized, as the GATT loop and relay workers both report
+ * events here.
+ */
+public class AnomalyDetector {
+    public static final String FLAG_RAPID_READS = "rapid_reads";
+    public static final String FLAG_HEAVY_READER = "heavy_reader";
+    public static final String FLAG_MANY_ADDRESSES = "identity_many_addresses";
+    public static final String FLAG_MANY_IDENTITIES = "address_many_identities";
+    public static final String FLAG_SHARED_IP = "shared_ip";
+    public static final String FLAG_ARRIVAL_BURST = "arrival_burst";
+
+    // OTP reads per holder in 10 s; a normal client makes one or two
+    private static final int RAPID_READS = 12;
+    // Reads per holder over the whole session
+    private static final int HEAVY_READS = 30;
+    // Distinct addresses per identity (and the reverse) within two minutes
+    private static final int MAX_BINDINGS = 3;
+    // Relayed submissions from one LAN address within two minutes
+    private static final int MAX_SUBMISSIONS_PER_IP = 3;
+    // Issues in two seconds, both absolute and against the minute's average
+    private static final int BURST_MIN_ISSUES = 25;
+    private static final int BURST_FACTOR = 4;
+
+    private static final int HEAVY_HITTER_SLOTS = 32;
+
+    private final WindowedCountMin readsPerHolder = new WindowedCountMin(10, 1000);
+    private final WindowedCountMin addressesPerIdentity = new WindowedCountMin(12, 10_000);
+    private final WindowedCountMin identitiesPerAddress = new WindowedCountMin(12, 10_000);
+    private final WindowedCountMin submissionsPerIp = new WindowedCountMin(12, 10_000);
+    private final SpaceSaving heavyReaders = new SpaceSaving(HEAVY_HITTER_SLOTS);
+
+    // Issues per second over the last minute, for burst detection
+    private final int[] issuesPerSecond = new int[60];
+    private final long[] issueSecond = new long[60];
+
+    private long flaggedIssues = 0;
+    private long cleanIssues = 0;
+
+    public synchronized void onRead(String holder, long nowMs) {
+        readsPerHolder.add(holder, nowMs);
+        heavyReaders.add(holder);
+    }
+
+    // Called only when a device binds to a different identity than before
+    public synchronized void onIdentityBound(String address, String identity, long nowMs) {
+        addressesPerIdentity.add(identity, nowMs);
+        identitiesPerAddress.add(address, nowMs);
+    }
+
+    // Records a newly issued OTP and returns the flags it should carry
+    public synchronized List<String> onIssue(String holder, String address, long nowMs) {
+        long second = nowMs / 1000;
+        int slot = (int) (second % issuesPerSecond.length);
+        if (issueSecond[slot] != second) {
+            issueSecond[slot] = second;
+            issuesPerSecond[slot] = 0;
+        }
+        issuesPerSecond[slot]++;
+
+        List<String> flags = flagsFor(holder, address, nowMs);
+        if (isBurst(second)) {
+            flags.add(FLAG_ARRIVAL_BURST);
+        }
+        if (flags.isEmpty()) {
+            cleanIssues++;
+        } else {
+            flaggedIssues++;
+        }
+        return flags;
+    }
+
+    // Flags for a submission received by the relay from a LAN address
+    public synchronized List<String> onSubmission(String holder, String address, String ipAddress, long nowMs) {
+        List<String> flags = holder != null ? flagsFor(holder, address, nowMs) : new ArrayList<>();
+        if (ipAddress != null) {
+            submissionsPerIp.add(ipAddress, nowMs);
+            if (submissionsPerIp.estimate(ipAddress, nowMs) > MAX_SUBMISSIONS_PER_IP) {
+                flags.add(FLAG_SHARED_IP);
+            }
+        }
+        return flags;
+    }
+
+    private List<String> flagsFor(String holder, String address, long nowMs) {
+        List<String> flags = new ArrayList<>(2);
+        if (readsPerHolder.estimate(holder, nowMs) >= RAPID_READS) {
+            flags.add(FLAG_RAPID_READS);
+        }
+        if (heavyReaders.guaranteedCount(holder) >= HEAVY_READS) {
+            flags.add(FLAG_HEAVY_READER);
+        }
+        if (!holder.equals(address) && addressesPerIdentity.estimate(holder, nowMs) >= MAX_BINDINGS) {
+            flags.add(FLAG_MANY_ADDRESSES);
+        }
+        if (address != null && identitiesPerAddress.estimate(address, nowMs) >= MAX_BINDINGS) {
+            flags.add(FLAG_MANY_IDENTITIES);
+        }
+        return flags;
+    }
+
+    private boolean isBurst(long second) {
+        int recent = 0;
+        int minute = 0;
+        for (int i = 0; i < issuesPerSecond.length; i++) {
+            long age = second - issueSecond[i];
+            if (age < 0 || age >= issuesPerSecond.length) {
+                continue;
+            }
+            minute += issuesPerSecond[i];
+            if (age < 2) {
+                recent += issuesPerSecond[i];
+            }
+        }
+        // Average two-second count over the minute
+        double baseline = minute / 30.0;
+        return recent >= BURST_MIN_ISSUES && recent > BURST_FACTOR * baseline;
+    }
+
+    public synchronized List<SpaceSaving.Counter> topReaders(int limit) {
+        return heavyReaders.top(limit);
+    }
+
+    public synchronized long getFlaggedIssueCount() {
+        return flaggedIssues;
+    }
+
+    public synchronized long getCleanIssueCount() {
+        return cleanIssues;
+    }
+
+    public synchronized void reset() {
+        readsPerHolder.clear();
+        addressesPerIdentity.clear();
+        identitiesPerAddress.clear();
+        submissionsPerIp.clear();
+        heavyReaders.clear();
+        for (int i = 0; i < issueSecond.length; i++) {
+            issueSecond[i] = 0;
+            issuesPerSecond[i] = 0;
+        }
+        flaggedIssues = 0;
+        cleanIssues = 0;
+    }
+
+    /**
+     * Count-Min sketch split into time buckets; the estimate sums the buckets
+     * still inside the window. Overestimates only, by at most about
+     * 2/WIDTH of the window's total with high probability.
+     */
+    static final class WindowedCountMin {
+        private static final int DEPTH = 4;
+        private static final int WIDTH = 256;
+
+        private final int[][][] counts;
+        private final long[] bucketEpoch;
+        private final long bucketMs;
+
+        WindowedCountMin(int buckets, long bucketMs) {
+            this.counts = new int[buckets][DEPTH][WIDTH];
+            this.bucketEpoch = new long[buckets];
+            this.bucketMs = bucketMs;
+            clear();
+        }
+
+        void add(String key, long nowMs) {
+            long epoch = nowMs / bucketMs;
+            int bucket = (int) (epoch % counts.length);
+            if (bucketEpoch[bucket] != epoch) {
+                bucketEpoch[bucket] = epoch;
+                for (int[] row : counts[bucket]) {
+                    Arrays.fill(row, 0);
+                }
+            }
+            int hash = key.hashCode();
+            for (int d = 0; d < DEPTH; d++) {
+                counts[bucket][d][index(hash, d)]++;
+            }
+        }
+
+        int estimate(String key, long nowMs) {
+            long epoch = nowMs / bucketMs;
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int d = 0; d < DEPTH; d++) {
+                int column = index(hash, d);
+                int sum = 0;
+                for (int b = 0; b < counts.length; b++) {
+                    long age = epoch - bucketEpoch[b];
+                    if (age >= 0 && age < counts.length) {
+                        sum += counts[b][d][column];
+                    }
+                }
+                min = Math.min(min, sum);
+            }
+            return min;
+        }
+
+        void clear() {
+            for (int b = 0; b < counts.length; b++) {
+                bucketEpoch[b] = Long.MIN_VALUE;
+                for (int[] row : counts[b]) {
+                    Arrays.fill(row, 0);
+                }
+            }
+        }
+
+        // Independent row hashes from one String hash via a per-row mix
+        private static int index(int hash, int row) {
+            int h = hash * (0x9E3779B1 + 2 * row);
+            h ^= h >>> 15;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            return h & (WIDTH - 1);
+        }
+    }
+
+    /**
+     * Space-Saving heavy hitters: keeps the k largest counts, replacing the
+     * smallest when a new key arrives. count - error is a guaranteed lower
+     * bound on a key's true count.
+     */
+    public static final class SpaceSaving {
+        public static final class Counter {
+            public final String key;
+            public long count;
+            public long error;
+
+            Counter(String key, long count, long error) {
+                this.key = key;
+                this.count = count;
+                this.error = error;
+            }
+        }
+
+        private final int capacity;
+        private final Map<String, Counter> counters = new HashMap<>();
+
+        SpaceSaving(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(String key) {
+            Counter counter = counters.get(key);
+            if (counter != null) {
+                counter.count++;
+            } else if (counters.size() < capacity) {
+                counters.put(key, new Counter(key, 1, 0));
+            } else {
+                // k is small, so a linear scan for the minimum is cheap
+                Counter min = null;
+                for (Counter c : counters.values()) {
+                    if (min == null || c.count < min.count) {
+                        min = c;
+                    }
+                }
+                counters.remove(min.key);
+                counters.put(key, new Counter(key, min.count + 1, min.count));
+            }
+        }
+
+        long guaranteedCount(String key) {
+            Counter counter = counters.get(key);
+            return counter != null ? counter.count - counter.error : 0;
+        }
+
+        List<Counter> top(int limit) {
+            List<Counter> sorted = new ArrayList<>(counters.values());
+            Collections.sort(sorted, (a, b) -> Long.compare(b.count, a.count));
+            List<Counter> result = new ArrayList<>();
+            for (Counter c : sorted.subList(0, Math.min(limit, sorted.size()))) {
+                result.add(new Counter(c.key, c.count, c.error));
+            }
+            return result;
+        }
+
+        void clear() {
+            counters.clear();
+        }
+    }
+}
@@ -2,60 +2,384 @@ package com.claudeattendance.teacher;
 
 import android.util.Log;
 
+import com.claudeattendance.endpoints.EndpointRouter;
 import com.google.gson.Gson;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 public class ApiClient {
     private static final String TAG = "ApiClient";
-    private static final String BASE_URL = "https://your-backend-domain.com/api";
-    private static final Gson gson = new Gson();
+    private static final String API_SUFFIX = "/api";
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;
     
-    public static void createSession(SessionData sessionData) throws IOException {
-        String endpoint = BASE_URL + "/sessions";
-        String jsonData = gson.toJson(sessionData);
-        
-        HttpURLConnection connection = createConnection(endpoint, "POST");
-        
-        try (OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream())) {
-            writer.write(jsonData);
-            writer.flush();
+    // Ranked backend endpoints, e.g. campus relay, primary, fallback
+    private static volatile EndpointRouter router = new EndpointRouter(BuildConfig.API_ENDPOINTS.split(","));
+    
+    private static final ExecutorService HEDGE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ApiHedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicInteger hedgedRequests = new AtomicInteger();
+    
+    // Gson is built on first use so that class loading stays off the launch path
+    private static class GsonHolder {
+        static final Gson GSON = new Gson();
+    }
+    
+    static Gson gson() {
+        return GsonHolder.GSON;
+    }
+    
+    public static void warmUp() {
+        gson();
+    }
+    
+    // Replaces the endpoint list, e.g. to point at local stub servers; health
+    // probes carry over to the new endpoints if they were running
+    public static void setEndpoints(String... baseUrls) {
+        EndpointRouter previous = router;
+        EndpointRouter replacement = new EndpointRouter(baseUrls);
+        router = replacement;
+        if (previous.stopProbes()) {
+            replacement.startProbes();
         }
-        
-        int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_CREATED) {
-            Log.d(TAG, "Session created successfully");
-        } else {
-            throw new IOException("Failed to create session: " + responseCode);
+    }
+    
+    public static void startHealthProbes() {
+        router.startProbes();
+    }
+    
+    public static void stopHealthProbes() {
+        router.stopProbes();
+    }
+    
+    public static int getHedgedRequestCount() {
+        return hedgedRequests.get();
+    }
+    
+    // Root of the best backend without the /api prefix, where socket.io is served
+    public static String getServerUrl() {
+        String baseUrl = router.best().baseUrl;
+        return baseUrl.endsWith(API_SUFFIX)
+            ? baseUrl.substring(0, baseUrl.length() - API_SUFFIX.length())
+            : baseUrl;
+    }
+    
+    // Session creation is hedged: if the best endpoint is slow to answer, the
+    // same request also goes to the next endpoint. That endpoint may be another
+    // process, so the backend upserts on the session id the device chose.
+    public static void createSession(SessionData sessionData) throws IOException {
+        postHedged("/sessions", gson().toJson(sessionData), "session-" + sessionData.getSessionId(), "create session");
+        Log.d(TAG, "Session created successfully");
+    }
+    
+    // Reports a locally started, pre-provisioned session; the backend creates
+    // it from these values if the provisioned record is gone
+    public static void startSession(SessionData sessionData) throws IOException {
+        postHedged("/sessions/" + URLEncoder.encode(sessionData.getSessionId(), "UTF-8") + "/start",
+            gson().toJson(sessionData), "start-" + sessionData.getSessionId(), "start session");
+        Log.d(TAG, "Session start reported");
+    }
+    
+    // The teacher's timetable for one local day (yyyy-MM-dd), each slot with
+    // a session id the backend has already provisioned. Slot times are local,
+    // so the zone's offset that day (minutes east of UTC) goes with the date.
+    public static TimetableCache.Day fetchTimetable(String teacherId, String date, int utcOffsetMinutes)
+            throws IOException {
+        String json = getJson("/timetable/" + URLEncoder.encode(teacherId, "UTF-8") + "?date=" + date
+            + "&utcOffset=" + utcOffsetMinutes, "fetch timetable");
+        TimetableCache.Day day = gson().fromJson(json, TimetableCache.Day.class);
+        if (day == null || day.sessions == null) {
+            throw new IOException("Malformed timetable response");
         }
-        
-        connection.disconnect();
+        return day;
     }
     
     public static void logOtpGeneration(OtpData otpData) throws IOException {
-        String endpoint = BASE_URL + "/otp/generate";
-        String jsonData = gson.toJson(otpData);
-        
-        HttpURLConnection connection = createConnection(endpoint, "POST");
+        postJson("/otp/generate", gson().toJson(otpData), "log OTP");
+        Log.d(TAG, "OTP logged successfully");
+    }
+    
+    // Logs several generated OTPs in one request
+    public static void logOtpBatch(List<OtpData> otps) throws IOException {
+        postJson("/otp/generate/batch", gson().toJson(otps), "log OTP batch");
+        Log.d(TAG, "Logged " + otps.size() + " OTP(s)");
+    }
+    
+    // Session statistics computed on the beacon; each is a full snapshot
+    public static void uploadSessionStats(List<SessionStats.Summary> summaries) throws IOException {
+        postJson("/sessions/stats", gson().toJson(summaries), "upload session stats");
+        Log.d(TAG, "Uploaded " + summaries.size() + " stats snapshot(s)");
+    }
+    
+    // Forwards student submissions collected by the LAN relay, gzipped. The
+    // backend only accepts a batch signed with the session's relay key, so
+    // the batch goes out as one signed request per session. If some of those
+    // fail, only their submissions are handed back to the scheduler.
+    public static void forwardSubmissions(List<SubmissionData> submissions) throws IOException {
+        Map<String, List<SubmissionData>> bySession = new LinkedHashMap<>();
+        for (SubmissionData submission : submissions) {
+            List<SubmissionData> group = bySession.get(submission.getSessionId());
+            if (group == null) {
+                group = new ArrayList<>();
+                bySession.put(submission.getSessionId(), group);
+            }
+            group.add(submission);
+        }
+        UploadScheduler.PartialFailure failure = null;
+        for (Map.Entry<String, List<SubmissionData>> group : bySession.entrySet()) {
+            if (failure != null && failure.retryError != null) {
+                // The backend is unreachable; keep the rest for the retry
+                failure.add(group.getValue(), failure.retryError);
+                continue;
+            }
+            String json = gson().toJson(group.getValue());
+            long timestamp = System.currentTimeMillis();
+            String signature = RelayKeys.sign(group.getKey(), timestamp, json);
+            if (signature == null) {
+                // Retrying can't help: without the key the backend refuses the batch
+                Log.w(TAG, "No relay key for session " + group.getKey() + ", dropped "
+                    + group.getValue().size() + " submission(s)");
+                continue;
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("X-Relay-Session", group.getKey());
+            headers.put("X-Relay-Timestamp", String.valueOf(timestamp));
+            headers.put("X-Relay-Signature", signature);
+            try {
+                postJson("/attendance/submit/batch", json, headers, true, "forward submissions");
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = new UploadScheduler.PartialFailure();
+                }
+                failure.add(group.getValue(), e);
+                continue;
+            }
+            Log.d(TAG, "Forwarded " + group.getValue().size() + " submission(s)");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    private static void postJson(String path, String jsonData, String action) throws IOException {
+        postJson(path, jsonData, Collections.<String, String>emptyMap(), false, action);
+    }
+    
+    // Tries endpoints best first, failing over on connection errors and 5xx
+    private static void postJson(String path, String jsonData, Map<String, String> headers, boolean gzip,
+                                 String action) throws IOException {
+        EndpointRouter current = router;
+        IOException lastError = null;
+        for (EndpointRouter.Endpoint endpoint : current.candidates()) {
+            try {
+                send(current, endpoint, path, jsonData, headers, gzip, action);
+                return;
+            } catch (RequestRejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                Log.w(TAG, action + " failed on " + endpoint.baseUrl + ": " + e.getMessage());
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+    
+    // GET with the same failover as postJson; returns the response body
+    private static String getJson(String path, String action) throws IOException {
+        EndpointRouter current = router;
+        IOException lastError = null;
+        for (EndpointRouter.Endpoint endpoint : current.candidates()) {
+            try {
+                return get(current, endpoint, path, action);
+            } catch (RequestRejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                Log.w(TAG, action + " failed on " + endpoint.baseUrl + ": " + e.getMessage());
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+    
+    private static void postHedged(String path, String jsonData, String idempotencyKey, String action) throws IOException {
+        EndpointRouter current = router;
+        List<EndpointRouter.Endpoint> candidates = current.candidates();
+        ExecutorCompletionService<Void> attempts = new ExecutorCompletionService<>(HEDGE_EXECUTOR);
+        long hedgeDelay = current.hedgeDelayMs(candidates.get(0));
         
-        try (OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream())) {
-            writer.write(jsonData);
-            writer.flush();
+        int next = 0;
+        int inFlight = 0;
+        IOException lastError = null;
+        Future<?>[] futures = new Future<?>[candidates.size()];
+        try {
+            futures[next] = submit(attempts, current, candidates.get(next), path, jsonData, idempotencyKey, action);
+            next++;
+            inFlight++;
+            
+            while (inFlight > 0) {
+                Future<Void> done = next < candidates.size()
+                    ? attempts.poll(hedgeDelay, TimeUnit.MILLISECONDS)
+                    : attempts.take();
+                if (done == null) {
+                    // Still waiting on the slow endpoint; race the next one
+                    hedgedRequests.incrementAndGet();
+                    futures[next] = submit(attempts, current, candidates.get(next), path, jsonData, idempotencyKey, action);
+                    next++;
+                    inFlight++;
+                    continue;
+                }
+                inFlight--;
+                try {
+                    done.get();
+                    return;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RequestRejectedException) {
+                        throw (RequestRejectedException) e.getCause();
+                    }
+                    lastError = e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+                    // Fail over straight away rather than waiting out the hedge delay
+                    if (next < candidates.size()) {
+                        futures[next] = submit(attempts, current, candidates.get(next), path, jsonData, idempotencyKey, action);
+                        next++;
+                        inFlight++;
+                    }
+                }
+            }
+            throw lastError;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while trying to " + action, e);
+        } finally {
+            for (Future<?> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+    
+    private static Future<Void> submit(ExecutorCompletionService<Void> attempts, EndpointRouter current,
+                                       EndpointRouter.Endpoint endpoint, String path, String jsonData,
+                                       String idempotencyKey, String action) {
+        return attempts.submit(() -> {
+            send(current, endpoint, path, jsonData, Collections.singletonMap("Idempotency-Key", idempotencyKey),
+                false, action);
+            return null;
+        });
+    }
+    
+    // One POST to one endpoint; feeds the outcome back into the router
+    private static void send(EndpointRouter current, EndpointRouter.Endpoint endpoint, String path,
+                             String jsonData, Map<String, String> headers, boolean gzip,
+                             String action) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = null;
+        int responseCode;
+        try {
+            connection = createConnection(endpoint.baseUrl + path, "POST");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            try (OutputStream out = gzip
+                    ? new GZIPOutputStream(connection.getOutputStream())
+                    : connection.getOutputStream();
+                 OutputStreamWriter writer = new OutputStreamWriter(out, "UTF-8")) {
+                writer.write(jsonData);
+                writer.flush();
+            }
+            responseCode = connection.getResponseCode();
+        } catch (IOException e) {
+            current.recordFailure(endpoint);
+            throw e;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
         }
         
-        int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_CREATED) {
-            Log.d(TAG, "OTP logged successfully");
-        } else {
-            throw new IOException("Failed to log OTP: " + responseCode);
+        if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            current.recordFailure(endpoint);
+            throw new IOException("Failed to " + action + ": " + responseCode);
+        }
+        current.recordSuccess(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_CREATED) {
+            // The endpoint is fine; the request itself was refused
+            throw new RequestRejectedException("Failed to " + action + ": " + responseCode);
+        }
+    }
+    
+    // One GET to one endpoint; feeds the outcome back into the router
+    private static String get(EndpointRouter current, EndpointRouter.Endpoint endpoint, String path,
+                              String action) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = null;
+        int responseCode;
+        String body = null;
+        try {
+            connection = createConnection(endpoint.baseUrl + path, "GET");
+            connection.setDoOutput(false);
+            responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                body = readBody(connection.getInputStream());
+            }
+        } catch (IOException e) {
+            current.recordFailure(endpoint);
+            throw e;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
         }
         
-        connection.disconnect();
+        if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            current.recordFailure(endpoint);
+            throw new IOException("Failed to " + action + ": " + responseCode);
+        }
+        current.recordSuccess(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (body == null) {
+            throw new RequestRejectedException("Failed to " + action + ": " + responseCode);
+        }
+        return body;
+    }
+    
+    private static String readBody(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
     }
     
     private static HttpURLConnection createConnection(String endpoint, String method) throws IOException {
@@ -67,9 +391,16 @@ public class ApiClient {
         connection.setRequestProperty("Accept", "application/json");
         connection.setDoOutput(true);
         connection.setDoInput(true);
-        connection.setConnectTimeout(10000);
-        connection.setReadTimeout(10000);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
         
         return connection;
     }
+    
+    // A 4xx answer: retrying on another endpoint would get the same result
+    static class RequestRejectedException extends IOException {
+        RequestRejectedException(String message) {
+            super(message);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.claudeattendance.teacher;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * One beacon's slice of a session served by several devices (teacher plus
+ * TAs). Each beacon advertises its id and its index/count in the scan
+ * response. Students choose a beacon by rendezvous hashing of their own key
+ * against the advertised beacon ids, so the partition is deterministic, needs
+ * no coordination, and only the students of a beacon that leaves move.
+ *
+ * OTPs come from disjoint spaces: beacon i of n only issues codes with
+ * otp % n == i, so any code tells the backend which beacon issued it.
+ */
+public final class BeaconShard {
+    // 0xFFFF is the Bluetooth SIG id reserved for testing / unassigned use
+    public static final int MANUFACTURER_ID = 0xFFFF;
+    public static final int MAX_BEACONS = 16;
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int ADVERTISEMENT_BYTES = 7;
+    private static final int OTP_SPACE = 1_000_000;
+
+    public final int index;
+    public final int count;
+    public final int beaconId;
+
+    public BeaconShard(int index, int count, int beaconId) {
+        if (count < 1 || count > MAX_BEACONS || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid beacon " + index + " of " + count);
+        }
+        this.index = index;
+        this.count = count;
+        this.beaconId = beaconId;
+    }
+
+    // Single-beacon session: every code and every student belongs to it
+    public static BeaconShard solo(int beaconId) {
+        return new BeaconShard(0, 1, beaconId);
+    }
+
+    // Stable id for this device, derived from a per-install identifier
+    public static int beaconIdFor(String installId) {
+        return fnv1a(installId);
+    }
+
+    // A random code from this beacon's residue class
+    public String nextOtp(Random random) {
+        int slot = random.nextInt(OTP_SPACE / count);
+        return String.format(Locale.US, "%06d", slot * count + index);
+    }
+
+    // Which beacon of `count` issued a code
+    public static int shardOfOtp(String otp, int count) {
+        return Integer.parseInt(otp) % count;
+    }
+
+    // Scan-response payload: version, index, count, beacon id (big-endian)
+    public byte[] toAdvertisement() {
+        return ByteBuffer.allocate(ADVERTISEMENT_BYTES)
+            .put(FORMAT_VERSION)
+            .put((byte) index)
+            .put((byte) count)
+            .putInt(beaconId)
+            .array();
+    }
+
+    public static BeaconShard fromAdvertisement(byte[] data) {
+        if (data == null || data.length < ADVERTISEMENT_BYTES || data[0] != FORMAT_VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, ADVERTISEMENT_BYTES - 1);
+        int index = buffer.get() & 0xFF;
+        int count = buffer.get() & 0xFF;
+        int beaconId = buffer.getInt();
+        try {
+            return new BeaconShard(index, count, beaconId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // 32-bit FNV-1a over UTF-8, the hash students also use for rendezvous
+    static int fnv1a(String value) {
+        int hash = 0x811C9DC5;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "beacon " + (index + 1) + "/" + count + " (" + Integer.toHexString(beaconId) + ")";
+    }
+}
@@ -11,48 +11,314 @@ import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+/**
+ * Serves session ids, OTPs and the LAN relay's address over GATT. All state is owned by a single
+ * event-loop thread: binder callbacks and calls from the UI only post work
+ * to it, so the maps below need no locks and events are handled strictly in
+ * arrival order.
+ *
+ * OTPs are keyed by the client's identity token when it has written one to
+ * the identity characteristic, and by its BLE address otherwise. Phones
+ * rotate private addresses, so a student reconnecting under a new address
+ * still gets the code it was already issued instead of a fresh one.
+ */
 public class GattServerManager {
     private static final String TAG = "GattServerManager";
-    private static GattServerManager instance;
     
     // Service and Characteristic UUIDs
     private static final UUID ATTENDANCE_SERVICE_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abc");
     private static final UUID OTP_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abd");
     private static final UUID SESSION_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abe");
+    private static final UUID IDENTITY_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ac0");
+    private static final UUID RELAY_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ac1");
+    
+    private static final long OTP_VALIDITY_MS = 90000; // 90 seconds
+    private static final long ROTATION_SWEEP_MS = 30000;
+    // Session statistics go up at most this often while they keep changing
+    private static final long STATS_UPLOAD_MS = 60000;
+    
+    // Each device may burst a few reads, then roughly two per second
+    private static final int READ_BURST = 5;
+    private static final double READS_PER_SECOND = 2.0;
+    
+    // Session-scoped token a client writes before reading its OTP
+    private static final int IDENTITY_TOKEN_BYTES = 16;
+    // Recently seen addresses; a class rarely has more devices than this
+    private static final int IDENTITY_CACHE_SIZE = 512;
+    // Distinct identities one session accepts. Each identity is a holder with
+    // its own read budget and OTP, so they must not be free to mint.
+    private static final int MAX_IDENTITIES_PER_SESSION = 1024;
+    
+    private static class Holder {
+        static final GattServerManager INSTANCE = new GattServerManager();
+    }
+    
+    // Event loop; every field below is only touched on this thread
+    private final HandlerThread loopThread;
+    private final Handler loop;
     
     private BluetoothGattServer gattServer;
     private BluetoothManager bluetoothManager;
+    private Context appContext;
+    private boolean canConnect = false;
     private String currentSessionId;
+    private boolean serviceReady = false;
+    private ServiceReadyListener pendingListener;
+    private ProximityScanner proximityScanner;
+    private BeaconShard shard;
+    // LAN relay students may submit to, or null when none is running
+    private String relayUrl;
+    
+    private final ReadRateLimiter readLimiter = new ReadRateLimiter(READ_BURST, READS_PER_SECOND);
+    private final Random random = new Random();
+    // Keyed by holder: the client's identity token, or its address if it has none
     private Map<String, String> deviceOtpMap = new HashMap<>();
     private Map<String, Long> otpTimestamps = new HashMap<>();
+    // BLE address -> identity token, least recently used evicted first
+    private final Map<String, String> identityByAddress =
+        new LinkedHashMap<String, String>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > IDENTITY_CACHE_SIZE;
+            }
+        };
+    // Identities bound this session; an address keeps the first it presents
+    private final Set<String> knownIdentities = new HashSet<>();
+    // Holder -> issue time of its current OTP while that OTP is unused
+    private Map<String, Long> unconsumedOtps = new HashMap<>();
+    // Outstanding OTP value -> holder, for validating submissions by code.
+    // Codes are unique among outstanding ones, so no holder's entry is
+    // overwritten by another's.
+    private Map<String, String> otpHolders = new HashMap<>();
+    private final AnomalyDetector anomalyDetector = new AnomalyDetector();
+    private final SessionStats stats = new SessionStats();
+    private long lastStatsUpload = 0;
+    
+    // Counters are written on the loop only; volatile so other threads can read them
+    private volatile long throttledReads = 0;
+    private volatile long dedupedUploads = 0;
+    private volatile long uploadsSent = 0;
+    private volatile long identifiedReads = 0;
+    
+    // Time events spend queued before the loop runs them
+    private volatile long queueLatencyMaxNanos = 0;
+    private volatile long queueLatencyTotalNanos = 0;
+    private volatile long eventsHandled = 0;
     
     public static GattServerManager getInstance() {
-        if (instance == null) {
-            instance = new GattServerManager();
-        }
-        return instance;
+        return Holder.INSTANCE;
+    }
+    
+    private GattServerManager() {
+        loopThread = new HandlerThread("GattServerLoop");
+        loopThread.start();
+        loop = new Handler(loopThread.getLooper());
+    }
+    
+    // Notified on the loop thread once the attendance service is registered
+    public interface ServiceReadyListener {
+        void onServiceReady();
+        void onServiceFailed(int status);
+    }
+    
+    // Queues an event for the loop, recording how long it waits there
+    private void post(Runnable event) {
+        long enqueuedAt = System.nanoTime();
+        loop.post(() -> {
+            long waited = System.nanoTime() - enqueuedAt;
+            eventsHandled++;
+            queueLatencyTotalNanos += waited;
+            if (waited > queueLatencyMaxNanos) {
+                queueLatencyMaxNanos = waited;
+            }
+            event.run();
+        });
+    }
+    
+    /**
+     * Opens the GATT server and registers the attendance service ahead of time,
+     * so that starting a session only has to set the session id. Safe to call
+     * repeatedly; does nothing if the server is already open.
+     */
+    public void prepare(Context context) {
+        Context app = context.getApplicationContext();
+        post(() -> openServer(app));
+    }
+    
+    public void startServer(Context context, String sessionId, ServiceReadyListener listener) {
+        Context app = context.getApplicationContext();
+        post(() -> {
+            if (!sessionId.equals(currentSessionId)) {
+                // Tokens and traffic history are only meaningful within one session
+                identityByAddress.clear();
+                knownIdentities.clear();
+                anomalyDetector.reset();
+                stats.reset(sessionId, System.currentTimeMillis());
+            }
+            currentSessionId = sessionId;
+            openServer(app);
+            
+            if (gattServer == null) {
+                listener.onServiceFailed(BluetoothGatt.GATT_FAILURE);
+                return;
+            }
+            
+            if (serviceReady) {
+                listener.onServiceReady();
+            } else {
+                pendingListener = listener;
+            }
+            
+            loop.removeCallbacks(rotationSweep);
+            loop.postDelayed(rotationSweep, ROTATION_SWEEP_MS);
+            Log.d(TAG, "GATT Server started for session: " + sessionId);
+        });
+    }
+    
+    /**
+     * Checks a submitted OTP against the codes issued for this session and
+     * marks it used, so each code is accepted once. The future yields null
+     * if the code is rejected, otherwise the risk flags for the submission
+     * (empty when it looks clean). Safe to call from any thread; the check
+     * runs on the loop and completes the returned future.
+     */
+    public Future<List<String>> consumeOtp(String sessionId, String otp, String ipAddress) {
+        FutureTask<List<String>> task = new FutureTask<>(() -> {
+            if (currentSessionId == null || !currentSessionId.equals(sessionId)) {
+                return null;
+            }
+            String holder = otpHolders.get(otp);
+            Long issuedAt = holder != null ? unconsumedOtps.remove(holder) : null;
+            long now = System.currentTimeMillis();
+            if (issuedAt == null || now - issuedAt >= OTP_VALIDITY_MS) {
+                stats.onSubmission(false);
+                return null;
+            }
+            stats.onSubmission(true);
+            SessionCheckpoint.getInstance().markConsumed(holder, otp, issuedAt);
+            return anomalyDetector.onSubmission(holder, null, ipAddress, now);
+        });
+        post(task);
+        return task;
+    }
+    
+    /**
+     * Loads unexpired OTPs saved by a previous process back into the maps,
+     * so students who already read a code keep it and relayed submissions
+     * of it still validate. Call after startServer for the same session.
+     */
+    public void restoreOtps(List<SessionCheckpoint.OtpEntry> entries) {
+        post(() -> {
+            long now = System.currentTimeMillis();
+            int restored = 0;
+            for (SessionCheckpoint.OtpEntry entry : entries) {
+                if (now - entry.issuedAt >= OTP_VALIDITY_MS) {
+                    SessionCheckpoint.getInstance().removeOtp(entry.holder);
+                    continue;
+                }
+                restored++;
+                deviceOtpMap.put(entry.holder, entry.otp);
+                otpTimestamps.put(entry.holder, entry.issuedAt);
+                otpHolders.put(entry.otp, entry.holder);
+                if (!entry.consumed) {
+                    unconsumedOtps.put(entry.holder, entry.issuedAt);
+                }
+            }
+            Log.d(TAG, "Restored " + restored + " OTPs for session " + currentSessionId);
+        });
+    }
+    
+    // Restricts issued OTPs to this beacon's space when several devices
+    // serve one session; null means this device serves the whole session
+    public void setShard(BeaconShard beaconShard) {
+        post(() -> shard = beaconShard);
+    }
+    
+    // Announces the classroom LAN relay to students; null withdraws it
+    public void setRelayUrl(String url) {
+        post(() -> relayUrl = url);
+    }
+    
+    // OTP reads are refused for devices the scanner places outside the room
+    public void setProximityScanner(ProximityScanner scanner) {
+        post(() -> proximityScanner = scanner);
     }
     
-    public void startServer(Context context, String sessionId) {
-        this.currentSessionId = sessionId;
-        bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+    public void stopServer() {
+        post(() -> {
+            loop.removeCallbacks(rotationSweep);
+            if (gattServer != null) {
+                if (currentSessionId != null) {
+                    uploadStats(true, System.currentTimeMillis());
+                }
+                gattServer.close();
+                gattServer = null;
+                serviceReady = false;
+                pendingListener = null;
+                currentSessionId = null;
+                deviceOtpMap.clear();
+                otpTimestamps.clear();
+                unconsumedOtps.clear();
+                otpHolders.clear();
+                identityByAddress.clear();
+                knownIdentities.clear();
+                readLimiter.clear();
+                relayUrl = null;
+                Log.d(TAG, "GATT Server stopped (uploads: " + uploadsSent
+                    + ", deduped: " + dedupedUploads
+                    + ", identified reads: " + identifiedReads
+                    + ", flagged issues: " + anomalyDetector.getFlaggedIssueCount()
+                    + "/" + (anomalyDetector.getFlaggedIssueCount() + anomalyDetector.getCleanIssueCount())
+                    + ", throttled reads: " + throttledReads
+                    + ", queue latency avg/max us: " + getQueueLatencyAvgMicros()
+                    + "/" + getQueueLatencyMaxMicros() + ")");
+            }
+            // Between classes is a good time to drop expired history
+            HistoryStore.getInstance().compactIfNeeded();
+        });
+    }
+    
+    private void openServer(Context context) {
+        appContext = context;
+        if (gattServer != null) {
+            return;
+        }
         
-        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+        // Checked once here rather than on every response
+        canConnect = ActivityCompat.checkSelfPermission(appContext,
+            Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED;
+        if (!canConnect) {
             Log.e(TAG, "Bluetooth permission not granted");
             return;
         }
         
-        gattServer = bluetoothManager.openGattServer(context, gattServerCallback);
+        StartupTrace.begin(StartupTrace.GATT_PREOPEN);
+        bluetoothManager = (BluetoothManager) appContext.getSystemService(Context.BLUETOOTH_SERVICE);
+        gattServer = bluetoothManager.openGattServer(appContext, gattServerCallback);
+        if (gattServer == null) {
+            Log.e(TAG, "Unable to open GATT server");
+            StartupTrace.end();
+            return;
+        }
         
         // Create attendance service
         BluetoothGattService attendanceService = new BluetoothGattService(
@@ -67,111 +333,341 @@ public class GattServerManager {
             BluetoothGattCharacteristic.PERMISSION_READ
         );
         
-        // Session characteristic (readable by students)
+        // Session characteristic (readable by students); the value is served
+        // from currentSessionId on each read so it can be registered early
         BluetoothGattCharacteristic sessionCharacteristic = new BluetoothGattCharacteristic(
             SESSION_CHARACTERISTIC_UUID,
             BluetoothGattCharacteristic.PROPERTY_READ,
             BluetoothGattCharacteristic.PERMISSION_READ
         );
         
-        sessionCharacteristic.setValue(sessionId.getBytes(StandardCharsets.UTF_8));
+        // Identity characteristic (written by students before the OTP read)
+        BluetoothGattCharacteristic identityCharacteristic = new BluetoothGattCharacteristic(
+            IDENTITY_CHARACTERISTIC_UUID,
+            BluetoothGattCharacteristic.PROPERTY_WRITE,
+            BluetoothGattCharacteristic.PERMISSION_WRITE
+        );
+        
+        // Relay characteristic (readable by students after the OTP); empty
+        // when no LAN relay is running
+        BluetoothGattCharacteristic relayCharacteristic = new BluetoothGattCharacteristic(
+            RELAY_CHARACTERISTIC_UUID,
+            BluetoothGattCharacteristic.PROPERTY_READ,
+            BluetoothGattCharacteristic.PERMISSION_READ
+        );
         
         attendanceService.addCharacteristic(otpCharacteristic);
         attendanceService.addCharacteristic(sessionCharacteristic);
+        attendanceService.addCharacteristic(identityCharacteristic);
+        attendanceService.addCharacteristic(relayCharacteristic);
         
+        // Completion is reported through onServiceAdded
         gattServer.addService(attendanceService);
+        StartupTrace.end();
         
-        Log.d(TAG, "GATT Server started for session: " + sessionId);
-    }
-    
-    public void stopServer() {
-        if (gattServer != null) {
-            gattServer.close();
-            gattServer = null;
-            deviceOtpMap.clear();
-            otpTimestamps.clear();
-            Log.d(TAG, "GATT Server stopped");
-        }
+        Log.d(TAG, "GATT Server opened, waiting for service registration");
     }
     
+    // Binder callbacks only capture their arguments and hand off to the loop
     private final BluetoothGattServerCallback gattServerCallback = new BluetoothGattServerCallback() {
+        @Override
+        public void onServiceAdded(int status, BluetoothGattService service) {
+            post(() -> handleServiceAdded(status));
+        }
+        
         @Override
         public void onConnectionStateChange(BluetoothDevice device, int status, int newState) {
-            super.onConnectionStateChange(device, status, newState);
-            Log.d(TAG, "Connection state changed: " + device.getAddress() + " State: " + newState);
+            post(() -> Log.d(TAG, "Connection state changed: " + device.getAddress() + " State: " + newState));
         }
         
         @Override
         public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
                 BluetoothGattCharacteristic characteristic) {
-            super.onCharacteristicReadRequest(device, requestId, offset, characteristic);
+            UUID uuid = characteristic.getUuid();
+            post(() -> handleRead(device, requestId, offset, uuid));
+        }
+        
+        @Override
+        public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId,
+                BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded,
+                int offset, byte[] value) {
+            UUID uuid = characteristic.getUuid();
+            post(() -> handleWrite(device, requestId, uuid, preparedWrite, responseNeeded, offset, value));
+        }
+    };
+    
+    private void handleServiceAdded(int status) {
+        ServiceReadyListener listener = pendingListener;
+        pendingListener = null;
+        
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            serviceReady = true;
+            Log.d(TAG, "Attendance service registered");
+            if (listener != null) {
+                listener.onServiceReady();
+            }
+        } else {
+            Log.e(TAG, "Attendance service registration failed: " + status);
+            if (listener != null) {
+                listener.onServiceFailed(status);
+            }
+        }
+    }
+    
+    private void handleRead(BluetoothDevice device, int requestId, int offset, UUID uuid) {
+        if (gattServer == null) {
+            // Stopped while this read was queued
+            return;
+        }
+        
+        String deviceAddress = device.getAddress();
+        String holder = holderOf(deviceAddress);
+        String sessionId = currentSessionId;
+        if (sessionId != null && OTP_CHARACTERISTIC_UUID.equals(uuid)) {
+            // Counted before throttling: refused reads are part of the signal
+            anomalyDetector.onRead(holder, System.currentTimeMillis());
+        }
+        if (sessionId == null) {
+            // Service is pre-registered but no session has been started yet
+            respond(device, requestId, BluetoothGatt.GATT_FAILURE, 0, null);
+        } else if (!readLimiter.tryAcquire(holder, System.nanoTime())) {
+            // Over its read budget; tell the client to back off
+            throttledReads++;
+            stats.onThrottled();
+            respond(device, requestId, BluetoothGatt.GATT_CONNECTION_CONGESTED, 0, null);
+        } else if (OTP_CHARACTERISTIC_UUID.equals(uuid) && !isInProximity(holder)) {
+            Log.w(TAG, "Refusing OTP for out-of-range device: " + deviceAddress);
+            stats.onOutOfRange();
+            respond(device, requestId, BluetoothGatt.GATT_READ_NOT_PERMITTED, 0, null);
+        } else if (OTP_CHARACTERISTIC_UUID.equals(uuid)) {
+            // Reuse the holder's valid OTP, otherwise issue a new one
+            String otp = getValidOtp(holder);
+            boolean issued = otp == null;
+            if (issued) {
+                otp = generateOtp(holder);
+            }
+            if (!holder.equals(deviceAddress)) {
+                identifiedReads++;
+            }
+            stats.onServed(holder, issued, System.currentTimeMillis());
             
-            String deviceAddress = device.getAddress();
-            Log.d(TAG, "Characteristic read request from: " + deviceAddress);
+            if (respond(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, otp.getBytes(StandardCharsets.UTF_8))) {
+                StartupTrace.markFirstServe();
+            }
             
-            if (OTP_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-                // Generate or retrieve OTP for this device
-                String otp = getOrGenerateOtp(deviceAddress);
-                
-                if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                    gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 
-                        offset, otp.getBytes(StandardCharsets.UTF_8));
-                }
-                
-                // Send OTP to backend for validation
-                sendOtpToBackend(deviceAddress, otp, currentSessionId);
-                
-            } else if (SESSION_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
-                if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                    gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 
-                        offset, currentSessionId.getBytes(StandardCharsets.UTF_8));
-                }
+            // Only newly created or rotated codes need to reach the backend
+            if (issued) {
+                long issuedAt = otpTimestamps.get(holder);
+                List<String> riskFlags = anomalyDetector.onIssue(holder, deviceAddress, issuedAt);
+                sendOtpToBackend(holder, deviceAddress, otp, sessionId, issuedAt, riskFlags);
             } else {
-                if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                    gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_FAILURE, 0, null);
+                dedupedUploads++;
+            }
+        } else if (SESSION_CHARACTERISTIC_UUID.equals(uuid)) {
+            respond(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, sessionId.getBytes(StandardCharsets.UTF_8));
+        } else if (RELAY_CHARACTERISTIC_UUID.equals(uuid)) {
+            byte[] url = relayUrl != null ? relayUrl.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            respond(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, url);
+        } else {
+            respond(device, requestId, BluetoothGatt.GATT_FAILURE, 0, null);
+        }
+    }
+    
+    private void handleWrite(BluetoothDevice device, int requestId, UUID uuid, boolean preparedWrite,
+            boolean responseNeeded, int offset, byte[] value) {
+        if (gattServer == null) {
+            return;
+        }
+        
+        int status;
+        if (!IDENTITY_CHARACTERISTIC_UUID.equals(uuid)) {
+            status = BluetoothGatt.GATT_WRITE_NOT_PERMITTED;
+        } else if (currentSessionId == null) {
+            status = BluetoothGatt.GATT_FAILURE;
+        } else if (preparedWrite || offset != 0 || value == null || value.length != IDENTITY_TOKEN_BYTES) {
+            status = BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+        } else {
+            status = bindIdentity(device.getAddress(), toHex(value));
+        }
+        if (responseNeeded) {
+            respond(device, requestId, status, offset, null);
+        }
+    }
+    
+    // An address keeps the first identity it presents, and a session only
+    // takes so many; otherwise each new token would be a fresh holder with a
+    // full read budget and its own OTP. Refused attempts still reach the
+    // anomaly detector, which flags addresses cycling through identities.
+    private int bindIdentity(String address, String identity) {
+        String bound = identityByAddress.get(address);
+        if (identity.equals(bound)) {
+            return BluetoothGatt.GATT_SUCCESS;
+        }
+        anomalyDetector.onIdentityBound(address, identity, System.currentTimeMillis());
+        if (bound != null) {
+            Log.w(TAG, "Refusing second identity from " + address);
+            return BluetoothGatt.GATT_WRITE_NOT_PERMITTED;
+        }
+        if (!knownIdentities.contains(identity)) {
+            if (knownIdentities.size() >= MAX_IDENTITIES_PER_SESSION) {
+                Log.w(TAG, "Identity limit reached, serving " + address + " by address");
+                return BluetoothGatt.GATT_WRITE_NOT_PERMITTED;
+            }
+            knownIdentities.add(identity);
+        }
+        identityByAddress.put(address, identity);
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+    
+    // OTPs are held by identity token when the device presented one
+    private String holderOf(String deviceAddress) {
+        String identity = identityByAddress.get(deviceAddress);
+        return identity != null ? identity : deviceAddress;
+    }
+    
+    private static String toHex(byte[] value) {
+        StringBuilder hex = new StringBuilder(value.length * 2);
+        for (byte b : value) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    
+    private boolean respond(BluetoothDevice device, int requestId, int status, int offset, byte[] value) {
+        if (!canConnect) {
+            return false;
+        }
+        return gattServer.sendResponse(device, requestId, status, offset, value);
+    }
+    
+    // Drops expired OTPs so the maps only hold codes that can still be served
+    private final Runnable rotationSweep = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, Long>> it = otpTimestamps.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                if (now - entry.getValue() >= OTP_VALIDITY_MS) {
+                    String holder = entry.getKey();
+                    otpHolders.remove(deviceOtpMap.remove(holder));
+                    unconsumedOtps.remove(holder);
+                    SessionCheckpoint.getInstance().removeOtp(holder);
+                    it.remove();
                 }
             }
+            SessionCheckpoint.getInstance().flush();
+            if (stats.hasChanged() && now - lastStatsUpload >= STATS_UPLOAD_MS) {
+                uploadStats(false, now);
+            }
+            if (gattServer != null) {
+                loop.postDelayed(this, ROTATION_SWEEP_MS);
+            }
         }
     };
     
-    private String getOrGenerateOtp(String deviceAddress) {
-        // Check if we already have a valid OTP for this device
-        String existingOtp = deviceOtpMap.get(deviceAddress);
-        Long timestamp = otpTimestamps.get(deviceAddress);
+    // Presence advertisements are tagged with the identity token, since the
+    // advertising address differs from the connection's
+    private boolean isInProximity(String holder) {
+        return proximityScanner == null || proximityScanner.isNearby(holder);
+    }
+    
+    private String getValidOtp(String holder) {
+        // Check if we already have a valid OTP for this holder
+        String existingOtp = deviceOtpMap.get(holder);
+        Long timestamp = otpTimestamps.get(holder);
         
         // Check if OTP is still valid (within 90 seconds)
         if (existingOtp != null && timestamp != null) {
             long currentTime = System.currentTimeMillis();
-            if (currentTime - timestamp < 90000) { // 90 seconds
+            if (currentTime - timestamp < OTP_VALIDITY_MS) {
                 return existingOtp;
             }
         }
+        return null;
+    }
+    
+    private String generateOtp(String holder) {
+        // Redraw rather than hand out a code another holder still has
+        String newOtp;
+        do {
+            newOtp = shard != null
+                ? shard.nextOtp(random)
+                : String.format("%06d", random.nextInt(999999));
+        } while (otpHolders.containsKey(newOtp));
+        long now = System.currentTimeMillis();
+        String previous = deviceOtpMap.put(holder, newOtp);
+        if (previous != null) {
+            otpHolders.remove(previous);
+        }
+        otpHolders.put(newOtp, holder);
+        otpTimestamps.put(holder, now);
+        unconsumedOtps.put(holder, now);
+        SessionCheckpoint.getInstance().putOtp(holder, newOtp, now);
         
-        // Generate new OTP
-        String newOtp = String.format("%06d", new Random().nextInt(999999));
-        deviceOtpMap.put(deviceAddress, newOtp);
-        otpTimestamps.put(deviceAddress, System.currentTimeMillis());
-        
-        Log.d(TAG, "Generated new OTP for device " + deviceAddress + ": " + newOtp);
+        Log.d(TAG, "Generated new OTP for " + holder + ": " + newOtp);
         return newOtp;
     }
     
-    private void sendOtpToBackend(String deviceAddress, String otp, String sessionId) {
-        // Send OTP generation info to backend for later validation
-        new Thread(() -> {
-            try {
-                OtpData otpData = new OtpData(
-                    otp,
-                    sessionId,
-                    deviceAddress,
-                    System.currentTimeMillis(),
-                    System.currentTimeMillis() + 90000 // expires in 90 seconds
-                );
-                ApiClient.logOtpGeneration(otpData);
-                Log.d(TAG, "OTP logged to backend: " + otp);
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to log OTP to backend", e);
-            }
-        }).start();
+    // Queues a snapshot of the session statistics; the final one goes out
+    // when the session stops, as deferrable reconciliation data
+    private void uploadStats(boolean ended, long now) {
+        UploadScheduler.getInstance().enqueue(ended ? Uploads.SESSION_RECONCILIATION : Uploads.SESSION_STATS,
+            stats.snapshot(shard, ended, now));
+        lastStatsUpload = now;
+    }
+    
+    private void sendOtpToBackend(String holder, String deviceAddress, String otp, String sessionId,
+            long createdAt, List<String> riskFlags) {
+        // Send OTP generation info to backend for later validation; the
+        // scheduler batches these according to link quality
+        OtpData otpData = new OtpData(
+            otp,
+            sessionId,
+            deviceAddress,
+            createdAt,
+            createdAt + OTP_VALIDITY_MS
+        );
+        if (shard != null) {
+            otpData.setBeacon(shard.beaconId, shard.index, shard.count);
+        }
+        otpData.setRiskFlags(riskFlags);
+        UploadScheduler.getInstance().enqueue(Uploads.OTP_LOGS, otpData);
+        // History is indexed by holder; a rotating address would scatter one
+        // student's issues across many keys
+        HistoryStore.getInstance().recordIssue(sessionId, holder, otp, createdAt);
+        uploadsSent++;
+    }
+    
+    // Reads refused because the device exceeded its token bucket
+    public long getThrottledReadCount() {
+        return throttledReads;
+    }
+    
+    // OTP reads answered from cache without a second backend upload
+    public long getDedupedUploadCount() {
+        return dedupedUploads;
+    }
+    
+    public long getUploadCount() {
+        return uploadsSent;
+    }
+    
+    public AnomalyDetector getAnomalyDetector() {
+        return anomalyDetector;
+    }
+    
+    // OTP reads served to clients that presented an identity token
+    public long getIdentifiedReadCount() {
+        return identifiedReads;
+    }
+    
+    public long getQueueLatencyAvgMicros() {
+        long handled = eventsHandled;
+        return handled == 0 ? 0 : queueLatencyTotalNanos / handled / 1000;
+    }
+    
+    public long getQueueLatencyMaxMicros() {
+        return queueLatencyMaxNanos / 1000;
     }
 }
\ No newline at end of file
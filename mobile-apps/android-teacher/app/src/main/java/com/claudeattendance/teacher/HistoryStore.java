@@ -0,0 +1,806 @@
+package com.claudeattendance.teacher;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On-device history of sessions and OTP issuance, kept after the GATT
+ * server stops so past classes can be checked without the backend.
+ *
+ * Issue events are appended to a small row log; every SEGMENT_ROWS rows the
+ * log is sealed into an immutable columnar segment (time, session, device,
+ * otp columns) followed by two sorted (key, row) indexes, one by session
+ * and one by device. The device column holds the OTP holder (the identity
+ * token when the student presented one, else the BLE address), so one
+ * student's history stays under one key while the address rotates. Sealed segments are memory-mapped, so a lookup is a
+ * binary search per segment. Strings are dictionary-encoded once in an
+ * append-only dictionary; sessions are fixed-width records.
+ *
+ * Compaction rewrites the store without rows past the retention period and,
+ * if still over the disk budget, without the oldest rows. Writes and
+ * compaction run on the store's own thread; queries may come from any
+ * background thread.
+ */
+public class HistoryStore {
+    private static final String TAG = "HistoryStore";
+
+    private static final String DIR_NAME = "history";
+    // Siblings of the store directory used while compacting. The marker is
+    // created once the compacted copy is complete, so on open its presence
+    // means "finish the swap" and its absence means "discard the copy".
+    private static final String COMPACT_DIR = DIR_NAME + ".compact";
+    private static final String OLD_DIR = DIR_NAME + ".old";
+    private static final String SWAP_MARKER = DIR_NAME + ".swap";
+    private static final String DICT_FILE = "dict.bin";
+    private static final String SESSIONS_FILE = "sessions.bin";
+    private static final String ACTIVE_FILE = "active.bin";
+    private static final String SEGMENT_FORMAT = "seg-%06d.seg";
+
+    private static final int SEGMENT_MAGIC = 0x48534547; // "HSEG"
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 28;
+    static final int SEGMENT_ROWS = 8192;
+
+    // time(8) + session(4) + device(4) + otp(4) in the row log
+    private static final int ACTIVE_ROW_BYTES = 20;
+    // four columns plus two (key, row) index entries
+    private static final int SEGMENT_ROW_BYTES = 8 + 4 + 4 + 4 + 8 + 8;
+    // session, teacher, class, period, room refs + timestamp
+    private static final int SESSION_RECORD_BYTES = 5 * 4 + 8;
+
+    public static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_RETENTION_MS = 200L * 24 * 60 * 60 * 1000;
+
+    public static final class IssueEvent {
+        public final String sessionId;
+        public final String holder;
+        public final String otp;
+        public final long issuedAt;
+
+        IssueEvent(String sessionId, String holder, String otp, long issuedAt) {
+            this.sessionId = sessionId;
+            this.holder = holder;
+            this.otp = otp;
+            this.issuedAt = issuedAt;
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int rows;
+        final long minTime;
+        final long maxTime;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.rows = buffer.getInt(8);
+            this.minTime = buffer.getLong(12);
+            this.maxTime = buffer.getLong(20);
+        }
+
+        long time(int row) { return buffer.getLong(SEGMENT_HEADER_BYTES + row * 8); }
+        int session(int row) { return buffer.getInt(SEGMENT_HEADER_BYTES + rows * 8 + row * 4); }
+        int device(int row) { return buffer.getInt(SEGMENT_HEADER_BYTES + rows * 12 + row * 4); }
+        int otp(int row) { return buffer.getInt(SEGMENT_HEADER_BYTES + rows * 16 + row * 4); }
+
+        int sessionIndexOffset() { return SEGMENT_HEADER_BYTES + rows * 20; }
+        int deviceIndexOffset() { return SEGMENT_HEADER_BYTES + rows * 28; }
+    }
+
+    private static class Holder {
+        static final HistoryStore INSTANCE = new HistoryStore();
+    }
+
+    public static HistoryStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "HistoryStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this
+    private File dir;
+    private long budgetBytes = DEFAULT_BUDGET_BYTES;
+    private long retentionMs = DEFAULT_RETENTION_MS;
+    private final Map<String, Integer> dictIds = new HashMap<>();
+    private final List<String> dictValues = new ArrayList<>();
+    private DataOutputStream dictOut;
+    private FileChannel sessionsChannel;
+    private MappedByteBuffer sessionsMap;
+    private int sessionCount;
+    private final Map<Integer, Integer> sessionRecordByRef = new HashMap<>();
+    private FileChannel activeChannel;
+    private int activeSegmentId;
+    private long[] activeTime = new long[SEGMENT_ROWS];
+    private int[] activeSession = new int[SEGMENT_ROWS];
+    private int[] activeDevice = new int[SEGMENT_ROWS];
+    private int[] activeOtp = new int[SEGMENT_ROWS];
+    private int activeRows;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private HistoryStore() {}
+
+    public void open(Context context) {
+        open(new File(context.getFilesDir(), DIR_NAME));
+    }
+
+    // Opens the store at `target`, finishing or discarding any compaction a
+    // crash left behind next to it
+    void open(File target) {
+        writer.execute(() -> {
+            synchronized (this) {
+                try {
+                    openDir(target);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open history store", e);
+                    closeQuietly();
+                }
+            }
+        });
+    }
+
+    public synchronized void setLimits(long budgetBytes, long retentionMs) {
+        this.budgetBytes = budgetBytes;
+        this.retentionMs = retentionMs;
+    }
+
+    public void recordSession(SessionData session) {
+        writer.execute(() -> {
+            synchronized (this) {
+                if (dir == null) {
+                    return;
+                }
+                try {
+                    appendSession(session);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to record session", e);
+                }
+            }
+        });
+    }
+
+    public void recordIssue(String sessionId, String holder, String otp, long issuedAt) {
+        writer.execute(() -> {
+            synchronized (this) {
+                if (dir == null) {
+                    return;
+                }
+                try {
+                    appendIssue(sessionId, holder, otp, issuedAt);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to record issue", e);
+                }
+            }
+        });
+    }
+
+    // Runs compaction if the store is over budget or holds expired rows
+    public void compactIfNeeded() {
+        writer.execute(() -> {
+            synchronized (this) {
+                if (dir == null) {
+                    return;
+                }
+                try {
+                    long cutoff = System.currentTimeMillis() - retentionMs;
+                    if (diskBytes() > budgetBytes || oldestTime() < cutoff) {
+                        compact(cutoff);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Compaction failed", e);
+                }
+            }
+        });
+    }
+
+    // ---- Queries ----
+
+    // Sessions of a class whose start lies in [fromMs, toMs], oldest first
+    public synchronized List<SessionData> sessionsForClass(String className, long fromMs, long toMs) {
+        List<SessionData> result = new ArrayList<>();
+        Integer classRef = dictIds.get(className);
+        if (dir == null || classRef == null) {
+            return result;
+        }
+        for (int i = 0; i < sessionCount; i++) {
+            int base = i * SESSION_RECORD_BYTES;
+            long timestamp = sessionsMap.getLong(base + 20);
+            if (sessionsMap.getInt(base + 8) == classRef && timestamp >= fromMs && timestamp <= toMs) {
+                result.add(readSession(i));
+            }
+        }
+        return result;
+    }
+
+    public synchronized SessionData findSession(String sessionId) {
+        Integer ref = dictIds.get(sessionId);
+        Integer record = ref != null ? sessionRecordByRef.get(ref) : null;
+        return record != null ? readSession(record) : null;
+    }
+
+    public synchronized List<IssueEvent> sessionEvents(String sessionId) {
+        return lookup(sessionId, true);
+    }
+
+    public synchronized List<IssueEvent> holderHistory(String holder) {
+        return lookup(holder, false);
+    }
+
+    public synchronized int countSessionEvents(String sessionId) {
+        Integer ref = dictIds.get(sessionId);
+        if (dir == null || ref == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Segment segment : segments) {
+            int offset = segment.sessionIndexOffset();
+            int row = lowerBound(segment.buffer, offset, segment.rows, ref);
+            while (row < segment.rows && segment.buffer.getInt(offset + row * 8) == ref) {
+                count++;
+                row++;
+            }
+        }
+        for (int i = 0; i < activeRows; i++) {
+            if (activeSession[i] == ref) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized long diskBytes() {
+        if (dir == null) {
+            return 0;
+        }
+        long total = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    private List<IssueEvent> lookup(String key, boolean bySession) {
+        List<IssueEvent> result = new ArrayList<>();
+        Integer ref = dictIds.get(key);
+        if (dir == null || ref == null) {
+            return result;
+        }
+        for (Segment segment : segments) {
+            int offset = bySession ? segment.sessionIndexOffset() : segment.deviceIndexOffset();
+            int entry = lowerBound(segment.buffer, offset, segment.rows, ref);
+            while (entry < segment.rows && segment.buffer.getInt(offset + entry * 8) == ref) {
+                int row = segment.buffer.getInt(offset + entry * 8 + 4);
+                result.add(new IssueEvent(dictValues.get(segment.session(row)), dictValues.get(segment.device(row)),
+                    formatOtp(segment.otp(row)), segment.time(row)));
+                entry++;
+            }
+        }
+        for (int i = 0; i < activeRows; i++) {
+            if ((bySession ? activeSession[i] : activeDevice[i]) == ref) {
+                result.add(new IssueEvent(dictValues.get(activeSession[i]), dictValues.get(activeDevice[i]),
+                    formatOtp(activeOtp[i]), activeTime[i]));
+            }
+        }
+        return result;
+    }
+
+    // First index entry whose key is >= key; entries are (key, row) int pairs
+    private static int lowerBound(ByteBuffer buffer, int offset, int count, int key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buffer.getInt(offset + mid * 8) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private SessionData readSession(int record) {
+        int base = record * SESSION_RECORD_BYTES;
+        return new SessionData(
+            dictValues.get(sessionsMap.getInt(base)),
+            dictValues.get(sessionsMap.getInt(base + 4)),
+            dictValues.get(sessionsMap.getInt(base + 8)),
+            dictValues.get(sessionsMap.getInt(base + 12)),
+            dictValues.get(sessionsMap.getInt(base + 16)),
+            sessionsMap.getLong(base + 20));
+    }
+
+    private static String formatOtp(int otp) {
+        return String.format(Locale.US, "%06d", otp);
+    }
+
+    // ---- Writes (store thread, holding the lock) ----
+
+    private void openDir(File target) throws IOException {
+        closeQuietly();
+        recoverCompaction(target);
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("Cannot create " + target);
+        }
+        dir = target;
+
+        loadDictionary();
+        loadSessions();
+        loadSegments();
+        loadActive();
+        Log.d(TAG, "Opened history: " + sessionCount + " sessions, " + segments.size()
+            + " segments, " + activeRows + " pending rows, " + diskBytes() + " bytes");
+    }
+
+    private void loadDictionary() throws IOException {
+        dictIds.clear();
+        dictValues.clear();
+        File file = new File(dir, DICT_FILE);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    String value = in.readUTF();
+                    dictIds.put(value, dictValues.size());
+                    dictValues.add(value);
+                }
+            } catch (EOFException endOfDictionary) {
+                // a torn last entry is dropped and rewritten on next use
+            }
+            truncate(file, dictionaryBytes());
+        }
+        dictOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private long dictionaryBytes() {
+        long bytes = 0;
+        for (String value : dictValues) {
+            bytes += 2 + utf8Length(value);
+        }
+        return bytes;
+    }
+
+    private void loadSessions() throws IOException {
+        sessionsChannel = new RandomAccessFile(new File(dir, SESSIONS_FILE), "rw").getChannel();
+        long size = sessionsChannel.size();
+        sessionCount = (int) (size / SESSION_RECORD_BYTES);
+        sessionsChannel.truncate((long) sessionCount * SESSION_RECORD_BYTES);
+        remapSessions();
+        sessionRecordByRef.clear();
+        for (int i = 0; i < sessionCount; i++) {
+            sessionRecordByRef.put(sessionsMap.getInt(i * SESSION_RECORD_BYTES), i);
+        }
+    }
+
+    // Sessions are appended a few times a day, so remapping on append is cheap
+    private void remapSessions() throws IOException {
+        sessionsMap = sessionsChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+            (long) sessionCount * SESSION_RECORD_BYTES);
+    }
+
+    private void loadSegments() throws IOException {
+        segments.clear();
+        File[] files = dir.listFiles((d, name) -> name.startsWith("seg-") && name.endsWith(".seg"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            int id = Integer.parseInt(file.getName().substring(4, 10));
+            Segment segment = mapSegment(id, file);
+            if (segment != null) {
+                segments.add(segment);
+            }
+        }
+    }
+
+    private static Segment mapSegment(int id, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (raf.length() < SEGMENT_HEADER_BYTES || buffer.getInt(0) != SEGMENT_MAGIC
+                    || buffer.getInt(4) != SEGMENT_VERSION
+                    || raf.length() != SEGMENT_HEADER_BYTES + (long) buffer.getInt(8) * SEGMENT_ROW_BYTES) {
+                Log.w(TAG, "Skipping damaged segment " + file.getName());
+                return null;
+            }
+            return new Segment(id, file, buffer);
+        }
+    }
+
+    private void loadActive() throws IOException {
+        File file = new File(dir, ACTIVE_FILE);
+        activeChannel = new RandomAccessFile(file, "rw").getChannel();
+        activeRows = 0;
+        int nextId = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).id + 1;
+
+        if (activeChannel.size() >= 4) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            activeChannel.read(header, 0);
+            int owner = header.getInt(0);
+            // If its segment was written before a crash, these rows are already sealed
+            if (owner == nextId) {
+                int rows = (int) Math.min(SEGMENT_ROWS, (activeChannel.size() - 4) / ACTIVE_ROW_BYTES);
+                ByteBuffer data = ByteBuffer.allocate(rows * ACTIVE_ROW_BYTES);
+                activeChannel.read(data, 4);
+                data.flip();
+                for (int i = 0; i < rows; i++) {
+                    activeTime[i] = data.getLong();
+                    activeSession[i] = data.getInt();
+                    activeDevice[i] = data.getInt();
+                    activeOtp[i] = data.getInt();
+                }
+                activeRows = rows;
+            }
+        }
+        resetActive(nextId, activeRows);
+    }
+
+    // Rewrites the row log header and trims it to `keepRows`
+    private void resetActive(int segmentId, int keepRows) throws IOException {
+        activeSegmentId = segmentId;
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(0, segmentId);
+        activeChannel.write(header, 0);
+        activeChannel.truncate(4 + (long) keepRows * ACTIVE_ROW_BYTES);
+        activeChannel.position(activeChannel.size());
+    }
+
+    private int ref(String value) throws IOException {
+        String key = value != null ? value : "";
+        Integer id = dictIds.get(key);
+        if (id != null) {
+            return id;
+        }
+        id = dictValues.size();
+        dictOut.writeUTF(key);
+        dictOut.flush();
+        dictIds.put(key, id);
+        dictValues.add(key);
+        return id;
+    }
+
+    private void appendSession(SessionData session) throws IOException {
+        int sessionRef = ref(session.getSessionId());
+        if (sessionRecordByRef.containsKey(sessionRef)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(SESSION_RECORD_BYTES)
+            .putInt(sessionRef)
+            .putInt(ref(session.getTeacherId()))
+            .putInt(ref(session.getClassName()))
+            .putInt(ref(session.getPeriod()))
+            .putInt(ref(session.getRoom()))
+            .putLong(session.getTimestamp());
+        record.flip();
+        sessionsChannel.write(record, (long) sessionCount * SESSION_RECORD_BYTES);
+        sessionRecordByRef.put(sessionRef, sessionCount);
+        sessionCount++;
+        remapSessions();
+    }
+
+    private void appendIssue(String sessionId, String holder, String otp, long issuedAt) throws IOException {
+        int row = activeRows;
+        activeTime[row] = issuedAt;
+        activeSession[row] = ref(sessionId);
+        activeDevice[row] = ref(holder);
+        activeOtp[row] = parseOtp(otp);
+
+        ByteBuffer data = ByteBuffer.allocate(ACTIVE_ROW_BYTES)
+            .putLong(activeTime[row])
+            .putInt(activeSession[row])
+            .putInt(activeDevice[row])
+            .putInt(activeOtp[row]);
+        data.flip();
+        activeChannel.write(data, 4 + (long) row * ACTIVE_ROW_BYTES);
+        activeRows++;
+
+        if (activeRows == SEGMENT_ROWS) {
+            seal();
+        }
+    }
+
+    private static int parseOtp(String otp) {
+        try {
+            return Integer.parseInt(otp);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Turns the pending rows into an immutable, indexed columnar segment
+    private void seal() throws IOException {
+        if (activeRows == 0) {
+            return;
+        }
+        File file = new File(dir, String.format(Locale.US, SEGMENT_FORMAT, activeSegmentId));
+        writeSegment(file, activeTime, activeSession, activeDevice, activeOtp, activeRows);
+        Segment segment = mapSegment(activeSegmentId, file);
+        if (segment != null) {
+            segments.add(segment);
+        }
+        activeRows = 0;
+        resetActive(activeSegmentId + 1, 0);
+    }
+
+    private static void writeSegment(File file, long[] time, int[] session, int[] device, int[] otp, int rows)
+            throws IOException {
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < rows; i++) {
+            minTime = Math.min(minTime, time[i]);
+            maxTime = Math.max(maxTime, time[i]);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(SEGMENT_HEADER_BYTES + rows * SEGMENT_ROW_BYTES);
+        out.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION).putInt(rows).putLong(minTime).putLong(maxTime);
+        for (int i = 0; i < rows; i++) out.putLong(time[i]);
+        for (int i = 0; i < rows; i++) out.putInt(session[i]);
+        for (int i = 0; i < rows; i++) out.putInt(device[i]);
+        for (int i = 0; i < rows; i++) out.putInt(otp[i]);
+        putIndex(out, session, rows);
+        putIndex(out, device, rows);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            stream.write(out.array());
+            stream.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    // Sorted (key, row) pairs; keys and rows packed into longs so one sort does both
+    private static void putIndex(ByteBuffer out, int[] keys, int rows) {
+        long[] packed = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            packed[i] = ((long) keys[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+        for (long entry : packed) {
+            out.putInt((int) (entry >>> 32)).putInt((int) entry);
+        }
+    }
+
+    private long oldestTime() {
+        long oldest = Long.MAX_VALUE;
+        if (!segments.isEmpty()) {
+            oldest = segments.get(0).minTime;
+        }
+        for (int i = 0; i < activeRows; i++) {
+            oldest = Math.min(oldest, activeTime[i]);
+        }
+        for (int i = 0; i < sessionCount; i++) {
+            oldest = Math.min(oldest, sessionsMap.getLong(i * SESSION_RECORD_BYTES + 20));
+        }
+        return oldest;
+    }
+
+    /**
+     * Rewrites the store into a fresh directory with only live data: rows
+     * newer than the cutoff and, if that is still over budget, only the
+     * newest rows that fit. Dictionary entries nothing refers to any more
+     * are dropped with it. The new directory replaces the old one by rename,
+     * under a marker file so an interrupted swap is resumed on next open.
+     */
+    private void compact(long cutoff) throws IOException {
+        long started = System.nanoTime();
+        long before = diskBytes();
+
+        // Gather surviving issue rows, oldest first
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.rows;
+        }
+        total += activeRows;
+        long[] time = new long[total];
+        int[] session = new int[total];
+        int[] device = new int[total];
+        int[] otp = new int[total];
+        int kept = 0;
+        for (Segment segment : segments) {
+            if (segment.maxTime < cutoff) {
+                continue;
+            }
+            for (int row = 0; row < segment.rows; row++) {
+                long t = segment.time(row);
+                if (t >= cutoff) {
+                    time[kept] = t;
+                    session[kept] = segment.session(row);
+                    device[kept] = segment.device(row);
+                    otp[kept] = segment.otp(row);
+                    kept++;
+                }
+            }
+        }
+        for (int i = 0; i < activeRows; i++) {
+            if (activeTime[i] >= cutoff) {
+                time[kept] = activeTime[i];
+                session[kept] = activeSession[i];
+                device[kept] = activeDevice[i];
+                otp[kept] = activeOtp[i];
+                kept++;
+            }
+        }
+
+        // Over budget even after retention: keep only the newest rows that fit
+        long sessionBytes = (long) sessionCount * SESSION_RECORD_BYTES;
+        long rowBudget = (budgetBytes * 3 / 4 - sessionBytes - dictionaryBytes()) / SEGMENT_ROW_BYTES;
+        int skip = (int) Math.max(0, kept - Math.max(0, rowBudget));
+
+        File fresh = new File(dir.getParentFile(), COMPACT_DIR);
+        deleteRecursively(fresh);
+        if (!fresh.mkdirs()) {
+            throw new IOException("Cannot create " + fresh);
+        }
+
+        // New dictionary with only the strings still referenced
+        Map<Integer, Integer> remap = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        FileOutputStream dictFile = new FileOutputStream(new File(fresh, DICT_FILE));
+        try (DataOutputStream dict = new DataOutputStream(new BufferedOutputStream(dictFile))) {
+            ByteBuffer sessions = ByteBuffer.allocate(sessionCount * SESSION_RECORD_BYTES);
+            for (int i = 0; i < sessionCount; i++) {
+                int base = i * SESSION_RECORD_BYTES;
+                if (sessionsMap.getLong(base + 20) < cutoff) {
+                    continue;
+                }
+                for (int field = 0; field < 5; field++) {
+                    sessions.putInt(remapRef(sessionsMap.getInt(base + field * 4), remap, values, dict));
+                }
+                sessions.putLong(sessionsMap.getLong(base + 20));
+            }
+            try (FileOutputStream out = new FileOutputStream(new File(fresh, SESSIONS_FILE))) {
+                out.write(sessions.array(), 0, sessions.position());
+                out.getFD().sync();
+            }
+
+            int segmentId = 1;
+            for (int start = skip; start < kept; start += SEGMENT_ROWS) {
+                int rows = Math.min(SEGMENT_ROWS, kept - start);
+                int[] s = new int[rows];
+                int[] d = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    s[i] = remapRef(session[start + i], remap, values, dict);
+                    d[i] = remapRef(device[start + i], remap, values, dict);
+                }
+                writeSegment(new File(fresh, String.format(Locale.US, SEGMENT_FORMAT, segmentId++)),
+                    Arrays.copyOfRange(time, start, start + rows), s, d,
+                    Arrays.copyOfRange(otp, start, start + rows), rows);
+            }
+            dict.flush();
+            dictFile.getFD().sync();
+        }
+
+        // Once the marker exists the copy is committed: reopening swaps it in,
+        // and so does the next open if this process dies first
+        File current = dir;
+        try (FileOutputStream out = new FileOutputStream(new File(current.getParentFile(), SWAP_MARKER))) {
+            out.getFD().sync();
+        }
+        openDir(current);
+
+        Log.d(TAG, "Compacted history " + before + " -> " + diskBytes() + " bytes, "
+            + (kept - skip) + " rows kept, in "
+            + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+
+    // Swaps in a committed compaction (just finished, or interrupted by a
+    // crash) or discards an uncommitted one, leaving only the store directory
+    private static void recoverCompaction(File target) throws IOException {
+        File parent = target.getParentFile();
+        File fresh = new File(parent, COMPACT_DIR);
+        File old = new File(parent, OLD_DIR);
+        File marker = new File(parent, SWAP_MARKER);
+        if (marker.exists()) {
+            // The compacted copy was complete; it replaces whatever is live
+            if (fresh.isDirectory()) {
+                deleteRecursively(old);
+                if (target.exists()) {
+                    rename(target, old);
+                }
+                rename(fresh, target);
+            }
+            Log.d(TAG, "Swapped compacted history into place");
+        } else {
+            // The copy may be partial; the live store was never touched
+            deleteRecursively(fresh);
+        }
+        deleteRecursively(old);
+        deleteRecursively(marker);
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Cannot rename " + from + " to " + to);
+        }
+    }
+
+    private int remapRef(int oldRef, Map<Integer, Integer> remap, List<String> values, DataOutputStream dict)
+            throws IOException {
+        Integer ref = remap.get(oldRef);
+        if (ref == null) {
+            ref = values.size();
+            String value = dictValues.get(oldRef);
+            values.add(value);
+            dict.writeUTF(value);
+            remap.put(oldRef, ref);
+        }
+        return ref;
+    }
+
+    private void closeQuietly() {
+        try {
+            if (dictOut != null) dictOut.close();
+            if (sessionsChannel != null) sessionsChannel.close();
+            if (activeChannel != null) activeChannel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing history files", e);
+        }
+        dictOut = null;
+        sessionsChannel = null;
+        activeChannel = null;
+        sessionsMap = null;
+        segments.clear();
+        dir = null;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() > length) {
+                raf.setLength(length);
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.claudeattendance.teacher;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Persistent socket.io (Engine.IO v4) client for the backend's live events.
+ *
+ * Inbound frames go through a bounded queue drained by a single consumer
+ * thread. The socket reader never blocks on it (that would stall OkHttp's
+ * reader, pings included): when the queue is full the frame is dropped and
+ * the connection abandoned, and once the consumer has caught up the client
+ * reconnects and resumes from the last applied event id, so the server
+ * replays everything dropped in order. Any other disconnect reconnects the
+ * same way after a backoff.
+ */
+public class LiveEventClient {
+    private static final String TAG = "LiveEventClient";
+
+    private static final int INBOUND_CAPACITY = 256;
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    // Engine.IO / socket.io packet prefixes
+    private static final String EIO_PING = "2";
+    private static final String EIO_PONG = "3";
+    private static final String EIO_OPEN = "0";
+    private static final String SIO_CONNECT = "40";
+    private static final String SIO_EVENT = "42";
+
+    private final String socketUrl;
+    private final LiveRoster roster;
+    private final OkHttpClient client;
+    private final BlockingQueue<String> inbound = new ArrayBlockingQueue<>(INBOUND_CAPACITY);
+
+    private volatile String sessionId;
+    private volatile boolean running = false;
+    private volatile long lastEventId = 0;
+    private WebSocket webSocket;
+    // Id of the current connection. Bumped whenever a connection is opened
+    // or dropped, so callbacks from an older one are recognised as stale
+    // even before newWebSocket() has returned.
+    private volatile int connectionId = 0;
+    private Thread consumer;
+    // Pending backoff wait, cancelled by stop()
+    private Thread reconnect;
+    private long backoffMs = MIN_BACKOFF_MS;
+    // Set when frames were dropped; the consumer reconnects once drained
+    private volatile boolean resyncPending = false;
+    private volatile long droppedFrames = 0;
+
+    public LiveEventClient(String baseUrl, LiveRoster roster) {
+        this.socketUrl = baseUrl + "/socket.io/?EIO=4&transport=websocket";
+        this.roster = roster;
+        // No read timeout: the connection is long-lived and kept alive by pings
+        this.client = new OkHttpClient.Builder()
+            .readTimeout(0, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    public synchronized void start(String sessionId) {
+        if (running) {
+            return;
+        }
+        this.sessionId = sessionId;
+        running = true;
+        lastEventId = 0;
+        backoffMs = MIN_BACKOFF_MS;
+        resyncPending = false;
+        inbound.clear();
+        roster.clear();
+
+        consumer = new Thread(this::drainInbound, "LiveEventConsumer");
+        consumer.start();
+        connect();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        connectionId++;
+        if (reconnect != null) {
+            reconnect.interrupt();
+            reconnect = null;
+        }
+        if (webSocket != null) {
+            webSocket.close(1000, "session ended");
+            webSocket = null;
+        }
+        if (consumer != null) {
+            consumer.interrupt();
+            consumer = null;
+        }
+        inbound.clear();
+    }
+
+    public long getLastEventId() {
+        return lastEventId;
+    }
+
+    // Frames dropped because the consumer was behind; each drop is replayed
+    public long getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    private synchronized void connect() {
+        if (!running) {
+            return;
+        }
+        Request request = new Request.Builder().url(socketUrl).build();
+        webSocket = client.newWebSocket(request, new Connection(++connectionId));
+    }
+
+    private void scheduleReconnect() {
+        long delay;
+        Thread retry;
+        synchronized (this) {
+            if (!running || reconnect != null) {
+                return;
+            }
+            delay = backoffMs;
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            retry = new Thread(() -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException stopped) {
+                    return;
+                }
+                synchronized (LiveEventClient.this) {
+                    // stop() (and a later start()) may have replaced this wait
+                    if (reconnect != Thread.currentThread()) {
+                        return;
+                    }
+                    reconnect = null;
+                    connect();
+                }
+            }, "LiveEventReconnect");
+            retry.setDaemon(true);
+            reconnect = retry;
+        }
+        Log.w(TAG, "Live channel lost, reconnecting in " + delay + " ms");
+        retry.start();
+    }
+
+    // Abandons a connection whose frames no longer fit in the queue. The
+    // consumer reconnects once it has applied what is queued, so the replay
+    // has room and arrives after everything applied so far.
+    private synchronized void abandonForResync(int id, WebSocket socket) {
+        if (id != connectionId) {
+            return;
+        }
+        connectionId++;
+        webSocket = null;
+        resyncPending = true;
+        socket.cancel();
+        Log.w(TAG, "Live events backed up after id " + lastEventId + ", resyncing");
+        // The consumer may have emptied the queue before the flag was set
+        if (inbound.isEmpty()) {
+            resync();
+        }
+    }
+
+    private synchronized void resync() {
+        if (resyncPending && webSocket == null && reconnect == null) {
+            resyncPending = false;
+            connect();
+        }
+    }
+
+    private final class Connection extends WebSocketListener {
+        private final int id;
+
+        Connection(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void onMessage(WebSocket socket, String text) {
+            // Frames still in flight on an abandoned socket would land ahead
+            // of the replay
+            if (id != connectionId) {
+                return;
+            }
+            // Answer heartbeats on the reader thread so a slow consumer
+            // doesn't make the server drop us
+            if (EIO_PING.equals(text)) {
+                socket.send(EIO_PONG);
+                return;
+            }
+            if (text.startsWith(EIO_OPEN)) {
+                socket.send(SIO_CONNECT);
+                return;
+            }
+            if (text.startsWith(SIO_CONNECT)) {
+                synchronized (LiveEventClient.this) {
+                    backoffMs = MIN_BACKOFF_MS;
+                }
+                sendResume(socket);
+                return;
+            }
+            if (!text.startsWith(SIO_EVENT)) {
+                return;
+            }
+
+            if (!inbound.offer(text)) {
+                droppedFrames++;
+                abandonForResync(id, socket);
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket socket, int code, String reason) {
+            // Complete a close the server started, so onClosed follows
+            socket.close(code, null);
+        }
+
+        @Override
+        public void onClosed(WebSocket socket, int code, String reason) {
+            // Callbacks from a socket replaced by stop()/start() must not reconnect
+            if (id == connectionId) {
+                scheduleReconnect();
+            }
+        }
+
+        @Override
+        public void onFailure(WebSocket socket, Throwable t, Response response) {
+            Log.w(TAG, "Live channel failure: " + t.getMessage());
+            if (id == connectionId) {
+                scheduleReconnect();
+            }
+        }
+    }
+
+    private void sendResume(WebSocket socket) {
+        JsonObject args = new JsonObject();
+        args.addProperty("sessionId", sessionId);
+        args.addProperty("lastEventId", lastEventId);
+
+        JsonArray packet = new JsonArray();
+        packet.add("resume");
+        packet.add(args);
+        socket.send(SIO_EVENT + packet);
+        Log.d(TAG, "Resuming live events after id " + lastEventId);
+    }
+
+    private void drainInbound() {
+        while (running) {
+            String frame;
+            try {
+                frame = inbound.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            dispatch(frame);
+            if (resyncPending && inbound.isEmpty()) {
+                resync();
+            }
+        }
+    }
+
+    private void dispatch(String frame) {
+        JsonArray packet;
+        try {
+            packet = JsonParser.parseString(frame.substring(SIO_EVENT.length())).getAsJsonArray();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Malformed live event: " + frame);
+            return;
+        }
+        if (packet.size() < 2 || !packet.get(1).isJsonObject()) {
+            return;
+        }
+
+        String event = packet.get(0).getAsString();
+        JsonObject payload = packet.get(1).getAsJsonObject();
+
+        JsonElement id = payload.get("eventId");
+        if (id != null && id.isJsonPrimitive()) {
+            long eventId = id.getAsLong();
+            // Replays can overlap with events already applied
+            if (eventId <= lastEventId) {
+                return;
+            }
+            lastEventId = eventId;
+        }
+        roster.apply(event, payload);
+    }
+}
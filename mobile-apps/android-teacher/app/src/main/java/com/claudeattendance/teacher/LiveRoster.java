@@ -0,0 +1,136 @@
+package com.claudeattendance.teacher;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory roster of the live session, updated one event at a time from the
+ * backend push channel. Every update is a single hash lookup, so applying an
+ * event costs the same whether ten or four hundred students are present.
+ */
+public class LiveRoster {
+    public interface Listener {
+        void onRosterChanged(LiveRoster roster, Entry changed);
+        void onSecurityAlert(String rollNumber, String reason);
+    }
+
+    public static class Entry {
+        public final String rollNumber;
+        public String studentName;
+        public int securityScore;
+        public long markedAt;
+        public int alerts;
+        public boolean present;
+
+        Entry(String rollNumber) {
+            this.rollNumber = rollNumber;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private volatile int presentCount = 0;
+    private volatile int alertCount = 0;
+    private volatile String sessionStatus = "active";
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Applies one decoded socket event; unknown events are ignored
+    public void apply(String event, JsonObject payload) {
+        switch (event) {
+            case "attendance-update":
+                applyAttendance(payload);
+                break;
+            case "security-alert":
+                applyAlert(payload);
+                break;
+            case "session-status-updated":
+                sessionStatus = getString(payload, "status", sessionStatus);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void applyAttendance(JsonObject payload) {
+        JsonElement attendance = payload.get("attendance");
+        if (attendance == null || !attendance.isJsonObject()) {
+            return;
+        }
+        JsonObject record = attendance.getAsJsonObject();
+        String rollNumber = getString(record, "rollNumber", null);
+        if (rollNumber == null) {
+            return;
+        }
+
+        Entry entry = entryFor(rollNumber);
+        if (!entry.present) {
+            entry.present = true;
+            presentCount++;
+        }
+        entry.studentName = getString(record, "studentName", entry.studentName);
+        JsonElement score = record.get("securityScore");
+        if (score != null && score.isJsonPrimitive()) {
+            entry.securityScore = score.getAsInt();
+        }
+        entry.markedAt = System.currentTimeMillis();
+
+        if (listener != null) {
+            listener.onRosterChanged(this, entry);
+        }
+    }
+
+    private void applyAlert(JsonObject payload) {
+        alertCount++;
+        String rollNumber = getString(payload, "rollNumber", null);
+        if (rollNumber != null) {
+            entryFor(rollNumber).alerts++;
+        }
+        if (listener != null) {
+            listener.onSecurityAlert(rollNumber, getString(payload, "reason", "Security alert"));
+        }
+    }
+
+    private Entry entryFor(String rollNumber) {
+        Entry entry = entries.get(rollNumber);
+        if (entry == null) {
+            entry = new Entry(rollNumber);
+            entries.put(rollNumber, entry);
+        }
+        return entry;
+    }
+
+    // Only call from the event thread, e.g. inside Listener callbacks
+    public Entry get(String rollNumber) {
+        return entries.get(rollNumber);
+    }
+
+    public int getPresentCount() {
+        return presentCount;
+    }
+
+    public int getAlertCount() {
+        return alertCount;
+    }
+
+    public String getSessionStatus() {
+        return sessionStatus;
+    }
+
+    public void clear() {
+        entries.clear();
+        presentCount = 0;
+        alertCount = 0;
+        sessionStatus = "active";
+    }
+
+    private static String getString(JsonObject object, String key, String fallback) {
+        JsonElement value = object.get(key);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : fallback;
+    }
+}
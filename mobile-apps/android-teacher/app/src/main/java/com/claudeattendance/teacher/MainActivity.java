@@ -9,21 +9,28 @@ import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 public class MainActivity extends AppCompatActivity {
@@ -31,29 +38,72 @@ public class MainActivity extends AppCompatActivity {
     private static final int REQUEST_ENABLE_BT = 1001;
     private static final int REQUEST_PERMISSIONS = 1002;
     
+    // Optional launch extras that create a session and start the beacon
+    // immediately; used by the startup macrobenchmark
+    public static final String EXTRA_AUTOSTART = "com.claudeattendance.teacher.AUTOSTART";
+    public static final String EXTRA_CLASS_NAME = "com.claudeattendance.teacher.CLASS_NAME";
+    public static final String EXTRA_PERIOD = "com.claudeattendance.teacher.PERIOD";
+    public static final String EXTRA_ROOM = "com.claudeattendance.teacher.ROOM";
+    public static final String EXTRA_TEACHER_ID = "com.claudeattendance.teacher.TEACHER_ID";
+    
     // Custom UUID for our attendance service
     private static final String SERVICE_UUID = "12345678-1234-1234-1234-123456789abc";
     
+    // Roughly one term of past sessions in the history dialog
+    private static final long HISTORY_WINDOW_MS = 120L * 24 * 60 * 60 * 1000;
+    
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeAdvertiser bluetoothLeAdvertiser;
     private AdvertiseCallback advertiseCallback;
     
     private EditText editClassName, editPeriod, editRoom, editTeacherId;
-    private Button btnStartBeacon, btnStopBeacon, btnCreateSession;
+    private EditText editJoinSession, editBeaconShard;
+    private Button btnStartBeacon, btnStopBeacon, btnCreateSession, btnHistory;
     private TextView txtStatus, txtSessionId;
+    private CheckBox checkLanRelay;
+    
+    private final ProximityScanner proximityScanner = new ProximityScanner();
+    private final LiveRoster liveRoster = new LiveRoster();
+    private LiveEventClient liveEventClient;
+    private final SubmissionRelay submissionRelay = new SubmissionRelay();
     
     private boolean isAdvertising = false;
     private String currentSessionId;
+    private BeaconShard beaconShard;
+    // Set while resuming a checkpointed session, to time the restore
+    private long resumeStartedNanos = 0;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin(StartupTrace.ACTIVITY_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         
         initViews();
-        initBluetooth();
-        requestPermissions();
         setupClickListeners();
+        Uploads.SESSIONS.setFailureListener((batch, error) -> runOnUiThread(() ->
+            Toast.makeText(this, "Failed to sync with backend", Toast.LENGTH_SHORT).show()));
+        Uploads.SESSION_STARTS.setFailureListener((batch, error) -> runOnUiThread(() ->
+            Toast.makeText(this, "Failed to sync with backend", Toast.LENGTH_SHORT).show()));
+        TimetableCache.getInstance().setListener(timetableListener);
+        StartupTrace.end();
+        
+        // Bluetooth setup and permission checks don't affect the first frame,
+        // so run them once the main thread goes idle
+        Looper.myQueue().addIdleHandler(() -> {
+            onIdleInit();
+            return false;
+        });
+    }
+    
+    private void onIdleInit() {
+        StartupTrace.begin(StartupTrace.IDLE_INIT);
+        initBluetooth();
+        if (!isFinishing()) {
+            requestPermissions();
+        }
+        StartupTrace.end();
+        reportFullyDrawn();
     }
     
     private void initViews() {
@@ -61,13 +111,17 @@ public class MainActivity extends AppCompatActivity {
         editPeriod = findViewById(R.id.editPeriod);
         editRoom = findViewById(R.id.editRoom);
         editTeacherId = findViewById(R.id.editTeacherId);
+        editJoinSession = findViewById(R.id.editJoinSession);
+        editBeaconShard = findViewById(R.id.editBeaconShard);
         
         btnStartBeacon = findViewById(R.id.btnStartBeacon);
         btnStopBeacon = findViewById(R.id.btnStopBeacon);
         btnCreateSession = findViewById(R.id.btnCreateSession);
+        btnHistory = findViewById(R.id.btnHistory);
         
         txtStatus = findViewById(R.id.txtStatus);
         txtSessionId = findViewById(R.id.txtSessionId);
+        checkLanRelay = findViewById(R.id.checkLanRelay);
         
         btnStopBeacon.setEnabled(false);
         btnStartBeacon.setEnabled(false);
@@ -102,6 +156,7 @@ public class MainActivity extends AppCompatActivity {
             Manifest.permission.BLUETOOTH_ADMIN,
             Manifest.permission.BLUETOOTH_ADVERTISE,
             Manifest.permission.BLUETOOTH_CONNECT,
+            Manifest.permission.BLUETOOTH_SCAN,
             Manifest.permission.ACCESS_FINE_LOCATION
         };
         
@@ -123,12 +178,107 @@ public class MainActivity extends AppCompatActivity {
     private void onPermissionsGranted() {
         txtStatus.setText("Ready to create session");
         btnCreateSession.setEnabled(true);
+        
+        // Pre-open the GATT server so the service is registered before the
+        // teacher starts the beacon
+        GattServerManager.getInstance().prepare(this);
+        
+        if (!maybeResumeSession()) {
+            prefillFromTimetable();
+            maybeAutostart();
+        }
+    }
+    
+    // Fills an empty form with the class on the timetable now or next
+    private void prefillFromTimetable() {
+        SessionData slot = TimetableCache.getInstance().currentSlot(System.currentTimeMillis());
+        if (slot == null || currentSessionId != null || editClassName.getText().length() > 0) {
+            return;
+        }
+        editClassName.setText(slot.getClassName());
+        editPeriod.setText(slot.getPeriod());
+        editRoom.setText(slot.getRoom());
+        editTeacherId.setText(slot.getTeacherId());
+    }
+    
+    // Called on the timetable worker after each fetch
+    private final TimetableCache.Listener timetableListener = changed -> runOnUiThread(() -> {
+        if (isFinishing()) {
+            return;
+        }
+        prefillFromTimetable();
+        for (SessionData slot : changed) {
+            if (!slot.getSessionId().equals(currentSessionId)) {
+                continue;
+            }
+            String message = TimetableCache.STATUS_CANCELLED.equals(slot.getStatus())
+                ? "This class was cancelled on the timetable"
+                : "Timetable updated: " + slot.getClassName() + " in " + slot.getRoom();
+            Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+        }
+    });
+    
+    /**
+     * Picks up a session the previous process was running when it was killed:
+     * same session id and beacon slice, and the OTPs it had issued, so
+     * students who already connected keep their codes.
+     */
+    private boolean maybeResumeSession() {
+        if (currentSessionId != null) {
+            return false;
+        }
+        long started = System.nanoTime();
+        SessionCheckpoint checkpoint = SessionCheckpoint.getInstance();
+        checkpoint.open(this);
+        SessionCheckpoint.Session saved = checkpoint.getSavedSession();
+        if (saved == null) {
+            return false;
+        }
+        
+        editClassName.setText(saved.className);
+        editPeriod.setText(saved.period);
+        editRoom.setText(saved.room);
+        editTeacherId.setText(saved.teacherId);
+        editBeaconShard.setText((saved.shardIndex + 1) + "/" + saved.shardCount);
+        checkLanRelay.setChecked(saved.lanRelay);
+        currentSessionId = saved.sessionId;
+        RelayKeys.put(saved.sessionId, saved.relayKey);
+        beaconShard = saved.getShard();
+        txtSessionId.setText("Session ID: " + currentSessionId
+            + (beaconShard.count > 1 ? " (" + beaconShard + ")" : ""));
+        btnCreateSession.setEnabled(false);
+        
+        resumeStartedNanos = started;
+        // Also reloads the OTPs the saved session had issued
+        startBeaconAdvertising();
+        Log.i(TAG, "Resuming session " + currentSessionId + " (checkpoint loaded in "
+            + checkpoint.getLoadMicros() + " us)");
+        return true;
+    }
+    
+    private void maybeAutostart() {
+        Intent intent = getIntent();
+        if (intent == null || !intent.getBooleanExtra(EXTRA_AUTOSTART, false)) {
+            return;
+        }
+        intent.removeExtra(EXTRA_AUTOSTART);
+        
+        editClassName.setText(intent.getStringExtra(EXTRA_CLASS_NAME));
+        editPeriod.setText(intent.getStringExtra(EXTRA_PERIOD));
+        editRoom.setText(intent.getStringExtra(EXTRA_ROOM));
+        editTeacherId.setText(intent.getStringExtra(EXTRA_TEACHER_ID));
+        
+        createSession();
+        if (currentSessionId != null) {
+            startBeaconAdvertising();
+        }
     }
     
     private void setupClickListeners() {
         btnCreateSession.setOnClickListener(v -> createSession());
         btnStartBeacon.setOnClickListener(v -> startBeaconAdvertising());
         btnStopBeacon.setOnClickListener(v -> stopBeaconAdvertising());
+        btnHistory.setOnClickListener(v -> showClassHistory());
     }
     
     private void createSession() {
@@ -142,29 +292,89 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
         
-        // Generate session ID
-        currentSessionId = "SES_" + System.currentTimeMillis();
-        
-        // Create session data
-        SessionData sessionData = new SessionData(
-            currentSessionId,
-            teacherId,
-            className,
-            period,
-            room,
-            System.currentTimeMillis()
-        );
+        beaconShard = parseBeaconShard(editBeaconShard.getText().toString().trim());
+        if (beaconShard == null) {
+            Toast.makeText(this, "Beacon must look like 2/3 (at most " + BeaconShard.MAX_BEACONS + ")", Toast.LENGTH_SHORT).show();
+            return;
+        }
         
-        // Send to backend (implement API call)
-        sendSessionToBackend(sessionData);
+        String joinSessionId = editJoinSession.getText().toString().trim();
+        SessionData slot = joinSessionId.isEmpty()
+            ? TimetableCache.getInstance().findSlot(teacherId, className, period)
+            : null;
+        if (!joinSessionId.isEmpty()) {
+            // Extra beacon for a session another device already created
+            currentSessionId = joinSessionId;
+            HistoryStore.getInstance().recordSession(new SessionData(
+                currentSessionId, teacherId, className, period, room, System.currentTimeMillis()));
+        } else if (slot != null) {
+            // On today's timetable: the backend provisioned this session when
+            // the day was fetched, so start locally and report the start
+            currentSessionId = slot.getSessionId();
+            SessionData sessionData = new SessionData(
+                currentSessionId, teacherId, className, period, room, System.currentTimeMillis());
+            sessionData.setRelayKey(RelayKeys.create(currentSessionId));
+            UploadScheduler.getInstance().enqueue(Uploads.SESSION_STARTS, sessionData);
+            HistoryStore.getInstance().recordSession(sessionData);
+            // Picks up anything changed on the backend since the prefetch
+            TimetableCache.getInstance().refresh();
+        } else {
+            // The backend creates the session under this id, so a hedged
+            // duplicate of the create lands on the same session
+            currentSessionId = UUID.randomUUID().toString();
+            
+            // Create session data
+            SessionData sessionData = new SessionData(
+                currentSessionId,
+                teacherId,
+                className,
+                period,
+                room,
+                System.currentTimeMillis()
+            );
+            sessionData.setRelayKey(RelayKeys.create(currentSessionId));
+            
+            // Send to backend (implement API call)
+            sendSessionToBackend(sessionData);
+            HistoryStore.getInstance().recordSession(sessionData);
+            // Provision the rest of this teacher's day for next time
+            TimetableCache.getInstance().prefetch(teacherId);
+        }
         
-        txtSessionId.setText("Session ID: " + currentSessionId);
+        txtSessionId.setText("Session ID: " + currentSessionId
+            + (beaconShard.count > 1 ? " (" + beaconShard + ")" : ""));
         btnStartBeacon.setEnabled(true);
         btnCreateSession.setEnabled(false);
         
         Toast.makeText(this, "Session created successfully", Toast.LENGTH_SHORT).show();
     }
     
+    // "k/n" as typed (1-based) to a shard of this device, or null if invalid
+    private BeaconShard parseBeaconShard(String text) {
+        int beaconId = BeaconShard.beaconIdFor(getInstallId());
+        if (text.isEmpty()) {
+            return BeaconShard.solo(beaconId);
+        }
+        String[] parts = text.split("/");
+        try {
+            int number = Integer.parseInt(parts[0].trim());
+            int total = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            return new BeaconShard(number - 1, total, beaconId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private String getInstallId() {
+        SharedPreferences prefs = getSharedPreferences("beacon", MODE_PRIVATE);
+        String id = prefs.getString("install_id", null);
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            prefs.edit().putString("install_id", id).apply();
+        }
+        return id;
+    }
+    
     private void startBeaconAdvertising() {
         if (bluetoothLeAdvertiser == null) {
             Toast.makeText(this, "BLE advertising not supported", Toast.LENGTH_SHORT).show();
@@ -177,13 +387,21 @@ public class MainActivity extends AppCompatActivity {
             .setConnectable(true)
             .build();
         
-        // Create advertise data with session information
-        byte[] sessionBytes = currentSessionId.getBytes(StandardCharsets.UTF_8);
+        // The session id is served by the GATT session characteristic; a
+        // 36-byte id next to a 128-bit UUID doesn't fit the 31-byte legacy
+        // advertising payload
         AdvertiseData data = new AdvertiseData.Builder()
             .setIncludeDeviceName(false)
             .setIncludeTxPowerLevel(false)
             .addServiceUuid(ParcelUuid.fromString(SERVICE_UUID))
-            .addServiceData(ParcelUuid.fromString(SERVICE_UUID), sessionBytes)
+            .build();
+        
+        // Beacon id and index/count go in the scan response, which has its
+        // own 31 bytes; students pick their beacon from these
+        AdvertiseData scanResponse = new AdvertiseData.Builder()
+            .setIncludeDeviceName(false)
+            .setIncludeTxPowerLevel(false)
+            .addManufacturerData(BeaconShard.MANUFACTURER_ID, beaconShard.toAdvertisement())
             .build();
         
         advertiseCallback = new AdvertiseCallback() {
@@ -193,7 +411,16 @@ public class MainActivity extends AppCompatActivity {
                 Log.d(TAG, "Advertising started successfully");
                 runOnUiThread(() -> {
                     isAdvertising = true;
+                    startProximityScan();
+                    startLiveEvents();
+                    startSubmissionRelay();
                     txtStatus.setText("Beacon Active - Students can now mark attendance");
+                    if (resumeStartedNanos != 0) {
+                        long restoreMs = (System.nanoTime() - resumeStartedNanos) / 1_000_000;
+                        resumeStartedNanos = 0;
+                        Log.i(TAG, "Session restored and advertising in " + restoreMs + " ms");
+                        txtStatus.setText("Beacon Active - session resumed in " + restoreMs + " ms");
+                    }
                     btnStartBeacon.setEnabled(false);
                     btnStopBeacon.setEnabled(true);
                 });
@@ -203,19 +430,64 @@ public class MainActivity extends AppCompatActivity {
             public void onStartFailure(int errorCode) {
                 super.onStartFailure(errorCode);
                 Log.e(TAG, "Advertising failed: " + errorCode);
+                // The checkpoint stays: a failure here is often transient (Bluetooth
+                // still off, too many advertisers), and Start retries the same session
                 runOnUiThread(() -> {
+                    resumeStartedNanos = 0;
                     txtStatus.setText("Failed to start beacon: " + errorCode);
+                    btnStartBeacon.setEnabled(true);
                     Toast.makeText(MainActivity.this, "Failed to start beacon", Toast.LENGTH_SHORT).show();
                 });
+                stopGattServer();
             }
         };
         
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADVERTISE) == PackageManager.PERMISSION_GRANTED) {
-            bluetoothLeAdvertiser.startAdvertising(settings, data, advertiseCallback);
-            
-            // Start GATT server for OTP distribution
-            startGattServer();
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADVERTISE) != PackageManager.PERMISSION_GRANTED) {
+            return;
         }
+        
+        StartupTrace.begin(StartupTrace.BEACON_START);
+        txtStatus.setText("Starting beacon...");
+        btnStartBeacon.setEnabled(false);
+        
+        // Saved before the first OTP can be issued, so every issue is checkpointed.
+        // A retry of the saved session (after a resume or a failed start) keeps
+        // its start time and issued OTPs.
+        SessionCheckpoint checkpoint = SessionCheckpoint.getInstance();
+        SessionCheckpoint.Session saved = checkpoint.getSavedSession();
+        long startedAt = saved != null && saved.sessionId.equals(currentSessionId)
+            ? saved.startedAt : System.currentTimeMillis();
+        checkpoint.saveSession(new SessionCheckpoint.Session(currentSessionId,
+            editTeacherId.getText().toString().trim(), editClassName.getText().toString().trim(),
+            editPeriod.getText().toString().trim(), editRoom.getText().toString().trim(),
+            beaconShard, checkLanRelay.isChecked(), RelayKeys.get(currentSessionId), startedAt));
+        
+        // Advertise only once the GATT service is registered, otherwise
+        // students that connect straight away would find no characteristics
+        startGattServer(new GattServerManager.ServiceReadyListener() {
+            @Override
+            public void onServiceReady() {
+                runOnUiThread(() -> {
+                    if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_ADVERTISE) == PackageManager.PERMISSION_GRANTED) {
+                        bluetoothLeAdvertiser.startAdvertising(settings, data, scanResponse, advertiseCallback);
+                    }
+                });
+            }
+            
+            @Override
+            public void onServiceFailed(int status) {
+                Log.e(TAG, "GATT service registration failed: " + status);
+                runOnUiThread(() -> {
+                    resumeStartedNanos = 0;
+                    txtStatus.setText("Failed to start beacon: GATT error " + status);
+                    btnStartBeacon.setEnabled(true);
+                });
+            }
+        });
+        // Queued on the GATT loop behind startServer, so they land in this session;
+        // empty unless this is the saved session
+        GattServerManager.getInstance().restoreOtps(checkpoint.getSavedOtps());
+        StartupTrace.end();
     }
     
     private void stopBeaconAdvertising() {
@@ -223,6 +495,7 @@ public class MainActivity extends AppCompatActivity {
             if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADVERTISE) == PackageManager.PERMISSION_GRANTED) {
                 bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
                 isAdvertising = false;
+                SessionCheckpoint.getInstance().clear();
                 txtStatus.setText("Beacon stopped");
                 btnStartBeacon.setEnabled(true);
                 btnStopBeacon.setEnabled(false);
@@ -234,34 +507,140 @@ public class MainActivity extends AppCompatActivity {
         }
     }
     
-    private void startGattServer() {
+    private void startGattServer(GattServerManager.ServiceReadyListener listener) {
         // Start GATT server to handle OTP requests from students
-        GattServerManager.getInstance().startServer(this, currentSessionId);
+        GattServerManager.getInstance().setShard(beaconShard.count > 1 ? beaconShard : null);
+        GattServerManager.getInstance().startServer(this, currentSessionId, listener);
     }
     
     private void stopGattServer() {
         GattServerManager.getInstance().stopServer();
+        stopProximityScan();
+        stopLiveEvents();
+        submissionRelay.stop();
+    }
+    
+    private void startSubmissionRelay() {
+        if (!checkLanRelay.isChecked()) {
+            return;
+        }
+        if (RelayKeys.get(currentSessionId) == null) {
+            // Joined beacons never registered a key, so the backend would
+            // refuse everything this relay forwarded
+            Toast.makeText(this, "LAN relay needs a session started on this device", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // Binding a local socket is quick; doing it here keeps start and
+        // stop ordered with the beacon
+        try {
+            submissionRelay.start(currentSessionId);
+            String url = submissionRelay.getRelayUrl();
+            // Students read it over GATT right after their OTP
+            GattServerManager.getInstance().setRelayUrl(url);
+            Toast.makeText(this, url != null ? "LAN relay at " + url : "LAN relay started (no Wi-Fi address)",
+                Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start LAN relay", e);
+            Toast.makeText(this, "LAN relay unavailable", Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    private void startLiveEvents() {
+        if (liveEventClient == null) {
+            liveRoster.setListener(rosterListener);
+            liveEventClient = new LiveEventClient(ApiClient.getServerUrl(), liveRoster);
+        }
+        liveEventClient.start(currentSessionId);
+    }
+    
+    private void stopLiveEvents() {
+        if (liveEventClient != null) {
+            liveEventClient.stop();
+        }
+    }
+    
+    // Called on the live event thread; UI updates hop to the main thread
+    private final LiveRoster.Listener rosterListener = new LiveRoster.Listener() {
+        @Override
+        public void onRosterChanged(LiveRoster roster, LiveRoster.Entry changed) {
+            int present = roster.getPresentCount();
+            int alerts = roster.getAlertCount();
+            runOnUiThread(() -> {
+                if (isAdvertising) {
+                    txtStatus.setText("Beacon Active - " + present + " present, " + alerts + " alert(s)");
+                }
+            });
+        }
+        
+        @Override
+        public void onSecurityAlert(String rollNumber, String reason) {
+            runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                "Security alert" + (rollNumber != null ? " (" + rollNumber + ")" : "") + ": " + reason,
+                Toast.LENGTH_SHORT).show());
+        }
+    };
+    
+    private void startProximityScan() {
+        // Proximity enforcement is best effort; without scanning every
+        // connected device is served as before
+        if (proximityScanner.start(this)) {
+            GattServerManager.getInstance().setProximityScanner(proximityScanner);
+        }
+    }
+    
+    private void stopProximityScan() {
+        GattServerManager.getInstance().setProximityScanner(null);
+        proximityScanner.stop(this);
     }
     
     private void sendSessionToBackend(SessionData sessionData) {
-        // Implement API call to backend
+        // Session creation is latency-critical and goes out as soon as a
+        // network is available
+        UploadScheduler.getInstance().enqueue(Uploads.SESSIONS, sessionData);
+    }
+    
+    // Past sessions of the class in the form, read from the on-device history
+    private void showClassHistory() {
+        String className = editClassName.getText().toString().trim();
+        if (className.isEmpty()) {
+            Toast.makeText(this, "Enter a class name", Toast.LENGTH_SHORT).show();
+            return;
+        }
         new Thread(() -> {
-            try {
-                ApiClient.createSession(sessionData);
-                runOnUiThread(() -> {
-                    Log.d(TAG, "Session sent to backend successfully");
-                });
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send session to backend", e);
-                runOnUiThread(() -> {
-                    Toast.makeText(this, "Failed to sync with backend", Toast.LENGTH_SHORT).show();
-                });
+            long started = System.nanoTime();
+            HistoryStore history = HistoryStore.getInstance();
+            long now = System.currentTimeMillis();
+            List<SessionData> sessions = history.sessionsForClass(className, now - HISTORY_WINDOW_MS, now);
+            StringBuilder text = new StringBuilder();
+            DateFormat format = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+            for (int i = sessions.size() - 1; i >= 0; i--) {
+                SessionData session = sessions.get(i);
+                text.append(format.format(new Date(session.getTimestamp())))
+                    .append("  ").append(session.getPeriod())
+                    .append(" @ ").append(session.getRoom())
+                    .append(" - ").append(history.countSessionEvents(session.getSessionId()))
+                    .append(" OTPs\n");
             }
-        }).start();
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            String message = sessions.isEmpty() ? "No sessions recorded on this device" : text.toString();
+            runOnUiThread(() -> {
+                if (isFinishing()) {
+                    return;
+                }
+                new AlertDialog.Builder(this)
+                    .setTitle(className + " (" + sessions.size() + " sessions, " + elapsedMs + " ms)")
+                    .setMessage(message)
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+            });
+        }, "HistoryQuery").start();
     }
     
     @Override
     protected void onDestroy() {
+        Uploads.SESSIONS.setFailureListener(null);
+        Uploads.SESSION_STARTS.setFailureListener(null);
+        TimetableCache.getInstance().setListener(null);
         super.onDestroy();
         if (isAdvertising) {
             stopBeaconAdvertising();
@@ -1,11 +1,19 @@
 package com.claudeattendance.teacher;
 
+import java.util.List;
+
 public class OtpData {
     private String otp;
     private String sessionId;
     private String deviceAddress;
     private long createdAt;
     private long expiresAt;
+    // Set when several beacons share the session, so the backend can merge their logs
+    private Integer beaconId;
+    private Integer shardIndex;
+    private Integer shardCount;
+    // Set by the beacon's anomaly pre-filter; empty means screened and clean
+    private List<String> riskFlags;
     
     public OtpData(String otp, String sessionId, String deviceAddress, 
                    long createdAt, long expiresAt) {
@@ -31,4 +39,17 @@ public class OtpData {
     
     public long getExpiresAt() { return expiresAt; }
     public void setExpiresAt(long expiresAt) { this.expiresAt = expiresAt; }
-}
\ No newline at end of file
+    
+    public Integer getBeaconId() { return beaconId; }
+    public Integer getShardIndex() { return shardIndex; }
+    public Integer getShardCount() { return shardCount; }
+    
+    public void setBeacon(int beaconId, int shardIndex, int shardCount) {
+        this.beaconId = beaconId;
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+    }
+    
+    public List<String> getRiskFlags() { return riskFlags; }
+    public void setRiskFlags(List<String> riskFlags) { this.riskFlags = riskFlags; }
+}
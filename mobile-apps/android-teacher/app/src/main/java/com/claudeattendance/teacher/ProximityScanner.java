@@ -0,0 +1,202 @@
+package com.claudeattendance.teacher;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Passively listens for student presence advertisements and feeds their RSSI
+ * into an RssiEstimator. Scans are filtered on the student service UUID and
+ * batched by the controller when supported, so the app wakes up once per
+ * report window instead of once per advertisement.
+ *
+ * A student's advertising address is not the address it connects from, so
+ * presence advertisements carry a tag as service data: the first
+ * PRESENCE_TAG_BYTES of the identity token the student writes over GATT.
+ * RSSI is kept per tag and looked up by the GATT server's holder, i.e. the
+ * identity token. Advertisements without a tag (older students) are kept
+ * per address, which only matches holders that never sent a token.
+ */
+public class ProximityScanner {
+    private static final String TAG = "ProximityScanner";
+
+    // Advertised by student devices while they are attempting attendance
+    public static final UUID STUDENT_PRESENCE_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abf");
+    private static final ParcelUuid PRESENCE_SERVICE = new ParcelUuid(STUDENT_PRESENCE_UUID);
+    // A 128-bit service data UUID leaves room for 8 bytes in a legacy advertisement
+    public static final int PRESENCE_TAG_BYTES = 8;
+
+    private static final long REPORT_DELAY_MS = 2000;
+    private static final long STALE_AFTER_MS = 15000;
+    private static final int MAX_DEVICES = 512;
+
+    // Devices scoring below this are treated as outside the classroom
+    private static final float MIN_PROXIMITY_SCORE = 0.3f;
+
+    private final RssiEstimator estimator = new RssiEstimator(MAX_DEVICES, STALE_AFTER_MS);
+    private BluetoothLeScanner scanner;
+    private boolean scanning = false;
+    private boolean strict = false;
+
+    public boolean start(Context context) {
+        if (scanning) {
+            return true;
+        }
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Bluetooth scan permission not granted");
+            return false;
+        }
+
+        BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        BluetoothAdapter adapter = bluetoothManager.getAdapter();
+        if (adapter == null || !adapter.isEnabled()) {
+            return false;
+        }
+
+        scanner = adapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            Log.e(TAG, "BLE scanning not supported");
+            return false;
+        }
+
+        // Matching happens in the controller when offloaded filtering is
+        // available; tagged advertisements carry the UUID as service data only
+        List<ScanFilter> filters = Arrays.asList(
+            new ScanFilter.Builder().setServiceData(PRESENCE_SERVICE, new byte[0]).build(),
+            new ScanFilter.Builder().setServiceUuid(PRESENCE_SERVICE).build());
+
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+            .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
+        if (adapter.isOffloadedScanBatchingSupported()) {
+            settings.setReportDelay(REPORT_DELAY_MS);
+        } else {
+            Log.w(TAG, "Hardware scan batching unsupported, falling back to per-result callbacks");
+        }
+
+        scanner.startScan(filters, settings.build(), scanCallback);
+        scanning = true;
+        Log.d(TAG, "Proximity scan started (offloaded filtering: "
+            + adapter.isOffloadedFilteringSupported() + ")");
+        return true;
+    }
+
+    public void stop(Context context) {
+        if (!scanning) {
+            return;
+        }
+        if (scanner != null && ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED) {
+            scanner.stopScan(scanCallback);
+        }
+        scanning = false;
+        estimator.clear();
+        Log.d(TAG, "Proximity scan stopped");
+    }
+
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    // In strict mode devices that were never heard are refused as well
+    public void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    // holder is the GATT server's key for a client: its identity token in
+    // hex, or its address if it sent none
+    public float proximityScore(String holder) {
+        return estimator.proximityScore(keyOf(holder), SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Whether an OTP may be issued to this holder. Unknown holders pass unless
+     * strict mode is on, since a student's first advertisement can still be
+     * sitting in the controller's batch when it connects.
+     */
+    public boolean isNearby(String holder) {
+        if (!scanning) {
+            return true;
+        }
+        float score = proximityScore(holder);
+        if (score < 0) {
+            return !strict;
+        }
+        return score >= MIN_PROXIMITY_SCORE;
+    }
+
+    public int trackedDevices() {
+        return estimator.size();
+    }
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            record(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            // Indexed loop avoids allocating an iterator per batch
+            for (int i = 0, n = results.size(); i < n; i++) {
+                record(results.get(i));
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "Proximity scan failed: " + errorCode);
+            scanning = false;
+        }
+    };
+
+    private void record(ScanResult result) {
+        ScanRecord scanRecord = result.getScanRecord();
+        byte[] tag = scanRecord != null ? scanRecord.getServiceData(PRESENCE_SERVICE) : null;
+        long key = tag != null && tag.length >= PRESENCE_TAG_BYTES
+            ? tagToLong(tag)
+            : RssiEstimator.addressToLong(result.getDevice().getAddress());
+        // ScanResult timestamps are in elapsed-realtime nanoseconds
+        estimator.record(key, result.getRssi(), result.getTimestampNanos() / 1000000L);
+    }
+
+    // Estimator key for a holder: the tag part of an identity token, or the
+    // packed address for holders without one
+    static long keyOf(String holder) {
+        if (holder == null || holder.length() < PRESENCE_TAG_BYTES * 2 || holder.indexOf(':') >= 0) {
+            return RssiEstimator.addressToLong(holder);
+        }
+        long value = 0;
+        for (int i = 0; i < PRESENCE_TAG_BYTES * 2; i++) {
+            int digit = Character.digit(holder.charAt(i), 16);
+            if (digit < 0) {
+                return -1L;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    static long tagToLong(byte[] tag) {
+        long value = 0;
+        for (int i = 0; i < PRESENCE_TAG_BYTES; i++) {
+            value = (value << 8) | (tag[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,66 @@
+package com.claudeattendance.teacher;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Per-device token buckets for GATT reads. Not thread-safe: it is owned by
+ * the GattServerManager event loop, which is the only thread that uses it.
+ */
+public class ReadRateLimiter {
+    // Buckets idle for this long are dropped once the table grows too large
+    private static final long IDLE_EVICT_NANOS = 60_000_000_000L;
+    private static final int MAX_BUCKETS = 2048;
+
+    private final double capacity;
+    private final double refillPerNano;
+    private final Map<String, Bucket> buckets = new HashMap<>();
+
+    private static final class Bucket {
+        double tokens;
+        long lastRefill;
+    }
+
+    public ReadRateLimiter(int burst, double refillPerSecond) {
+        this.capacity = burst;
+        this.refillPerNano = refillPerSecond / 1_000_000_000d;
+    }
+
+    // Takes one token for this device; returns false if its bucket is empty
+    public boolean tryAcquire(String deviceKey, long nowNanos) {
+        Bucket bucket = buckets.get(deviceKey);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_BUCKETS) {
+                evictIdle(nowNanos);
+            }
+            bucket = new Bucket();
+            bucket.tokens = capacity;
+            bucket.lastRefill = nowNanos;
+            buckets.put(deviceKey, bucket);
+        } else {
+            long elapsed = nowNanos - bucket.lastRefill;
+            bucket.tokens = Math.min(capacity, bucket.tokens + elapsed * refillPerNano);
+            bucket.lastRefill = nowNanos;
+        }
+
+        if (bucket.tokens >= 1d) {
+            bucket.tokens -= 1d;
+            return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+        buckets.clear();
+    }
+
+    private void evictIdle(long nowNanos) {
+        Iterator<Bucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            if (nowNanos - it.next().lastRefill > IDLE_EVICT_NANOS) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.claudeattendance.teacher;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per-session keys that authenticate the LAN relay's forwarded batches. The
+ * key is generated when this device creates or starts a session, sent to the
+ * backend with that request, and used to sign every batch of relayed
+ * submissions (HMAC-SHA256 over "timestamp.body"). Sessions this device only
+ * joins have no key, so it can't relay for them.
+ */
+final class RelayKeys {
+    static final int KEY_BYTES = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // sessionId -> hex key
+    private static final Map<String, String> keys = new ConcurrentHashMap<>();
+
+    private RelayKeys() {}
+
+    // The session's key, generated on first use; the backend keeps the first
+    // key it sees for a session, so a repeated create reuses it
+    static String create(String sessionId) {
+        return keys.computeIfAbsent(sessionId, id -> {
+            byte[] key = new byte[KEY_BYTES];
+            RANDOM.nextBytes(key);
+            return toHex(key);
+        });
+    }
+
+    // Restores a key saved by a previous process
+    static void put(String sessionId, String key) {
+        if (key != null) {
+            keys.put(sessionId, key);
+        }
+    }
+
+    static String get(String sessionId) {
+        return keys.get(sessionId);
+    }
+
+    // Hex HMAC-SHA256 of "timestamp.body" under the session's key, or null
+    // if this device holds no key for the session
+    static String sign(String sessionId, long timestamp, String body) {
+        String key = keys.get(sessionId);
+        if (key == null) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(fromHex(key), "HmacSHA256"));
+            mac.update((timestamp + ".").getBytes(StandardCharsets.UTF_8));
+            return toHex(mac.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    static String toHex(byte[] value) {
+        StringBuilder hex = new StringBuilder(value.length * 2);
+        for (byte b : value) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,195 @@
+package com.claudeattendance.teacher;
+
+import java.util.Arrays;
+
+/**
+ * Streaming per-device RSSI smoother. Each device costs a fixed number of
+ * primitive slots in preallocated arrays, so recording a sample never
+ * allocates. Devices are keyed by a long (a student's 64-bit presence tag,
+ * or a 48-bit Bluetooth address packed into one) and stored in an
+ * open-addressed table with linear probing.
+ */
+public class RssiEstimator {
+    // Weight of the newest sample in the exponential moving average
+    private static final float ALPHA = 0.25f;
+
+    // Smoothed RSSI at or above NEAR_RSSI scores 1.0, at or below FAR_RSSI 0.0
+    private static final float NEAR_RSSI = -65f;
+    private static final float FAR_RSSI = -90f;
+
+    // Log-distance path loss model used by estimateDistance
+    private static final float TX_POWER_AT_1M = -59f;
+    private static final float PATH_LOSS_EXPONENT = 2.0f;
+
+    private static final long EMPTY = -1L;
+
+    private final int capacity;
+    private final int mask;
+    private final long staleAfterMs;
+
+    // Two table generations; compaction copies live entries from one to the
+    // other so that pruning does not allocate either
+    private long[] keys;
+    private float[] smoothed;
+    private long[] lastSeen;
+    private int[] samples;
+    private long[] spareKeys;
+    private float[] spareSmoothed;
+    private long[] spareLastSeen;
+    private int[] spareSamples;
+    private int size;
+
+    public RssiEstimator(int maxDevices, long staleAfterMs) {
+        int cap = Integer.highestOneBit(Math.max(16, maxDevices * 2 - 1)) << 1;
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.staleAfterMs = staleAfterMs;
+
+        keys = newKeyArray(cap);
+        smoothed = new float[cap];
+        lastSeen = new long[cap];
+        samples = new int[cap];
+        spareKeys = newKeyArray(cap);
+        spareSmoothed = new float[cap];
+        spareLastSeen = new long[cap];
+        spareSamples = new int[cap];
+    }
+
+    private static long[] newKeyArray(int cap) {
+        long[] array = new long[cap];
+        Arrays.fill(array, EMPTY);
+        return array;
+    }
+
+    public synchronized void record(long address, int rssi, long now) {
+        if (address == EMPTY) {
+            return;
+        }
+
+        // Keep the load factor at or below one half
+        int slot = findSlot(keys, address);
+        if (keys[slot] == EMPTY && size * 2 >= capacity) {
+            prune(now);
+            if (size * 2 >= capacity) {
+                return;
+            }
+            slot = findSlot(keys, address);
+        }
+
+        if (keys[slot] == EMPTY) {
+            keys[slot] = address;
+            smoothed[slot] = rssi;
+            samples[slot] = 1;
+            size++;
+        } else {
+            smoothed[slot] += ALPHA * (rssi - smoothed[slot]);
+            if (samples[slot] < Integer.MAX_VALUE) {
+                samples[slot]++;
+            }
+        }
+        lastSeen[slot] = now;
+    }
+
+    /**
+     * Returns a proximity score between 0 (far) and 1 (near), or a negative
+     * value if the device has not been heard recently.
+     */
+    public synchronized float proximityScore(long address, long now) {
+        int slot = findSlot(keys, address);
+        if (keys[slot] == EMPTY || now - lastSeen[slot] > staleAfterMs) {
+            return -1f;
+        }
+
+        float rssi = smoothed[slot];
+        if (rssi >= NEAR_RSSI) {
+            return 1f;
+        }
+        if (rssi <= FAR_RSSI) {
+            return 0f;
+        }
+        return (rssi - FAR_RSSI) / (NEAR_RSSI - FAR_RSSI);
+    }
+
+    // Approximate distance in metres, or a negative value if unknown
+    public synchronized float estimateDistance(long address, long now) {
+        int slot = findSlot(keys, address);
+        if (keys[slot] == EMPTY || now - lastSeen[slot] > staleAfterMs) {
+            return -1f;
+        }
+        return (float) Math.pow(10, (TX_POWER_AT_1M - smoothed[slot]) / (10 * PATH_LOSS_EXPONENT));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    // Drops devices not heard within staleAfterMs by rehashing live entries
+    // into the spare table and swapping the two
+    public synchronized void prune(long now) {
+        Arrays.fill(spareKeys, EMPTY);
+        int live = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (keys[i] == EMPTY || now - lastSeen[i] > staleAfterMs) {
+                continue;
+            }
+            int slot = findSlot(spareKeys, keys[i]);
+            spareKeys[slot] = keys[i];
+            spareSmoothed[slot] = smoothed[i];
+            spareLastSeen[slot] = lastSeen[i];
+            spareSamples[slot] = samples[i];
+            live++;
+        }
+
+        long[] k = keys; keys = spareKeys; spareKeys = k;
+        float[] s = smoothed; smoothed = spareSmoothed; spareSmoothed = s;
+        long[] l = lastSeen; lastSeen = spareLastSeen; spareLastSeen = l;
+        int[] n = samples; samples = spareSamples; spareSamples = n;
+        size = live;
+    }
+
+    private int findSlot(long[] table, long address) {
+        int slot = mix(address) & mask;
+        while (table[slot] != EMPTY && table[slot] != address) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long key) {
+        key ^= (key >>> 33);
+        key *= 0xff51afd7ed558ccdL;
+        key ^= (key >>> 33);
+        return (int) key;
+    }
+
+    /**
+     * Packs an address of the form "AA:BB:CC:DD:EE:FF" into a long without
+     * allocating. Returns -1 for malformed input.
+     */
+    public static long addressToLong(String address) {
+        if (address == null || address.length() != 17) {
+            return EMPTY;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return EMPTY;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return EMPTY;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
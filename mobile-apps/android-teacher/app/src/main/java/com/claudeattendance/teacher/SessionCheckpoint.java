@@ -0,0 +1,373 @@
+package com.claudeattendance.teacher;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Live session state kept in a small memory-mapped file so a session
+ * survives the app being killed. The header holds the running session; each
+ * issued OTP has its own fixed 64-byte record, so an issue or consume only
+ * rewrites that record. Writes land in the page cache straight away, which
+ * outlives the process; force() is only needed against power loss and runs
+ * from the GATT server's periodic sweep.
+ *
+ * Header and records carry a CRC32, so a record torn by a crash mid-write
+ * is skipped on restore rather than trusted.
+ */
+public class SessionCheckpoint {
+    private static final String TAG = "SessionCheckpoint";
+    private static final String FILE_NAME = "session.ckpt";
+
+    private static final int MAGIC = 0x53434B50; // "SCKP"
+    // Version 2 added the relay key; version 1 headers still restore, without it
+    private static final int VERSION = 2;
+    private static final int MAX_RELAY_KEY_BYTES = RelayKeys.KEY_BYTES * 2;
+    private static final int HEADER_BYTES = 512;
+    private static final int RECORD_BYTES = 64;
+    private static final int MAX_RECORDS = 1024;
+    private static final int MAX_HOLDER_BYTES = 32;
+
+    private static final int STATE_EMPTY = 0;
+    private static final int STATE_ISSUED = 1;
+    private static final int STATE_CONSUMED = 2;
+
+    public static final class Session {
+        public final String sessionId;
+        public final String teacherId;
+        public final String className;
+        public final String period;
+        public final String room;
+        public final int shardIndex;
+        public final int shardCount;
+        public final int beaconId;
+        public final boolean lanRelay;
+        // Hex key signing the relay's batches, or null if this device has none
+        public final String relayKey;
+        public final long startedAt;
+
+        public Session(String sessionId, String teacherId, String className, String period, String room,
+                       BeaconShard shard, boolean lanRelay, String relayKey, long startedAt) {
+            this(sessionId, teacherId, className, period, room, shard.index, shard.count, shard.beaconId,
+                lanRelay, relayKey, startedAt);
+        }
+
+        Session(String sessionId, String teacherId, String className, String period, String room,
+                int shardIndex, int shardCount, int beaconId, boolean lanRelay, String relayKey,
+                long startedAt) {
+            this.sessionId = sessionId;
+            this.teacherId = teacherId;
+            this.className = className;
+            this.period = period;
+            this.room = room;
+            this.shardIndex = shardIndex;
+            this.shardCount = shardCount;
+            this.beaconId = beaconId;
+            this.lanRelay = lanRelay;
+            this.relayKey = relayKey;
+            this.startedAt = startedAt;
+        }
+
+        public BeaconShard getShard() {
+            return new BeaconShard(shardIndex, shardCount, beaconId);
+        }
+    }
+
+    public static final class OtpEntry {
+        public final String holder;
+        public final String otp;
+        public final long issuedAt;
+        public final boolean consumed;
+
+        OtpEntry(String holder, String otp, long issuedAt, boolean consumed) {
+            this.holder = holder;
+            this.otp = otp;
+            this.issuedAt = issuedAt;
+            this.consumed = consumed;
+        }
+    }
+
+    private static class Holder {
+        static final SessionCheckpoint INSTANCE = new SessionCheckpoint();
+    }
+
+    public static SessionCheckpoint getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Guarded by this
+    private File file;
+    private MappedByteBuffer map;
+    private Session session;
+    private final Map<String, Integer> slotByHolder = new HashMap<>();
+    private final BitSet usedSlots = new BitSet(MAX_RECORDS);
+    private boolean dirty = false;
+    private long loadMicros = -1;
+
+    private SessionCheckpoint() {}
+
+    // A checkpoint on `file`; a second instance on the same file sees what a
+    // restarted process would
+    SessionCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Maps the checkpoint file and reads any session left by a previous
+     * process. Cheap, but touches disk, so the application calls it off the
+     * main thread; any accessor also triggers it if it hasn't run yet.
+     */
+    public synchronized void open(Context context) {
+        if (file == null) {
+            file = new File(context.getFilesDir(), FILE_NAME);
+        }
+        ensureLoaded();
+    }
+
+    private void ensureLoaded() {
+        if (map != null || file == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_BYTES + (long) MAX_RECORDS * RECORD_BYTES);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to map checkpoint", e);
+            return;
+        }
+        session = readHeader();
+        if (session == null) {
+            clearRecords();
+        } else {
+            for (int slot = 0; slot < MAX_RECORDS; slot++) {
+                OtpEntry entry = readRecord(slot);
+                if (entry != null) {
+                    slotByHolder.put(entry.holder, slot);
+                    usedSlots.set(slot);
+                }
+            }
+        }
+        loadMicros = (System.nanoTime() - started) / 1000;
+    }
+
+    // The session that was running when the process died, or null
+    public synchronized Session getSavedSession() {
+        ensureLoaded();
+        return session;
+    }
+
+    // OTPs of the saved session, to load back into the GATT server
+    public synchronized List<OtpEntry> getSavedOtps() {
+        ensureLoaded();
+        List<OtpEntry> entries = new ArrayList<>();
+        if (session == null) {
+            return entries;
+        }
+        for (int slot = usedSlots.nextSetBit(0); slot >= 0; slot = usedSlots.nextSetBit(slot + 1)) {
+            OtpEntry entry = readRecord(slot);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    // Time spent mapping and scanning the file at startup
+    public synchronized long getLoadMicros() {
+        return loadMicros;
+    }
+
+    public synchronized void saveSession(Session newSession) {
+        ensureLoaded();
+        if (map == null) {
+            return;
+        }
+        if (session == null || !session.sessionId.equals(newSession.sessionId)) {
+            clearRecords();
+        }
+        session = newSession;
+        writeHeader(newSession);
+        dirty = true;
+    }
+
+    // Called when the teacher ends the session; nothing is left to resume
+    public synchronized void clear() {
+        ensureLoaded();
+        if (map == null) {
+            return;
+        }
+        session = null;
+        map.putInt(0, 0);
+        clearRecords();
+        dirty = true;
+    }
+
+    public synchronized void putOtp(String holder, String otp, long issuedAt) {
+        writeEntry(holder, otp, issuedAt, STATE_ISSUED);
+    }
+
+    public synchronized void markConsumed(String holder, String otp, long issuedAt) {
+        writeEntry(holder, otp, issuedAt, STATE_CONSUMED);
+    }
+
+    public synchronized void removeOtp(String holder) {
+        Integer slot = slotByHolder.remove(holder);
+        if (slot != null && map != null) {
+            usedSlots.clear(slot);
+            map.putInt(HEADER_BYTES + slot * RECORD_BYTES, STATE_EMPTY);
+            dirty = true;
+        }
+    }
+
+    // Pushes written records to storage; the page cache already survives process death
+    public synchronized void flush() {
+        if (dirty && map != null) {
+            map.force();
+            dirty = false;
+        }
+    }
+
+    private void writeEntry(String holder, String otp, long issuedAt, int state) {
+        if (map == null || session == null) {
+            return;
+        }
+        byte[] holderBytes = holder.getBytes(StandardCharsets.UTF_8);
+        if (holderBytes.length > MAX_HOLDER_BYTES) {
+            return;
+        }
+        Integer slot = slotByHolder.get(holder);
+        if (slot == null) {
+            int free = usedSlots.nextClearBit(0);
+            if (free >= MAX_RECORDS) {
+                Log.w(TAG, "Checkpoint full, OTP for " + holder + " not saved");
+                return;
+            }
+            slot = free;
+            usedSlots.set(slot);
+            slotByHolder.put(holder, slot);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.putInt(state)
+            .putLong(issuedAt)
+            .putInt(Integer.parseInt(otp))
+            .put((byte) holderBytes.length)
+            .put(holderBytes);
+        record.putInt(RECORD_BYTES - 4, crc(record.array(), RECORD_BYTES - 4));
+        map.position(HEADER_BYTES + slot * RECORD_BYTES);
+        map.put(record.array());
+        dirty = true;
+    }
+
+    private OtpEntry readRecord(int slot) {
+        byte[] record = new byte[RECORD_BYTES];
+        map.position(HEADER_BYTES + slot * RECORD_BYTES);
+        map.get(record);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int state = buffer.getInt();
+        if (state == STATE_EMPTY || buffer.getInt(RECORD_BYTES - 4) != crc(record, RECORD_BYTES - 4)) {
+            return null;
+        }
+        long issuedAt = buffer.getLong();
+        int otp = buffer.getInt();
+        int holderLength = buffer.get() & 0xFF;
+        if (holderLength > MAX_HOLDER_BYTES) {
+            return null;
+        }
+        String holder = new String(record, buffer.position(), holderLength, StandardCharsets.UTF_8);
+        return new OtpEntry(holder, String.format("%06d", otp), issuedAt, state == STATE_CONSUMED);
+    }
+
+    private void clearRecords() {
+        for (int slot = usedSlots.nextSetBit(0); slot >= 0; slot = usedSlots.nextSetBit(slot + 1)) {
+            map.putInt(HEADER_BYTES + slot * RECORD_BYTES, STATE_EMPTY);
+        }
+        if (session == null && map != null) {
+            // Unknown contents (first run or damaged header): wipe every slot
+            for (int slot = 0; slot < MAX_RECORDS; slot++) {
+                map.putInt(HEADER_BYTES + slot * RECORD_BYTES, STATE_EMPTY);
+            }
+        }
+        usedSlots.clear();
+        slotByHolder.clear();
+    }
+
+    private void writeHeader(Session s) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC)
+            .putInt(VERSION)
+            .putLong(s.startedAt)
+            .putInt(s.shardIndex)
+            .putInt(s.shardCount)
+            .putInt(s.beaconId)
+            .put((byte) (s.lanRelay ? 1 : 0));
+        for (String value : new String[] { s.sessionId, s.teacherId, s.className, s.period, s.room }) {
+            byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, 80);
+            header.putShort((short) length).put(bytes, 0, length);
+        }
+        byte[] key = s.relayKey != null ? s.relayKey.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        if (key.length > MAX_RELAY_KEY_BYTES) {
+            key = new byte[0];
+        }
+        header.putShort((short) key.length).put(key);
+        header.putInt(HEADER_BYTES - 4, crc(header.array(), HEADER_BYTES - 4));
+        map.position(0);
+        map.put(header.array());
+    }
+
+    private Session readHeader() {
+        byte[] bytes = new byte[HEADER_BYTES];
+        map.position(0);
+        map.get(bytes);
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (header.getInt() != MAGIC) {
+            return null;
+        }
+        int version = header.getInt();
+        if ((version != 1 && version != VERSION)
+                || header.getInt(HEADER_BYTES - 4) != crc(bytes, HEADER_BYTES - 4)) {
+            return null;
+        }
+        long startedAt = header.getLong();
+        int shardIndex = header.getInt();
+        int shardCount = header.getInt();
+        int beaconId = header.getInt();
+        boolean lanRelay = header.get() == 1;
+        String[] values = new String[5];
+        for (int i = 0; i < values.length; i++) {
+            int length = header.getShort();
+            values[i] = new String(bytes, header.position(), length, StandardCharsets.UTF_8);
+            header.position(header.position() + length);
+        }
+        String relayKey = null;
+        if (version >= 2) {
+            int length = header.getShort();
+            if (length > 0 && length <= MAX_RELAY_KEY_BYTES) {
+                relayKey = new String(bytes, header.position(), length, StandardCharsets.US_ASCII);
+            }
+        }
+        return new Session(values[0], values[1], values[2], values[3], values[4],
+            shardIndex, shardCount, beaconId, lanRelay, relayKey, startedAt);
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -7,6 +7,11 @@ public class SessionData {
     private String period;
     private String room;
     private long timestamp;
+    // "scheduled" or "cancelled" for timetable slots the backend provisioned
+    private String status;
+    // Hex key for signing LAN relay batches, sent only with this device's
+    // create or start of the session (see RelayKeys)
+    private String relayKey;
     
     public SessionData(String sessionId, String teacherId, String className, 
                       String period, String room, long timestamp) {
@@ -36,4 +41,10 @@ public class SessionData {
     
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+    
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    
+    public String getRelayKey() { return relayKey; }
+    public void setRelayKey(String relayKey) { this.relayKey = relayKey; }
 }
\ No newline at end of file
@@ -0,0 +1,217 @@
+package com.claudeattendance.teacher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Running statistics for the current session, kept as the beacon serves
+ * it so dashboards read one uploaded summary instead of scanning the
+ * backend's tables. Memory is fixed however many students connect:
+ *
+ * - arrivals: first sighting of each holder, in 30 s bins from the start;
+ *   "first" is decided by a 2 KB Bloom filter, good for about 2000 holders
+ * - distinct devices: HyperLogLog with 1024 registers (about 3% error);
+ *   the registers are uploaded so the backend can union several beacons
+ * - counters for served, issued and re-served OTPs, throttled and
+ *   out-of-range reads, and accepted and rejected submissions
+ *
+ * Owned by the GATT event loop; not thread-safe.
+ */
+public class SessionStats {
+    private static final long BIN_MS = 30_000;
+    // Two hours of bins; later arrivals land in the last one
+    private static final int BINS = 240;
+
+    private static final int HLL_BITS = 10;
+    private static final int HLL_REGISTERS = 1 << HLL_BITS;
+
+    private static final int BLOOM_BITS = 16384;
+    private static final int BLOOM_HASHES = 3;
+
+    // Wire format of one beacon's snapshot
+    public static final class Summary {
+        String sessionId;
+        int beaconId;
+        int shardIndex;
+        int shardCount;
+        long startedAt;
+        long updatedAt;
+        boolean ended;
+        long binMs;
+        int[] arrivals;
+        long distinctDevices;
+        String hll;
+        long served;
+        long issued;
+        long reused;
+        long throttled;
+        long outOfRange;
+        long consumed;
+        long rejected;
+    }
+
+    private String sessionId;
+    private long startedAt;
+    private final int[] arrivals = new int[BINS];
+    private int lastBin = -1;
+    private final byte[] registers = new byte[HLL_REGISTERS];
+    private final long[] bloom = new long[BLOOM_BITS / 64];
+
+    private long served;
+    private long issued;
+    private long reused;
+    private long throttled;
+    private long outOfRange;
+    private long consumed;
+    private long rejected;
+    private boolean changed;
+
+    public void reset(String sessionId, long nowMs) {
+        this.sessionId = sessionId;
+        startedAt = nowMs;
+        Arrays.fill(arrivals, 0);
+        lastBin = -1;
+        Arrays.fill(registers, (byte) 0);
+        Arrays.fill(bloom, 0);
+        served = issued = reused = throttled = outOfRange = consumed = rejected = 0;
+        changed = false;
+    }
+
+    // An OTP read answered with a code; newlyIssued is false when the
+    // holder's still-valid code was served again
+    public void onServed(String holder, boolean newlyIssued, long nowMs) {
+        long hash = hash64(holder);
+        served++;
+        if (newlyIssued) {
+            issued++;
+        } else {
+            reused++;
+        }
+        addToSketch(hash);
+        if (markSeen(hash)) {
+            int bin = (int) Math.min(Math.max(0, (nowMs - startedAt) / BIN_MS), BINS - 1);
+            arrivals[bin]++;
+            lastBin = Math.max(lastBin, bin);
+        }
+        changed = true;
+    }
+
+    public void onThrottled() {
+        throttled++;
+        changed = true;
+    }
+
+    public void onOutOfRange() {
+        outOfRange++;
+        changed = true;
+    }
+
+    public void onSubmission(boolean accepted) {
+        if (accepted) {
+            consumed++;
+        } else {
+            rejected++;
+        }
+        changed = true;
+    }
+
+    // True if anything was counted since the last snapshot
+    public boolean hasChanged() {
+        return changed;
+    }
+
+    public long estimateDistinct() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / HLL_REGISTERS);
+        double estimate = alpha * HLL_REGISTERS * HLL_REGISTERS / sum;
+        if (estimate <= 2.5 * HLL_REGISTERS && zeros > 0) {
+            // Linear counting is more accurate for small classes
+            estimate = HLL_REGISTERS * Math.log((double) HLL_REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public Summary snapshot(BeaconShard shard, boolean ended, long nowMs) {
+        Summary summary = new Summary();
+        summary.sessionId = sessionId;
+        if (shard != null) {
+            summary.beaconId = shard.beaconId;
+            summary.shardIndex = shard.index;
+            summary.shardCount = shard.count;
+        } else {
+            summary.shardCount = 1;
+        }
+        summary.startedAt = startedAt;
+        summary.updatedAt = nowMs;
+        summary.ended = ended;
+        summary.binMs = BIN_MS;
+        summary.arrivals = Arrays.copyOf(arrivals, lastBin + 1);
+        summary.distinctDevices = estimateDistinct();
+        summary.hll = toHex(registers);
+        summary.served = served;
+        summary.issued = issued;
+        summary.reused = reused;
+        summary.throttled = throttled;
+        summary.outOfRange = outOfRange;
+        summary.consumed = consumed;
+        summary.rejected = rejected;
+        changed = false;
+        return summary;
+    }
+
+    private void addToSketch(long hash) {
+        int index = (int) (hash >>> (64 - HLL_BITS));
+        // Position of the first set bit in the remaining 54 bits, 1-based
+        long rest = hash << HLL_BITS;
+        int rank = rest == 0 ? 64 - HLL_BITS + 1 : Long.numberOfLeadingZeros(rest) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    // Adds the holder to the Bloom filter; true if it wasn't there before
+    private boolean markSeen(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean added = false;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % BLOOM_BITS;
+            long mask = 1L << (bit & 63);
+            if ((bloom[bit >>> 6] & mask) == 0) {
+                bloom[bit >>> 6] |= mask;
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    // 64-bit FNV-1a over UTF-8, finished with the MurmurHash3 mixer
+    private static long hash64(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static String toHex(byte[] value) {
+        StringBuilder hex = new StringBuilder(value.length * 2);
+        for (byte b : value) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.claudeattendance.teacher;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Trace section names for the launch-to-beacon path. The macrobenchmark module
+ * reads these by name, so keep them in sync with StartupBenchmark.
+ */
+public final class StartupTrace {
+    public static final String APP_INIT = "Teacher.appInit";
+    public static final String ACTIVITY_CREATE = "Teacher.activityCreate";
+    public static final String IDLE_INIT = "Teacher.idleInit";
+    public static final String GATT_PREOPEN = "Teacher.gattPreopen";
+    public static final String BEACON_START = "Teacher.beaconStart";
+
+    // Async section spanning process start to the first OTP served over GATT
+    public static final String COLD_START_TO_FIRST_SERVE = "Teacher.coldStartToFirstServe";
+    private static final int FIRST_SERVE_COOKIE = 1;
+
+    private static volatile boolean firstServeOpen = false;
+
+    private StartupTrace() {}
+
+    public static void begin(String section) {
+        Trace.beginSection(section);
+    }
+
+    public static void end() {
+        Trace.endSection();
+    }
+
+    public static void beginColdStart() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(COLD_START_TO_FIRST_SERVE, FIRST_SERVE_COOKIE);
+            firstServeOpen = true;
+        }
+    }
+
+    public static void markFirstServe() {
+        if (!firstServeOpen) {
+            return;
+        }
+        synchronized (StartupTrace.class) {
+            if (firstServeOpen && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(COLD_START_TO_FIRST_SERVE, FIRST_SERVE_COOKIE);
+            }
+            firstServeOpen = false;
+        }
+    }
+}
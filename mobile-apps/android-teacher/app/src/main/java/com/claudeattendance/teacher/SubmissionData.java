@@ -0,0 +1,40 @@
+package com.claudeattendance.teacher;
+
+import java.util.List;
+
+public class SubmissionData {
+    private String rollNumber;
+    private String otp;
+    private String sessionId;
+    private String deviceFingerprint;
+    private String ipAddress;
+    private String browserFingerprint;
+    private long receivedAt;
+    // Set by the beacon's anomaly pre-filter; empty means screened and clean
+    private List<String> riskFlags;
+    
+    // Getters and setters
+    public String getRollNumber() { return rollNumber; }
+    public void setRollNumber(String rollNumber) { this.rollNumber = rollNumber; }
+    
+    public String getOtp() { return otp; }
+    public void setOtp(String otp) { this.otp = otp; }
+    
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+    
+    public String getDeviceFingerprint() { return deviceFingerprint; }
+    public void setDeviceFingerprint(String deviceFingerprint) { this.deviceFingerprint = deviceFingerprint; }
+    
+    public String getIpAddress() { return ipAddress; }
+    public void setIpAddress(String ipAddress) { this.ipAddress = ipAddress; }
+    
+    public String getBrowserFingerprint() { return browserFingerprint; }
+    public void setBrowserFingerprint(String browserFingerprint) { this.browserFingerprint = browserFingerprint; }
+    
+    public long getReceivedAt() { return receivedAt; }
+    public void setReceivedAt(long receivedAt) { this.receivedAt = receivedAt; }
+    
+    public List<String> getRiskFlags() { return riskFlags; }
+    public void setRiskFlags(List<String> riskFlags) { this.riskFlags = riskFlags; }
+}
\ No newline at end of file
@@ -0,0 +1,447 @@
+package com.claudeattendance.teacher;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional HTTP server on the local network that takes student submissions
+ * in place of the backend. Each submission is checked against the OTPs the
+ * GATT server has issued, answered straight away, and queued for upload in
+ * gzipped batches, so a room-wide burst becomes a few WAN requests.
+ *
+ * The server is deliberately small: one accept thread, a fixed pool of
+ * workers and a short admission queue. Connections beyond that are answered
+ * with 503 and Retry-After on the accept thread, so the phone never spends
+ * more than a bounded amount of CPU and memory on the relay. Each request
+ * must arrive in full within an absolute deadline, so a client trickling
+ * bytes can't hold a worker for longer than that.
+ *
+ * Students find the relay through the GATT server's relay characteristic.
+ * Browsers on the web portal may call it cross-origin, so preflights are
+ * answered and every response allows any origin; the relay holds nothing
+ * a page could read that the backend wouldn't also return.
+ */
+public class SubmissionRelay {
+    private static final String TAG = "SubmissionRelay";
+
+    public static final int DEFAULT_PORT = 8787;
+    private static final int WORKERS = 4;
+    private static final int ADMISSION_QUEUE = 64;
+    private static final int BACKLOG = 50;
+    private static final int SOCKET_TIMEOUT_MS = 5000;
+    // Whole request, from accept to the end of the body
+    private static final long REQUEST_DEADLINE_MS = 3000;
+    private static final int PREFLIGHT_MAX_AGE_SECONDS = 600;
+    private static final int MAX_HEADER_BYTES = 4096;
+    private static final int MAX_BODY_BYTES = 4096;
+    private static final long VALIDATE_TIMEOUT_MS = 500;
+    private static final int RETRY_AFTER_SECONDS = 2;
+
+    private static final String SUBMIT_PATH = "/api/attendance/submit";
+    private static final String HEALTH_PATH = "/api/health";
+
+    private final Gson gson = new Gson();
+    private final int port;
+
+    private volatile String sessionId;
+    private ServerSocket serverSocket;
+    private ThreadPoolExecutor workers;
+    private Thread acceptThread;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    public SubmissionRelay() {
+        this(DEFAULT_PORT);
+    }
+
+    public SubmissionRelay(int port) {
+        this.port = port;
+    }
+
+    public synchronized void start(String sessionId) throws IOException {
+        this.sessionId = sessionId;
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket();
+        // Rebinds straight away when the relay restarts for the next class
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port), BACKLOG);
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(ADMISSION_QUEUE), r -> {
+                Thread thread = new Thread(r, "RelayWorker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        ServerSocket socket = serverSocket;
+        acceptThread = new Thread(() -> acceptLoop(socket), "RelayAccept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        Log.d(TAG, "Relay listening on " + getRelayUrl());
+    }
+
+    public synchronized void stop() {
+        sessionId = null;
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+        serverSocket = null;
+        workers.shutdownNow();
+        workers = null;
+        acceptThread = null;
+        Log.d(TAG, "Relay stopped (accepted: " + accepted.get() + ", rejected: " + rejected.get()
+            + ", shed: " + shed.get() + ")");
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    // Address students on the same network should submit to, or null if offline
+    public String getRelayUrl() {
+        String address = localIpv4Address();
+        return address == null ? null : "http://" + address + ":" + port + "/api";
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    // Connections turned away because the admission queue was full
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    private void acceptLoop(ServerSocket server) {
+        ThreadPoolExecutor pool = workers;
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    Log.w(TAG, "Accept failed: " + e.getMessage());
+                }
+                continue;
+            }
+            try {
+                pool.execute(() -> handle(socket));
+            } catch (RejectedExecutionException e) {
+                shed.incrementAndGet();
+                shedConnection(socket);
+            }
+        }
+    }
+
+    private static void shedConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            writeResponse(socket.getOutputStream(), 503, "{\"success\":false,\"message\":\"Relay busy\"}",
+                "Retry-After: " + RETRY_AFTER_SECONDS + "\r\n");
+        } catch (IOException ignored) {
+            // client went away
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_DEADLINE_MS);
+            InputStream in = new BufferedInputStream(new DeadlineInputStream(socket, deadline));
+            OutputStream out = socket.getOutputStream();
+
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2) {
+                writeResponse(out, 400, error("Malformed request"), "");
+                return;
+            }
+            String method = parts[0];
+            String path = parts[1];
+
+            int contentLength = 0;
+            int headerBytes = 0;
+            boolean privateNetworkRequest = false;
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                headerBytes += line.length();
+                if (headerBytes > MAX_HEADER_BYTES) {
+                    writeResponse(out, 431, error("Headers too large"), "");
+                    return;
+                }
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+                } else if (name.equalsIgnoreCase("Access-Control-Request-Private-Network")) {
+                    privateNetworkRequest = "true".equalsIgnoreCase(line.substring(colon + 1).trim());
+                }
+            }
+
+            if ("OPTIONS".equals(method) && (SUBMIT_PATH.equals(path) || HEALTH_PATH.equals(path))) {
+                // CORS preflight; the relay is on a private address, so
+                // browsers also ask whether a public page may reach it
+                writeResponse(out, 204, "", "Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n"
+                    + "Access-Control-Allow-Headers: Content-Type\r\n"
+                    + "Access-Control-Max-Age: " + PREFLIGHT_MAX_AGE_SECONDS + "\r\n"
+                    + (privateNetworkRequest ? "Access-Control-Allow-Private-Network: true\r\n" : ""));
+            } else if ("GET".equals(method) && HEALTH_PATH.equals(path)) {
+                writeResponse(out, 200, "{\"status\":\"OK\",\"relay\":true}", "");
+            } else if ("POST".equals(method) && SUBMIT_PATH.equals(path)) {
+                if (contentLength <= 0 || contentLength > MAX_BODY_BYTES) {
+                    writeResponse(out, 413, error("Invalid body size"), "");
+                    return;
+                }
+                byte[] body = readBody(in, contentLength);
+                handleSubmit(socket, out, new String(body, StandardCharsets.UTF_8));
+            } else {
+                writeResponse(out, 404, error("Not found"), "");
+            }
+        } catch (SocketTimeoutException e) {
+            rejected.incrementAndGet();
+            Log.d(TAG, "Relay request missed its deadline");
+        } catch (IOException | NumberFormatException e) {
+            Log.d(TAG, "Relay request failed: " + e.getMessage());
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void handleSubmit(Socket socket, OutputStream out, String json) throws IOException {
+        SubmissionData submission;
+        try {
+            submission = gson.fromJson(json, SubmissionData.class);
+        } catch (JsonSyntaxException e) {
+            submission = null;
+        }
+        if (submission == null || isBlank(submission.getRollNumber()) || isBlank(submission.getSessionId())
+                || isBlank(submission.getDeviceFingerprint()) || submission.getOtp() == null
+                || !submission.getOtp().matches("\\d{6}")) {
+            rejected.incrementAndGet();
+            writeResponse(out, 400, error("Missing or invalid fields"), "");
+            return;
+        }
+
+        String activeSession = sessionId;
+        if (activeSession == null || !activeSession.equals(submission.getSessionId())) {
+            rejected.incrementAndGet();
+            writeResponse(out, 404, error("Session not found or inactive"), "");
+            return;
+        }
+
+        String ipAddress = socket.getInetAddress().getHostAddress();
+        List<String> riskFlags;
+        try {
+            riskFlags = GattServerManager.getInstance()
+                .consumeOtp(submission.getSessionId(), submission.getOtp(), ipAddress)
+                .get(VALIDATE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The GATT loop is backed up; let the client retry shortly
+            shed.incrementAndGet();
+            writeResponse(out, 503, error("Relay busy"), "Retry-After: " + RETRY_AFTER_SECONDS + "\r\n");
+            return;
+        } catch (InterruptedException | ExecutionException e) {
+            writeResponse(out, 500, error("Validation failed"), "");
+            return;
+        }
+        if (riskFlags == null) {
+            rejected.incrementAndGet();
+            writeResponse(out, 403, error("Invalid or expired OTP"), "");
+            return;
+        }
+
+        // The relay sees the student's real LAN address
+        submission.setIpAddress(ipAddress);
+        submission.setRiskFlags(riskFlags);
+        submission.setReceivedAt(System.currentTimeMillis());
+        UploadScheduler.getInstance().enqueue(Uploads.SUBMISSIONS, submission);
+        accepted.incrementAndGet();
+
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        response.addProperty("queued", true);
+        response.addProperty("message", "Attendance received by classroom relay");
+        writeResponse(out, 202, response.toString(), "");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_HEADER_BYTES) {
+                throw new IOException("Header line too long");
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static byte[] readBody(InputStream in, int length) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(length);
+        byte[] buffer = new byte[Math.min(length, 1024)];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Body ended early");
+            }
+            body.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return body.toByteArray();
+    }
+
+    private static void writeResponse(OutputStream out, int status, String json, String extraHeaders) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        String head = String.format(Locale.US,
+            "HTTP/1.1 %d %s\r\nContent-Type: application/json\r\nContent-Length: %d\r\n"
+                + "Access-Control-Allow-Origin: *\r\n%sConnection: close\r\n\r\n",
+            status, reason(status), body.length, extraHeaders);
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 400: return "Bad Request";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 503: return "Service Unavailable";
+            default: return "Internal Server Error";
+        }
+    }
+
+    private static String error(String message) {
+        JsonObject object = new JsonObject();
+        object.addProperty("success", false);
+        object.addProperty("message", message);
+        return object.toString();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * Socket input that gives up once an absolute deadline has passed. The
+     * socket timeout is reset to the time remaining before every read, so
+     * a slow trickle of bytes can't stretch a request past the deadline.
+     */
+    private static final class DeadlineInputStream extends InputStream {
+        private final Socket socket;
+        private final InputStream in;
+        private final long deadlineNanos;
+
+        DeadlineInputStream(Socket socket, long deadlineNanos) throws IOException {
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            armTimeout();
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            armTimeout();
+            return in.read(buffer, offset, length);
+        }
+
+        private void armTimeout() throws IOException {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMs <= 0) {
+                throw new SocketTimeoutException("Request deadline passed");
+            }
+            socket.setSoTimeout((int) remainingMs);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    private static String localIpv4Address() {
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp() || nif.isLoopback()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        return address.getHostAddress();
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            Log.w(TAG, "Unable to read local address: " + e.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.claudeattendance.teacher;
+
+import android.app.Application;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TeacherApplication extends Application {
+    // Shared pool for startup work that must stay off the main thread
+    private static final ExecutorService startupExecutor = Executors.newFixedThreadPool(2);
+
+    @Override
+    public void onCreate() {
+        StartupTrace.beginColdStart();
+        StartupTrace.begin(StartupTrace.APP_INIT);
+        super.onCreate();
+
+        // Warm up JSON serialization in parallel with the first frame
+        startupExecutor.execute(ApiClient::warmUp);
+        UploadScheduler.getInstance().start(this);
+        HistoryStore.getInstance().open(this);
+        // Read any session a killed process left behind before the activity asks
+        startupExecutor.execute(() -> SessionCheckpoint.getInstance().open(this));
+        // Today's timetable, so a scheduled class starts without a round trip
+        startupExecutor.execute(() -> TimetableCache.getInstance().open(this));
+        // Rank backend endpoints before the first session is created
+        ApiClient.startHealthProbes();
+
+        StartupTrace.end();
+    }
+}
@@ -0,0 +1,254 @@
+package com.claudeattendance.teacher;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The teacher's timetable for today, fetched in one request and kept on the
+ * device. Each slot carries a session id the backend provisioned when the
+ * day was fetched, so starting a class that is on the timetable needs no
+ * round trip: the session id is already known and the start is reported
+ * afterwards.
+ *
+ * Every later fetch is compared with the cached day and the listener gets
+ * the slots the backend changed (room, class, cancellation) since.
+ */
+public class TimetableCache {
+    private static final String TAG = "TimetableCache";
+    private static final String PREFS = "timetable";
+    private static final String KEY_DAY = "day";
+    private static final String KEY_TEACHER_ID = "teacher_id";
+
+    public static final String STATUS_SCHEDULED = "scheduled";
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    // A slot is still offered as the current class this long after it starts
+    private static final long SLOT_GRACE_MS = 50 * 60 * 1000;
+
+    // Wire and storage format: { "date": "yyyy-MM-dd", "sessions": [SessionData] }
+    static final class Day {
+        String date;
+        List<SessionData> sessions;
+    }
+
+    public interface Listener {
+        // Called on the cache's worker thread after each successful fetch,
+        // with the cached slots whose backend values changed
+        void onTimetableUpdated(List<SessionData> changed);
+    }
+
+    private static class Holder {
+        static final TimetableCache INSTANCE = new TimetableCache();
+    }
+
+    public static TimetableCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Timetable");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this
+    private SharedPreferences prefs;
+    private Day day;
+    private String teacherId;
+    private boolean fetching = false;
+    private volatile Listener listener;
+
+    private TimetableCache() {}
+
+    /**
+     * Loads the cached day and, if it isn't today's, fetches it for the
+     * teacher who last used the device. Reads preferences, so the
+     * application calls it off the main thread.
+     */
+    public void open(Context context) {
+        String teacher;
+        synchronized (this) {
+            if (prefs == null) {
+                prefs = context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+                teacherId = prefs.getString(KEY_TEACHER_ID, null);
+                day = parse(prefs.getString(KEY_DAY, null));
+            }
+            teacher = teacherId;
+        }
+        if (teacher != null) {
+            prefetch(teacher);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Fetches today's timetable unless it is already cached for this teacher
+    public void prefetch(String teacher) {
+        synchronized (this) {
+            if (prefs == null || fetching) {
+                return;
+            }
+            if (teacher.equals(teacherId) && day != null && today().equals(day.date)) {
+                return;
+            }
+        }
+        fetch(teacher);
+    }
+
+    // Fetches again regardless of the cache, to pick up backend changes
+    public void refresh() {
+        String teacher;
+        synchronized (this) {
+            if (prefs == null || fetching || teacherId == null) {
+                return;
+            }
+            teacher = teacherId;
+        }
+        fetch(teacher);
+    }
+
+    private void fetch(String teacher) {
+        synchronized (this) {
+            fetching = true;
+        }
+        worker.execute(() -> {
+            String date = today();
+            Day fresh = null;
+            try {
+                long started = System.nanoTime();
+                fresh = ApiClient.fetchTimetable(teacher, date, utcOffsetMinutes());
+                Log.d(TAG, "Fetched " + fresh.sessions.size() + " slot(s) for " + date + " in "
+                    + (System.nanoTime() - started) / 1_000_000 + " ms");
+            } catch (IOException | JsonParseException e) {
+                Log.w(TAG, "Timetable fetch failed: " + e.getMessage());
+            }
+            List<SessionData> changed;
+            synchronized (this) {
+                fetching = false;
+                if (fresh == null) {
+                    return;
+                }
+                fresh.date = date;
+                changed = reconcile(teacher, fresh);
+                day = fresh;
+                teacherId = teacher;
+                prefs.edit()
+                    .putString(KEY_TEACHER_ID, teacher)
+                    .putString(KEY_DAY, ApiClient.gson().toJson(fresh))
+                    .apply();
+            }
+            Listener current = listener;
+            if (current != null) {
+                current.onTimetableUpdated(changed);
+            }
+        });
+    }
+
+    // Slots of the cached day the fresh copy differs on; a slot only going
+    // from scheduled to active is our own start coming back, not a change
+    private List<SessionData> reconcile(String teacher, Day fresh) {
+        List<SessionData> changed = new ArrayList<>();
+        if (day == null || !fresh.date.equals(day.date) || !teacher.equals(teacherId)) {
+            return changed;
+        }
+        Map<String, SessionData> cached = new HashMap<>();
+        for (SessionData slot : day.sessions) {
+            cached.put(slot.getSessionId(), slot);
+        }
+        for (SessionData slot : fresh.sessions) {
+            SessionData old = cached.get(slot.getSessionId());
+            if (old != null && !(same(old.getClassName(), slot.getClassName())
+                    && same(old.getPeriod(), slot.getPeriod())
+                    && same(old.getRoom(), slot.getRoom())
+                    && isCancelled(old) == isCancelled(slot)
+                    && old.getTimestamp() == slot.getTimestamp())) {
+                changed.add(slot);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Today's provisioned session for this class and period, or null if the
+     * class isn't on the cached timetable.
+     */
+    public synchronized SessionData findSlot(String teacher, String className, String period) {
+        if (day == null || !teacher.equals(teacherId) || !today().equals(day.date)) {
+            return null;
+        }
+        for (SessionData slot : day.sessions) {
+            // A slot already started (e.g. by another beacon) is joined, not recreated
+            if (!isCancelled(slot)
+                    && className.equalsIgnoreCase(slot.getClassName())
+                    && period.equals(slot.getPeriod())) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    // The slot running now or next today, to fill in the form
+    public synchronized SessionData currentSlot(long nowMs) {
+        if (day == null || !today().equals(day.date)) {
+            return null;
+        }
+        for (SessionData slot : day.sessions) {
+            if (STATUS_SCHEDULED.equals(slot.getStatus()) && slot.getTimestamp() + SLOT_GRACE_MS >= nowMs) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private static Day parse(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            Day parsed = ApiClient.gson().fromJson(json, Day.class);
+            return parsed != null && parsed.date != null && parsed.sessions != null ? parsed : null;
+        } catch (JsonParseException e) {
+            Log.w(TAG, "Discarding unreadable cached timetable");
+            return null;
+        }
+    }
+
+    private static boolean isCancelled(SessionData slot) {
+        return STATUS_CANCELLED.equals(slot.getStatus());
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String today() {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date());
+    }
+
+    // The device zone's offset at midday today, when classes run; a DST
+    // switch happens at night, so this is the offset of every slot
+    private static int utcOffsetMinutes() {
+        Calendar midday = Calendar.getInstance();
+        midday.set(Calendar.HOUR_OF_DAY, 12);
+        midday.set(Calendar.MINUTE, 0);
+        return TimeZone.getDefault().getOffset(midday.getTimeInMillis()) / (60 * 1000);
+    }
+}
@@ -0,0 +1,23 @@
+package com.claudeattendance.teacher;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+
+// Wakes the app to flush DEFERRABLE uploads once an unmetered network is up
+public class UploadJobService extends JobService {
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        UploadScheduler scheduler = UploadScheduler.getInstance();
+        scheduler.start(this);
+        // After process death nothing else may have registered the channels
+        Uploads.registerAll();
+        scheduler.runDeferredJob(() -> jobFinished(params, false));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Unsent deferrable items stay in their saved queues; ask to be rescheduled
+        return true;
+    }
+}
@@ -0,0 +1,541 @@
+package com.claudeattendance.teacher;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Queues backend uploads by traffic class and dispatches them according to
+ * connectivity, metering and battery state.
+ *
+ * LATENCY_CRITICAL items go out as soon as any network is up.
+ * NEAR_REAL_TIME items are batched; the batching window widens on poor or
+ * metered links and after failures.
+ * DEFERRABLE items wait for an unmetered network with enough battery, with
+ * a JobScheduler job as the wake-up if the conditions aren't met while the
+ * app is running. Their queues are saved to disk, so the job still finds
+ * them after the process is gone.
+ *
+ * A 4xx from the backend is final: the batch is dropped through the
+ * channel's failure listener rather than retried.
+ */
+public class UploadScheduler {
+    private static final String TAG = "UploadScheduler";
+    private static final int DEFERRED_JOB_ID = 2901;
+
+    public enum TrafficClass {
+        LATENCY_CRITICAL,
+        NEAR_REAL_TIME,
+        DEFERRABLE
+    }
+
+    public interface BatchSender<T> {
+        void send(List<T> batch) throws IOException;
+    }
+
+    public interface FailureListener<T> {
+        void onDropped(List<T> batch, Exception error);
+    }
+
+    /**
+     * Thrown by a sender when only part of a batch failed, so the items that
+     * went through are not sent again. Rejected items are dropped; the rest
+     * are retried.
+     */
+    public static final class PartialFailure extends IOException {
+        final List<Object> retry = new ArrayList<>();
+        final List<Object> rejected = new ArrayList<>();
+        IOException retryError;
+        IOException rejectedError;
+
+        public PartialFailure() {
+            super("Part of the batch failed");
+        }
+
+        public void add(List<?> items, IOException error) {
+            if (error instanceof ApiClient.RequestRejectedException) {
+                rejected.addAll(items);
+                rejectedError = error;
+            } else {
+                retry.addAll(items);
+                retryError = error;
+            }
+        }
+    }
+
+    // Batching windows for NEAR_REAL_TIME traffic
+    private static final long WINDOW_GOOD_MS = 500;
+    private static final long WINDOW_POOR_MS = 3000;
+    private static final long WINDOW_MAX_MS = 30000;
+
+    // Links slower than this, or slower than this average upload time, count as poor
+    private static final int POOR_BANDWIDTH_KBPS = 1000;
+    private static final long POOR_LATENCY_MS = 1500;
+    private static final int MIN_DEFERRED_BATTERY_PCT = 30;
+    private static final int MAX_ATTEMPTS = 5;
+    // Oldest items are dropped beyond this, e.g. after a long time offline
+    private static final int MAX_PENDING = 1000;
+    private static final String QUEUE_DIR = "uploads";
+
+    private static final UploadScheduler instance = new UploadScheduler();
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+    private final List<Channel<?>> channels = new ArrayList<>();
+
+    // Network and power state, only touched on the scheduler thread
+    private Context appContext;
+    private boolean started = false;
+    private int availableNetworks = 0;
+    private boolean connected = false;
+    private boolean metered = true;
+    private boolean validated = false;
+    private int downstreamKbps = 0;
+    private boolean charging = false;
+    private int batteryPct = 100;
+    private double latencyEwmaMs = 0;
+    private Runnable deferredJobDone;
+
+    public static UploadScheduler getInstance() {
+        return instance;
+    }
+
+    private UploadScheduler() {
+        thread = new HandlerThread("UploadScheduler");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * A named upload stream with its own queue. Items in one channel are sent
+     * together as a batch through its sender.
+     */
+    public static final class Channel<T> {
+        final String name;
+        final TrafficClass trafficClass;
+        final int maxBatch;
+        final BatchSender<T> sender;
+        // Type of the saved queue; null for channels kept in memory only
+        final Type queueType;
+        final ArrayList<T> pending = new ArrayList<>();
+        FailureListener<T> failureListener;
+        boolean flushScheduled = false;
+        boolean inFlight = false;
+        List<T> inFlightBatch = Collections.emptyList();
+        boolean restored = false;
+        int failures = 0;
+
+        Channel(String name, TrafficClass trafficClass, int maxBatch, Type queueType, BatchSender<T> sender) {
+            this.name = name;
+            this.trafficClass = trafficClass;
+            this.maxBatch = maxBatch;
+            this.queueType = queueType;
+            this.sender = sender;
+        }
+
+        public void setFailureListener(FailureListener<T> listener) {
+            this.failureListener = listener;
+        }
+    }
+
+    public <T> Channel<T> register(String name, TrafficClass trafficClass, int maxBatch, BatchSender<T> sender) {
+        if (trafficClass == TrafficClass.DEFERRABLE) {
+            throw new IllegalArgumentException("Deferrable channels need an item type: " + name);
+        }
+        return add(new Channel<>(name, trafficClass, maxBatch, null, sender));
+    }
+
+    // A DEFERRABLE channel; its queue is saved to disk as JSON
+    public <T> Channel<T> registerDeferrable(String name, int maxBatch, Class<T> itemType, BatchSender<T> sender) {
+        Type queueType = TypeToken.getParameterized(List.class, itemType).getType();
+        return add(new Channel<>(name, TrafficClass.DEFERRABLE, maxBatch, queueType, sender));
+    }
+
+    private <T> Channel<T> add(Channel<T> channel) {
+        handler.post(() -> {
+            channels.add(channel);
+            if (appContext != null) {
+                restore(channel);
+                schedule(channel);
+            }
+        });
+        return channel;
+    }
+
+    public <T> void enqueue(Channel<T> channel, T item) {
+        handler.post(() -> {
+            channel.pending.add(item);
+            if (channel.pending.size() > MAX_PENDING) {
+                drop(channel, Collections.singletonList(channel.pending.remove(0)),
+                    new IOException("Upload queue full"));
+            }
+            save(channel);
+            schedule(channel);
+        });
+    }
+
+    public void start(Context context) {
+        Context app = context.getApplicationContext();
+        handler.post(() -> {
+            if (started) {
+                return;
+            }
+            started = true;
+            appContext = app;
+            registerNetworkCallback();
+            readBatteryState();
+            for (Channel<?> channel : channels) {
+                restore(channel);
+            }
+            rescheduleAll();
+        });
+    }
+
+    // Called by UploadJobService when the deferred-upload job fires
+    void runDeferredJob(Runnable onDone) {
+        handler.post(() -> {
+            readBatteryState();
+            deferredJobDone = onDone;
+            // The job's constraints already guarantee an unmetered network
+            for (Channel<?> channel : channels) {
+                if (channel.trafficClass == TrafficClass.DEFERRABLE) {
+                    dispatch(channel);
+                }
+            }
+            maybeFinishDeferredJob();
+        });
+    }
+
+    private void maybeFinishDeferredJob() {
+        if (deferredJobDone == null) {
+            return;
+        }
+        for (Channel<?> channel : channels) {
+            if (channel.trafficClass == TrafficClass.DEFERRABLE && channel.inFlight) {
+                return;
+            }
+        }
+        Runnable done = deferredJobDone;
+        deferredJobDone = null;
+        done.run();
+    }
+
+    private <T> void schedule(Channel<T> channel) {
+        if (channel.pending.isEmpty() || channel.inFlight) {
+            return;
+        }
+
+        switch (channel.trafficClass) {
+            case LATENCY_CRITICAL:
+                if (connected) {
+                    dispatch(channel);
+                }
+                // Otherwise onAvailable flushes it
+                break;
+
+            case NEAR_REAL_TIME:
+                if (channel.pending.size() >= channel.maxBatch && connected) {
+                    handler.removeCallbacksAndMessages(channel);
+                    channel.flushScheduled = false;
+                    dispatch(channel);
+                } else if (!channel.flushScheduled) {
+                    channel.flushScheduled = true;
+                    handler.postAtTime(() -> {
+                        channel.flushScheduled = false;
+                        if (connected) {
+                            dispatch(channel);
+                        }
+                    }, channel, SystemClock.uptimeMillis() + batchWindowMs(channel));
+                }
+                break;
+
+            case DEFERRABLE:
+                // A running job's constraints already guarantee the conditions
+                if (deferredAllowed() || deferredJobDone != null) {
+                    dispatch(channel);
+                } else if (appContext != null) {
+                    scheduleDeferredJob();
+                }
+                break;
+        }
+    }
+
+    private long batchWindowMs(Channel<?> channel) {
+        long window = isLinkPoor() ? WINDOW_POOR_MS : WINDOW_GOOD_MS;
+        if (metered) {
+            window *= 2;
+        }
+        // Back off exponentially while the channel keeps failing
+        window <<= Math.min(channel.failures, 6);
+        return Math.min(window, WINDOW_MAX_MS);
+    }
+
+    private boolean isLinkPoor() {
+        return !validated
+            || (downstreamKbps > 0 && downstreamKbps < POOR_BANDWIDTH_KBPS)
+            || latencyEwmaMs > POOR_LATENCY_MS;
+    }
+
+    private boolean deferredAllowed() {
+        return connected && !metered && (charging || batteryPct >= MIN_DEFERRED_BATTERY_PCT);
+    }
+
+    private <T> void dispatch(Channel<T> channel) {
+        if (channel.pending.isEmpty() || channel.inFlight) {
+            return;
+        }
+
+        int count = Math.min(channel.pending.size(), channel.maxBatch);
+        List<T> batch = new ArrayList<>(channel.pending.subList(0, count));
+        channel.pending.subList(0, count).clear();
+        channel.inFlight = true;
+        channel.inFlightBatch = batch;
+
+        ioExecutor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            Exception error = null;
+            try {
+                channel.sender.send(batch);
+            } catch (Exception e) {
+                error = e;
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            Exception result = error;
+            handler.post(() -> onBatchComplete(channel, batch, elapsed, result));
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void onBatchComplete(Channel<T> channel, List<T> batch, long elapsedMs, Exception error) {
+        channel.inFlight = false;
+        channel.inFlightBatch = Collections.emptyList();
+        latencyEwmaMs = latencyEwmaMs == 0 ? elapsedMs : latencyEwmaMs * 0.8 + elapsedMs * 0.2;
+
+        // Only what failed for a reason retrying can fix goes back in the queue
+        List<T> failed = batch;
+        Exception retryError = error;
+        if (error instanceof PartialFailure) {
+            PartialFailure partial = (PartialFailure) error;
+            if (!partial.rejected.isEmpty()) {
+                drop(channel, (List<T>) partial.rejected, partial.rejectedError);
+            }
+            failed = (List<T>) partial.retry;
+            retryError = failed.isEmpty() ? null : partial.retryError;
+        } else if (error instanceof ApiClient.RequestRejectedException) {
+            drop(channel, batch, error);
+            failed = Collections.emptyList();
+            retryError = null;
+        }
+
+        if (retryError == null) {
+            channel.failures = 0;
+            if (error == null) {
+                Log.d(TAG, channel.name + ": sent " + batch.size() + " item(s) in " + elapsedMs + " ms");
+            }
+        } else if (++channel.failures >= MAX_ATTEMPTS) {
+            channel.failures = 0;
+            drop(channel, failed, retryError);
+        } else {
+            Log.w(TAG, channel.name + ": upload failed, will retry (" + retryError.getMessage() + ")");
+            channel.pending.addAll(0, failed);
+            // Retry critical traffic after a short pause rather than hammering
+            // the link; the other classes back off through their windows
+            if (channel.trafficClass == TrafficClass.LATENCY_CRITICAL) {
+                handler.postDelayed(() -> schedule(channel), 250L << channel.failures);
+                return;
+            }
+        }
+        save(channel);
+        schedule(channel);
+        if (channel.trafficClass == TrafficClass.DEFERRABLE) {
+            maybeFinishDeferredJob();
+        }
+    }
+
+    private <T> void drop(Channel<T> channel, List<T> items, Exception error) {
+        Log.e(TAG, channel.name + ": dropping " + items.size() + " item(s)", error);
+        if (channel.failureListener != null) {
+            channel.failureListener.onDropped(items, error);
+        }
+    }
+
+    private File queueFile(Channel<?> channel) {
+        return new File(new File(appContext.getFilesDir(), QUEUE_DIR), channel.name + ".json");
+    }
+
+    // Loads what a previous process left queued; it goes ahead of anything
+    // enqueued since
+    private <T> void restore(Channel<T> channel) {
+        if (channel.queueType == null || channel.restored) {
+            return;
+        }
+        channel.restored = true;
+        File file = queueFile(channel);
+        if (!file.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            List<T> saved = ApiClient.gson().fromJson(reader, channel.queueType);
+            if (saved != null) {
+                channel.pending.addAll(0, saved);
+                Log.d(TAG, channel.name + ": restored " + saved.size() + " queued item(s)");
+            }
+        } catch (IOException | JsonParseException e) {
+            Log.w(TAG, channel.name + ": discarding unreadable queue", e);
+            file.delete();
+        }
+    }
+
+    // Writes the queue, including the batch in flight, which a crash would
+    // otherwise lose; it is sent again after a restart
+    private <T> void save(Channel<T> channel) {
+        if (channel.queueType == null || appContext == null) {
+            return;
+        }
+        File file = queueFile(channel);
+        List<T> queued = new ArrayList<>(channel.inFlightBatch);
+        queued.addAll(channel.pending);
+        try {
+            if (queued.isEmpty()) {
+                file.delete();
+                return;
+            }
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream stream = new FileOutputStream(tmp)) {
+                stream.write(ApiClient.gson().toJson(queued, channel.queueType).getBytes(StandardCharsets.UTF_8));
+                stream.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot write " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, channel.name + ": unable to save queue", e);
+        }
+    }
+
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            connected = true;
+            return;
+        }
+
+        NetworkRequest request = new NetworkRequest.Builder()
+            .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+            .build();
+
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                handler.post(() -> {
+                    availableNetworks++;
+                    connected = true;
+                    rescheduleAll();
+                });
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+                // With several networks up this reflects the most recent
+                // change, which is normally the default network
+                boolean nowMetered = !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+                boolean nowValidated = Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+                    || caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                int kbps = caps.getLinkDownstreamBandwidthKbps();
+                handler.post(() -> {
+                    connected = true;
+                    metered = nowMetered;
+                    validated = nowValidated;
+                    downstreamKbps = kbps;
+                    readBatteryState();
+                    rescheduleAll();
+                });
+            }
+
+            @Override
+            public void onLost(Network network) {
+                handler.post(() -> {
+                    availableNetworks = Math.max(0, availableNetworks - 1);
+                    connected = availableNetworks > 0;
+                });
+            }
+        };
+
+        cm.registerNetworkCallback(request, callback);
+    }
+
+    private void rescheduleAll() {
+        for (Channel<?> channel : channels) {
+            schedule(channel);
+        }
+    }
+
+    private void readBatteryState() {
+        Intent battery = appContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+            batteryPct = level * 100 / scale;
+        }
+        charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private void scheduleDeferredJob() {
+        JobScheduler scheduler = (JobScheduler) appContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == DEFERRED_JOB_ID) {
+                return;
+            }
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(DEFERRED_JOB_ID,
+                new ComponentName(appContext, UploadJobService.class))
+            .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setRequiresBatteryNotLow(true);
+        }
+        scheduler.schedule(builder.build());
+        Log.d(TAG, "Deferred uploads waiting for an unmetered network");
+    }
+}
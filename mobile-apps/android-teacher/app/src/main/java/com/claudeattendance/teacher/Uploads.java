@@ -0,0 +1,52 @@
+package com.claudeattendance.teacher;
+
+// Upload channels shared across the app, each tagged with its traffic class
+final class Uploads {
+    private static final int MAX_OTP_BATCH = 50;
+    private static final int MAX_SUBMISSION_BATCH = 100;
+    private static final int MAX_STATS_BATCH = 20;
+
+    private Uploads() {}
+
+    // Loading this class registers every channel; for code that can run
+    // without the UI, such as the deferred-upload job
+    static void registerAll() {}
+
+    static final UploadScheduler.Channel<SessionData> SESSIONS = UploadScheduler.getInstance().register(
+        "sessions", UploadScheduler.TrafficClass.LATENCY_CRITICAL, 1,
+        batch -> {
+            for (SessionData session : batch) {
+                ApiClient.createSession(session);
+            }
+        });
+
+    // Starts of sessions provisioned from the timetable; the beacon is already up
+    static final UploadScheduler.Channel<SessionData> SESSION_STARTS = UploadScheduler.getInstance().register(
+        "session-starts", UploadScheduler.TrafficClass.LATENCY_CRITICAL, 1,
+        batch -> {
+            for (SessionData session : batch) {
+                ApiClient.startSession(session);
+            }
+        });
+
+    static final UploadScheduler.Channel<OtpData> OTP_LOGS = UploadScheduler.getInstance().register(
+        "otp-logs", UploadScheduler.TrafficClass.NEAR_REAL_TIME, MAX_OTP_BATCH,
+        ApiClient::logOtpBatch);
+
+    // Per-beacon session statistics snapshots, read by the dashboards
+    static final UploadScheduler.Channel<SessionStats.Summary> SESSION_STATS = UploadScheduler.getInstance().register(
+        "session-stats", UploadScheduler.TrafficClass.NEAR_REAL_TIME, MAX_STATS_BATCH,
+        ApiClient::uploadSessionStats);
+
+    // The final snapshot of each session, for reconciling attendance against
+    // the beacons afterwards; the live ones above already fed the dashboards
+    static final UploadScheduler.Channel<SessionStats.Summary> SESSION_RECONCILIATION =
+        UploadScheduler.getInstance().registerDeferrable(
+            "session-reconciliation", MAX_STATS_BATCH, SessionStats.Summary.class,
+            ApiClient::uploadSessionStats);
+
+    // Student submissions accepted by the LAN relay, forwarded in gzipped batches
+    static final UploadScheduler.Channel<SubmissionData> SUBMISSIONS = UploadScheduler.getInstance().register(
+        "submissions", UploadScheduler.TrafficClass.NEAR_REAL_TIME, MAX_SUBMISSION_BATCH,
+        ApiClient::forwardSubmissions);
+}
@@ -0,0 +1,120 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+// Each flag on its own, against traffic that stays under every threshold
+public class AnomalyDetectorTest {
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:01";
+    private static final String TOKEN = "0123456789abcdef0123456789abcdef";
+
+    private final AnomalyDetector detector = new AnomalyDetector();
+
+    @Test
+    public void ordinaryClientIsClean() {
+        detector.onRead(ADDRESS, 0);
+        detector.onRead(ADDRESS, 500);
+        assertTrue(detector.onIssue(ADDRESS, ADDRESS, 500).isEmpty());
+        assertEquals(1, detector.getCleanIssueCount());
+        assertEquals(0, detector.getFlaggedIssueCount());
+    }
+
+    @Test
+    public void rapidReadsAreFlaggedUntilTheWindowPasses() {
+        for (int i = 0; i < 12; i++) {
+            detector.onRead(ADDRESS, i * 100);
+        }
+        assertTrue(detector.onIssue(ADDRESS, ADDRESS, 1200).contains(AnomalyDetector.FLAG_RAPID_READS));
+        assertFalse(detector.onIssue(ADDRESS, ADDRESS, 20_000).contains(AnomalyDetector.FLAG_RAPID_READS));
+    }
+
+    @Test
+    public void heavyReaderIsFlaggedOverTheSession() {
+        // Spread out so no ten-second window looks rapid
+        for (int i = 0; i < 30; i++) {
+            detector.onRead(ADDRESS, i * 5_000L);
+        }
+        List<String> flags = detector.onIssue(ADDRESS, ADDRESS, 150_000);
+        assertTrue(flags.contains(AnomalyDetector.FLAG_HEAVY_READER));
+        assertFalse(flags.contains(AnomalyDetector.FLAG_RAPID_READS));
+        assertEquals(ADDRESS, detector.topReaders(1).get(0).key);
+        assertEquals(30, detector.topReaders(1).get(0).count);
+    }
+
+    @Test
+    public void identityBehindManyAddressesIsFlagged() {
+        detector.onIdentityBound("AA:BB:CC:DD:EE:01", TOKEN, 0);
+        detector.onIdentityBound("AA:BB:CC:DD:EE:02", TOKEN, 1000);
+        assertTrue(detector.onIssue(TOKEN, "AA:BB:CC:DD:EE:02", 1000).isEmpty());
+
+        detector.onIdentityBound("AA:BB:CC:DD:EE:03", TOKEN, 2000);
+        assertTrue(detector.onIssue(TOKEN, "AA:BB:CC:DD:EE:03", 2000)
+            .contains(AnomalyDetector.FLAG_MANY_ADDRESSES));
+    }
+
+    @Test
+    public void addressCyclingIdentitiesIsFlagged() {
+        for (int i = 0; i < 3; i++) {
+            detector.onIdentityBound(ADDRESS, "identity-" + i, i * 1000L);
+        }
+        assertTrue(detector.onIssue("identity-2", ADDRESS, 3000)
+            .contains(AnomalyDetector.FLAG_MANY_IDENTITIES));
+        // Two minutes later the bindings have aged out
+        assertTrue(detector.onIssue("identity-2", ADDRESS, 200_000).isEmpty());
+    }
+
+    @Test
+    public void sharedLanAddressIsFlagged() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(detector.onSubmission(null, null, "192.168.1.20", i * 1000L).isEmpty());
+        }
+        assertTrue(detector.onSubmission(null, null, "192.168.1.20", 3000)
+            .contains(AnomalyDetector.FLAG_SHARED_IP));
+        assertTrue(detector.onSubmission(null, null, "192.168.1.21", 3000).isEmpty());
+    }
+
+    @Test
+    public void arrivalBurstIsFlaggedAgainstTheMinutesBaseline() {
+        // A steady trickle of one issue a second is the baseline
+        for (int i = 0; i < 30; i++) {
+            assertTrue(detector.onIssue("steady-" + i, null, i * 1000L).isEmpty());
+        }
+        // Then the whole class at once
+        List<String> flags = null;
+        for (int i = 0; i < 25; i++) {
+            flags = detector.onIssue("burst-" + i, null, 30_000 + i);
+        }
+        assertTrue(flags.contains(AnomalyDetector.FLAG_ARRIVAL_BURST));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        for (int i = 0; i < 12; i++) {
+            detector.onRead(ADDRESS, i);
+        }
+        detector.onIssue(ADDRESS, ADDRESS, 12);
+        detector.reset();
+        assertTrue(detector.onIssue(ADDRESS, ADDRESS, 13).isEmpty());
+        assertEquals(1, detector.getCleanIssueCount());
+        assertEquals(0, detector.getFlaggedIssueCount());
+        assertTrue(detector.topReaders(5).isEmpty());
+    }
+
+    @Test
+    public void spaceSavingKeepsHeavyHittersWithBoundedError() {
+        AnomalyDetector.SpaceSaving summary = new AnomalyDetector.SpaceSaving(4);
+        for (int i = 0; i < 50; i++) {
+            summary.add("heavy");
+            summary.add("light-" + i);
+        }
+        List<AnomalyDetector.SpaceSaving.Counter> top = summary.top(1);
+        assertEquals("heavy", top.get(0).key);
+        assertEquals(50, summary.guaranteedCount("heavy"));
+        assertEquals(0, summary.guaranteedCount("light-0"));
+    }
+}
@@ -0,0 +1,189 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Hedging and failover of ApiClient against local stub backends
+public class ApiClientTest {
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    private static final class Stub {
+        final String baseUrl;
+        final List<String> idempotencyKeys = new CopyOnWriteArrayList<>();
+        final CountDownLatch healthChecked = new CountDownLatch(1);
+        // Relay batches as received: {session, timestamp, signature, body}
+        final List<String[]> relayBatches = new CopyOnWriteArrayList<>();
+
+        Stub(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        ApiClient.stopHealthProbes();
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    private Stub stub(int status, long delayMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        Stub stub = new Stub("http://127.0.0.1:" + server.getAddress().getPort() + "/api");
+        server.createContext("/api/sessions", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                while (body.read() != -1) {
+                    // drain
+                }
+            }
+            stub.idempotencyKeys.add(exchange.getRequestHeaders().getFirst("Idempotency-Key"));
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.createContext("/api/attendance/submit/batch", exchange -> {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = new GZIPInputStream(exchange.getRequestBody())) {
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            }
+            stub.relayBatches.add(new String[] {
+                exchange.getRequestHeaders().getFirst("X-Relay-Session"),
+                exchange.getRequestHeaders().getFirst("X-Relay-Timestamp"),
+                exchange.getRequestHeaders().getFirst("X-Relay-Signature"),
+                body.toString("UTF-8")
+            });
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.createContext("/api/health", exchange -> {
+            stub.healthChecked.countDown();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        servers.add(server);
+        return stub;
+    }
+
+    private static SessionData session(String id) {
+        return new SessionData(id, "T001", "CS101", "1", "A101", System.currentTimeMillis());
+    }
+
+    @Test
+    public void slowEndpointIsHedgedWithTheSameKey() throws Exception {
+        Stub slow = stub(201, 1500);
+        Stub fast = stub(201, 0);
+        ApiClient.setEndpoints(slow.baseUrl, fast.baseUrl);
+
+        long started = System.nanoTime();
+        ApiClient.createSession(session("hedge-1"));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        assertTrue("answered by the hedge, took " + elapsedMs + " ms", elapsedMs < 1200);
+        assertEquals(1, fast.idempotencyKeys.size());
+        assertEquals("session-hedge-1", fast.idempotencyKeys.get(0));
+        assertEquals(fast.idempotencyKeys, slow.idempotencyKeys);
+        assertTrue(ApiClient.getHedgedRequestCount() > 0);
+    }
+
+    @Test
+    public void serverErrorFailsOverStraightAway() throws Exception {
+        Stub broken = stub(503, 0);
+        Stub healthy = stub(201, 0);
+        ApiClient.setEndpoints(broken.baseUrl, healthy.baseUrl);
+
+        long started = System.nanoTime();
+        ApiClient.createSession(session("failover-1"));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 400);
+        assertEquals(1, broken.idempotencyKeys.size());
+        assertEquals(1, healthy.idempotencyKeys.size());
+    }
+
+    @Test
+    public void rejectedRequestIsNotRetriedElsewhere() throws Exception {
+        Stub rejecting = stub(400, 0);
+        Stub other = stub(201, 0);
+        ApiClient.setEndpoints(rejecting.baseUrl, other.baseUrl);
+
+        try {
+            ApiClient.createSession(session("rejected-1"));
+            fail("expected the 400 to be reported");
+        } catch (IOException expected) {
+            // the request itself was refused
+        }
+        assertEquals(0, other.idempotencyKeys.size());
+    }
+
+    private static SubmissionData submission(String sessionId, String rollNumber) {
+        SubmissionData submission = new SubmissionData();
+        submission.setSessionId(sessionId);
+        submission.setRollNumber(rollNumber);
+        submission.setOtp("123456");
+        return submission;
+    }
+
+    @Test
+    public void forwardedBatchesAreSignedPerSession() throws Exception {
+        Stub backend = stub(200, 0);
+        ApiClient.setEndpoints(backend.baseUrl);
+        String key = RelayKeys.create("relay-a");
+
+        ApiClient.forwardSubmissions(Arrays.asList(
+            submission("relay-a", "S1"), submission("relay-b", "S2"), submission("relay-a", "S3")));
+
+        // relay-b has no key on this device, so its submission is dropped
+        assertEquals(1, backend.relayBatches.size());
+        String[] batch = backend.relayBatches.get(0);
+        assertEquals("relay-a", batch[0]);
+        assertTrue(batch[3].contains("S1") && batch[3].contains("S3") && !batch[3].contains("S2"));
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(RelayKeys.fromHex(key), "HmacSHA256"));
+        byte[] expected = mac.doFinal((batch[1] + "." + batch[3]).getBytes(StandardCharsets.UTF_8));
+        assertEquals(RelayKeys.toHex(expected), batch[2]);
+    }
+
+    @Test
+    public void replacedEndpointsKeepBeingProbed() throws Exception {
+        Stub first = stub(201, 0);
+        ApiClient.setEndpoints(first.baseUrl);
+        ApiClient.startHealthProbes();
+
+        Stub second = stub(201, 0);
+        ApiClient.setEndpoints(second.baseUrl);
+        assertTrue(second.healthChecked.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,81 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+// Shard validation, disjoint OTP spaces and the scan-response payload
+public class BeaconShardTest {
+    @Test
+    public void invalidShardsAreRejected() {
+        int[][] invalid = {{0, 0}, {0, 17}, {-1, 2}, {2, 2}};
+        for (int[] shard : invalid) {
+            try {
+                new BeaconShard(shard[0], shard[1], 1);
+                fail("accepted beacon " + shard[0] + " of " + shard[1]);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+        new BeaconShard(15, BeaconShard.MAX_BEACONS, 1);
+    }
+
+    @Test
+    public void codesStayInTheBeaconsResidueClass() {
+        Random random = new Random(7);
+        for (int count = 1; count <= BeaconShard.MAX_BEACONS; count++) {
+            for (int index = 0; index < count; index++) {
+                BeaconShard shard = new BeaconShard(index, count, 1);
+                for (int i = 0; i < 200; i++) {
+                    String otp = shard.nextOtp(random);
+                    assertEquals(6, otp.length());
+                    assertEquals(index, BeaconShard.shardOfOtp(otp, count));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void soloBeaconOwnsEveryCode() {
+        BeaconShard solo = BeaconShard.solo(42);
+        assertEquals(0, solo.index);
+        assertEquals(1, solo.count);
+        assertEquals(0, BeaconShard.shardOfOtp("999999", 1));
+    }
+
+    @Test
+    public void advertisementRoundTrips() {
+        BeaconShard shard = new BeaconShard(2, 5, 0xCAFEBABE);
+        byte[] advertisement = shard.toAdvertisement();
+        assertArrayEquals(new byte[] {1, 2, 5, (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE},
+            advertisement);
+
+        BeaconShard parsed = BeaconShard.fromAdvertisement(advertisement);
+        assertEquals(2, parsed.index);
+        assertEquals(5, parsed.count);
+        assertEquals(0xCAFEBABE, parsed.beaconId);
+    }
+
+    @Test
+    public void malformedAdvertisementsAreIgnored() {
+        assertNull(BeaconShard.fromAdvertisement(null));
+        assertNull(BeaconShard.fromAdvertisement(new byte[] {1, 0, 1}));
+        // Unknown format version
+        assertNull(BeaconShard.fromAdvertisement(new byte[] {2, 0, 1, 0, 0, 0, 1}));
+        // Index outside the advertised count
+        assertNull(BeaconShard.fromAdvertisement(new byte[] {1, 3, 3, 0, 0, 0, 1}));
+    }
+
+    @Test
+    public void hashMatchesTheStudentsAndTheSimulation() {
+        // Reference FNV-1a vectors, and an id scripts/simulate-beacons.js derives
+        assertEquals(0x811C9DC5, BeaconShard.fnv1a(""));
+        assertEquals(0xE40C292C, BeaconShard.fnv1a("a"));
+        assertEquals(0x678E6945, BeaconShard.beaconIdFor("install-0"));
+    }
+}
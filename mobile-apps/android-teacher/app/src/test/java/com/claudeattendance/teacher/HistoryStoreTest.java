@@ -0,0 +1,150 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+// History store on a temp directory, including compactions cut short by a crash
+public class HistoryStoreTest {
+    private final HistoryStore store = HistoryStore.getInstance();
+    private File base;
+    private File history;
+    private static int opens;
+
+    @Before
+    public void setUp() throws IOException {
+        base = Files.createTempDirectory("history-test").toFile();
+        history = new File(base, "history");
+        store.setLimits(HistoryStore.DEFAULT_BUDGET_BYTES, HistoryStore.DEFAULT_RETENTION_MS);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(base);
+    }
+
+    // Store writes are asynchronous; queries see them once the store thread gets there
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out waiting for the history store");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // Opens `dir` and waits until the store has switched to it, so queries
+    // no longer answer from the previously open store
+    private void openStore(File dir) {
+        store.open(dir);
+        String probe = "probe-" + ++opens;
+        store.recordIssue(probe, "probe", "000000", System.currentTimeMillis());
+        await(() -> store.countSessionEvents(probe) == 1);
+    }
+
+    private void recordIssues(String sessionId, String holder, int count, long issuedAt) {
+        int before = store.countSessionEvents(sessionId);
+        for (int i = 0; i < count; i++) {
+            store.recordIssue(sessionId, holder, String.format("%06d", i), issuedAt + i);
+        }
+        await(() -> store.countSessionEvents(sessionId) == before + count);
+    }
+
+    @Test
+    public void historyIsIndexedByHolder() {
+        openStore(history);
+        long now = System.currentTimeMillis();
+        String token = "0123456789abcdef0123456789abcdef";
+        recordIssues("session-a", token, 2, now);
+        recordIssues("session-b", token, 1, now);
+        recordIssues("session-b", "AA:BB:CC:DD:EE:FF", 1, now);
+
+        List<HistoryStore.IssueEvent> events = store.holderHistory(token);
+        assertEquals(3, events.size());
+        for (HistoryStore.IssueEvent event : events) {
+            assertEquals(token, event.holder);
+        }
+    }
+
+    @Test
+    public void compactionDropsExpiredRowsAndLeavesNoSiblings() {
+        openStore(history);
+        long now = System.currentTimeMillis();
+        recordIssues("expired", "holder", 4, now - 10_000);
+        recordIssues("live", "holder", 3, now);
+
+        store.setLimits(HistoryStore.DEFAULT_BUDGET_BYTES, 5_000);
+        store.compactIfNeeded();
+        await(() -> store.countSessionEvents("expired") == 0);
+        assertEquals(3, store.countSessionEvents("live"));
+        assertEquals(1, base.list().length);
+    }
+
+    @Test
+    public void committedCompactionIsSwappedInOnOpen() throws IOException {
+        openStore(history);
+        long now = System.currentTimeMillis();
+        recordIssues("session", "holder", 3, now);
+        copyDirectory(history, new File(base, "history.compact"));
+        recordIssues("session", "holder", 2, now);
+
+        // Crash between the two renames: the live store is already moved aside
+        openStore(new File(base, "elsewhere/history"));
+        assertTrue(history.renameTo(new File(base, "history.old")));
+        assertTrue(new File(base, "history.swap").createNewFile());
+
+        openStore(history);
+        assertEquals(3, store.countSessionEvents("session"));
+        assertFalse(new File(base, "history.old").exists());
+        assertFalse(new File(base, "history.compact").exists());
+        assertFalse(new File(base, "history.swap").exists());
+    }
+
+    @Test
+    public void uncommittedCompactionIsDiscardedOnOpen() throws IOException {
+        openStore(history);
+        recordIssues("session", "holder", 3, System.currentTimeMillis());
+
+        // Crash while the copy was still being written
+        openStore(new File(base, "elsewhere/history"));
+        File partial = new File(base, "history.compact");
+        assertTrue(partial.mkdirs());
+        Files.write(new File(partial, "dict.bin").toPath(), new byte[] {0, 7, 's'});
+
+        openStore(history);
+        assertEquals(3, store.countSessionEvents("session"));
+        assertFalse(partial.exists());
+    }
+
+    private static void copyDirectory(File from, File to) throws IOException {
+        assertTrue(to.mkdirs());
+        for (File file : from.listFiles()) {
+            Files.copy(file.toPath(), new File(to, file.getName()).toPath());
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
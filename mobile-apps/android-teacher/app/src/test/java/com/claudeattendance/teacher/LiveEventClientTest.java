@@ -0,0 +1,179 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+// LiveEventClient against a local socket.io stub that keeps an event history
+public class LiveEventClientTest {
+
+    private final MockWebServer server = new MockWebServer();
+    private final AtomicInteger connections = new AtomicInteger();
+    // lastEventId of every resume the stub received, in order
+    private final List<Long> resumes = new CopyOnWriteArrayList<>();
+    // Events in the stub's history, ids 1..events
+    private volatile int events = 600;
+    // Connections the stub closes as soon as they open
+    private volatile int connectionsToCut = 0;
+    private LiveEventClient client;
+
+    // Applies events like the real roster, but can hold the consumer on the first one
+    private static final class RecordingRoster extends LiveRoster {
+        final List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void apply(String event, JsonObject payload) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            applied.add(payload.get("eventId").getAsLong());
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                int connection = connections.incrementAndGet();
+                return new MockResponse().withWebSocketUpgrade(new StubSocket(connection <= connectionsToCut));
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.stop();
+        }
+        server.shutdown();
+    }
+
+    // Engine.IO handshake, then the replay of every event after the resume's id
+    private final class StubSocket extends WebSocketListener {
+        private final boolean cut;
+
+        StubSocket(boolean cut) {
+            this.cut = cut;
+        }
+
+        @Override
+        public void onOpen(WebSocket socket, Response response) {
+            if (cut) {
+                socket.close(1001, "going away");
+                return;
+            }
+            socket.send("0{\"sid\":\"stub\",\"pingInterval\":25000,\"pingTimeout\":20000}");
+        }
+
+        @Override
+        public void onMessage(WebSocket socket, String text) {
+            if (text.equals("40")) {
+                socket.send("40{\"sid\":\"stub\"}");
+                return;
+            }
+            if (!text.startsWith("42")) {
+                return;
+            }
+            JsonArray packet = JsonParser.parseString(text.substring(2)).getAsJsonArray();
+            long after = packet.get(1).getAsJsonObject().get("lastEventId").getAsLong();
+            resumes.add(after);
+            for (long id = after + 1; id <= events; id++) {
+                socket.send("42[\"attendance-update\",{\"eventId\":" + id
+                    + ",\"attendance\":{\"rollNumber\":\"R" + id + "\"}}]");
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket socket, int code, String reason) {
+            socket.close(code, null);
+        }
+    }
+
+    private String baseUrl() {
+        return "http://" + server.getHostName() + ":" + server.getPort();
+    }
+
+    private static void await(String what, BooleanSupplier condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out waiting for " + what, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void backedUpFramesAreReplayedInOrder() throws InterruptedException {
+        RecordingRoster roster = new RecordingRoster();
+        client = new LiveEventClient(baseUrl(), roster);
+        client.start("session-1");
+
+        // The consumer sits on event 1 while the stub floods the socket
+        await("a dropped frame", () -> client.getDroppedFrameCount() > 0);
+        roster.release.countDown();
+        await("all events", () -> roster.applied.size() == events);
+
+        for (int i = 0; i < events; i++) {
+            assertEquals(i + 1, (long) roster.applied.get(i));
+        }
+        // The replay may back up again; every resync picks up where the last left off
+        assertTrue(resumes.size() >= 2);
+        assertEquals(0L, (long) resumes.get(0));
+        assertEquals(257L, (long) resumes.get(1));
+        for (int i = 2; i < resumes.size(); i++) {
+            assertTrue(resumes.get(i) > resumes.get(i - 1));
+        }
+        assertEquals(resumes.size(), connections.get());
+    }
+
+    @Test
+    public void stopCancelsPendingReconnect() throws InterruptedException {
+        connectionsToCut = 1;
+        events = 10;
+        RecordingRoster roster = new RecordingRoster();
+        roster.release.countDown();
+        client = new LiveEventClient(baseUrl(), roster);
+        client.start("session-1");
+        await("the first connection", () -> connections.get() == 1);
+        // Let the cut reach the client, which schedules a reconnect in a second
+        Thread.sleep(300);
+
+        client.stop();
+        client.start("session-1");
+        await("all events", () -> roster.applied.size() == events);
+        // The wait scheduled before stop() must not open a second socket
+        Thread.sleep(1500);
+        assertEquals(2, connections.get());
+        assertEquals(1, resumes.size());
+    }
+}
@@ -0,0 +1,25 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+// Presence tags heard over the air must land on the key the GATT holder maps to
+public class ProximityScannerTest {
+    @Test
+    public void advertisedTagMatchesIdentityHolder() {
+        byte[] token = new byte[16];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = (byte) (0xF0 - i * 7);
+        }
+        String holder = RelayKeys.toHex(token);
+        assertEquals(ProximityScanner.tagToLong(token), ProximityScanner.keyOf(holder));
+    }
+
+    @Test
+    public void addressHoldersKeepTheirPackedAddress() {
+        String address = "AA:BB:CC:DD:EE:FF";
+        assertEquals(RssiEstimator.addressToLong(address), ProximityScanner.keyOf(address));
+        assertEquals(0xAABBCCDDEEFFL, ProximityScanner.keyOf(address));
+    }
+}
@@ -0,0 +1,60 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// Token buckets per device, driven by an explicit clock
+public class ReadRateLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void burstThenRefillAtTheConfiguredRate() {
+        ReadRateLimiter limiter = new ReadRateLimiter(5, 2.0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire("a", 0));
+        }
+        assertFalse(limiter.tryAcquire("a", 0));
+
+        // Two tokens a second: one is back after half a second, not before
+        assertFalse(limiter.tryAcquire("a", SECOND / 2 - 1));
+        assertTrue(limiter.tryAcquire("a", SECOND / 2));
+        assertFalse(limiter.tryAcquire("a", SECOND / 2));
+    }
+
+    @Test
+    public void idleBucketsRefillOnlyUpToTheBurst() {
+        ReadRateLimiter limiter = new ReadRateLimiter(3, 2.0);
+        assertTrue(limiter.tryAcquire("a", 0));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire("a", 100 * SECOND));
+        }
+        assertFalse(limiter.tryAcquire("a", 100 * SECOND));
+    }
+
+    @Test
+    public void devicesHaveSeparateBuckets() {
+        ReadRateLimiter limiter = new ReadRateLimiter(1, 1.0);
+        assertTrue(limiter.tryAcquire("a", 0));
+        assertFalse(limiter.tryAcquire("a", 0));
+        assertTrue(limiter.tryAcquire("b", 0));
+
+        limiter.clear();
+        assertTrue(limiter.tryAcquire("a", 0));
+    }
+
+    @Test
+    public void evictionKeepsActiveBuckets() {
+        ReadRateLimiter limiter = new ReadRateLimiter(1, 0.001);
+        assertTrue(limiter.tryAcquire("busy", 0));
+        // Enough idle devices to trigger eviction once they are a minute old
+        for (int i = 0; i < 2048; i++) {
+            limiter.tryAcquire("idle-" + i, 0);
+        }
+        assertFalse(limiter.tryAcquire("busy", 61 * SECOND));
+        limiter.tryAcquire("newcomer", 61 * SECOND);
+        // The busy device was seen within the minute, so its empty bucket survived
+        assertFalse(limiter.tryAcquire("busy", 61 * SECOND));
+    }
+}
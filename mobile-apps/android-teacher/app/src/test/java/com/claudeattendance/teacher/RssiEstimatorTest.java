@@ -0,0 +1,81 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// Smoothing, scoring and the fixed-size table of the RSSI estimator
+public class RssiEstimatorTest {
+    private static final long STALE_MS = 10_000;
+
+    @Test
+    public void firstSampleIsTakenAsIsThenSmoothed() {
+        RssiEstimator estimator = new RssiEstimator(8, STALE_MS);
+        estimator.record(1L, -90, 0);
+        assertEquals(0f, estimator.proximityScore(1L, 0), 1e-6);
+
+        // One strong sample only moves the average a quarter of the way
+        estimator.record(1L, -50, 1);
+        assertEquals((-80f + 90f) / 25f, estimator.proximityScore(1L, 1), 1e-4);
+
+        for (int i = 0; i < 40; i++) {
+            estimator.record(1L, -50, 2 + i);
+        }
+        assertEquals(1f, estimator.proximityScore(1L, 50), 1e-6);
+    }
+
+    @Test
+    public void unknownAndStaleDevicesHaveNoScore() {
+        RssiEstimator estimator = new RssiEstimator(8, STALE_MS);
+        assertTrue(estimator.proximityScore(7L, 0) < 0);
+        assertTrue(estimator.estimateDistance(7L, 0) < 0);
+
+        estimator.record(7L, -59, 0);
+        assertEquals(1f, estimator.estimateDistance(7L, STALE_MS), 1e-4);
+        assertTrue(estimator.proximityScore(7L, STALE_MS + 1) < 0);
+    }
+
+    @Test
+    public void fullTablePrunesStaleDevicesToMakeRoom() {
+        RssiEstimator estimator = new RssiEstimator(8, STALE_MS);
+        // Room for eight is rounded up to a 32-slot table, full at half load
+        for (long key = 0; key < 16; key++) {
+            estimator.record(key, -70, 0);
+        }
+        assertEquals(16, estimator.size());
+
+        // All still fresh: a newcomer is refused rather than evicting one
+        estimator.record(100L, -70, 1);
+        assertEquals(16, estimator.size());
+        assertTrue(estimator.proximityScore(100L, 1) < 0);
+
+        // Once the others go stale the newcomer replaces them
+        estimator.record(100L, -70, STALE_MS + 1);
+        assertEquals(1, estimator.size());
+        assertTrue(estimator.proximityScore(100L, STALE_MS + 1) >= 0);
+        assertTrue(estimator.proximityScore(0L, STALE_MS + 1) < 0);
+    }
+
+    @Test
+    public void pruneKeepsLiveEntriesReachable() {
+        RssiEstimator estimator = new RssiEstimator(64, STALE_MS);
+        for (long key = 0; key < 50; key++) {
+            estimator.record(key * 31, -60 - (int) key % 20, key < 25 ? 0 : STALE_MS);
+        }
+        estimator.prune(STALE_MS + 1);
+        assertEquals(25, estimator.size());
+        for (long key = 25; key < 50; key++) {
+            assertTrue("key " + key, estimator.proximityScore(key * 31, STALE_MS + 1) >= 0);
+        }
+    }
+
+    @Test
+    public void addressesPackIntoFortyEightBits() {
+        assertEquals(0x0123456789ABL, RssiEstimator.addressToLong("01:23:45:67:89:AB"));
+        assertEquals(-1L, RssiEstimator.addressToLong("01-23-45-67-89-AB"));
+        assertEquals(-1L, RssiEstimator.addressToLong("01:23:45:67:89"));
+        assertEquals(-1L, RssiEstimator.addressToLong("0G:23:45:67:89:AB"));
+        assertEquals(-1L, RssiEstimator.addressToLong(null));
+    }
+}
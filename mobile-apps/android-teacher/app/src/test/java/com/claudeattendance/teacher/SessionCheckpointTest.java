@@ -0,0 +1,154 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Checkpoint records read back by a second instance, as after a process restart
+public class SessionCheckpointTest {
+    private static final String RELAY_KEY = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("session", ".ckpt").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static SessionCheckpoint.Session session(String sessionId) {
+        return new SessionCheckpoint.Session(sessionId, "teacher-7", "CS-A", "3", "Lab 2",
+            new BeaconShard(1, 2, 0xCAFE), true, RELAY_KEY, 1_700_000_000_000L);
+    }
+
+    private static Map<String, SessionCheckpoint.OtpEntry> byHolder(List<SessionCheckpoint.OtpEntry> entries) {
+        Map<String, SessionCheckpoint.OtpEntry> map = new HashMap<>();
+        for (SessionCheckpoint.OtpEntry entry : entries) {
+            map.put(entry.holder, entry);
+        }
+        return map;
+    }
+
+    @Test
+    public void sessionAndOtpsSurviveARestart() {
+        SessionCheckpoint checkpoint = new SessionCheckpoint(file);
+        checkpoint.saveSession(session("session-1"));
+        checkpoint.putOtp("AA:BB:CC:DD:EE:FF", "000123", 1000);
+        checkpoint.putOtp("0123456789abcdef0123456789abcdef", "999999", 2000);
+        checkpoint.putOtp("11:22:33:44:55:66", "424242", 3000);
+        checkpoint.markConsumed("0123456789abcdef0123456789abcdef", "999999", 2000);
+        checkpoint.removeOtp("11:22:33:44:55:66");
+
+        SessionCheckpoint restarted = new SessionCheckpoint(file);
+        SessionCheckpoint.Session saved = restarted.getSavedSession();
+        assertEquals("session-1", saved.sessionId);
+        assertEquals("teacher-7", saved.teacherId);
+        assertEquals("CS-A", saved.className);
+        assertEquals("3", saved.period);
+        assertEquals("Lab 2", saved.room);
+        assertEquals(1, saved.getShard().index);
+        assertEquals(2, saved.getShard().count);
+        assertEquals(0xCAFE, saved.getShard().beaconId);
+        assertTrue(saved.lanRelay);
+        assertEquals(RELAY_KEY, saved.relayKey);
+        assertEquals(1_700_000_000_000L, saved.startedAt);
+
+        Map<String, SessionCheckpoint.OtpEntry> otps = byHolder(restarted.getSavedOtps());
+        assertEquals(2, otps.size());
+        SessionCheckpoint.OtpEntry issued = otps.get("AA:BB:CC:DD:EE:FF");
+        assertEquals("000123", issued.otp);
+        assertEquals(1000, issued.issuedAt);
+        assertFalse(issued.consumed);
+        assertTrue(otps.get("0123456789abcdef0123456789abcdef").consumed);
+    }
+
+    @Test
+    public void tornRecordIsSkipped() throws IOException {
+        SessionCheckpoint checkpoint = new SessionCheckpoint(file);
+        checkpoint.saveSession(session("session-1"));
+        checkpoint.putOtp("AA:BB:CC:DD:EE:01", "000001", 1000);
+        checkpoint.putOtp("AA:BB:CC:DD:EE:02", "000002", 1000);
+
+        // Flip a byte of the first record's issuedAt, as a crash mid-write would
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(512 + 6);
+            raf.write(0x5A);
+        }
+
+        List<SessionCheckpoint.OtpEntry> otps = new SessionCheckpoint(file).getSavedOtps();
+        assertEquals(1, otps.size());
+        assertEquals("AA:BB:CC:DD:EE:02", otps.get(0).holder);
+    }
+
+    @Test
+    public void newSessionDropsThePreviousOtps() {
+        SessionCheckpoint checkpoint = new SessionCheckpoint(file);
+        checkpoint.saveSession(session("session-1"));
+        checkpoint.putOtp("AA:BB:CC:DD:EE:01", "000001", 1000);
+        checkpoint.saveSession(session("session-2"));
+        checkpoint.putOtp("AA:BB:CC:DD:EE:02", "000002", 2000);
+
+        SessionCheckpoint restarted = new SessionCheckpoint(file);
+        assertEquals("session-2", restarted.getSavedSession().sessionId);
+        assertEquals(1, restarted.getSavedOtps().size());
+        assertEquals("AA:BB:CC:DD:EE:02", restarted.getSavedOtps().get(0).holder);
+    }
+
+    @Test
+    public void clearedCheckpointHasNothingToResume() {
+        SessionCheckpoint checkpoint = new SessionCheckpoint(file);
+        checkpoint.saveSession(session("session-1"));
+        checkpoint.putOtp("AA:BB:CC:DD:EE:01", "000001", 1000);
+        checkpoint.clear();
+
+        SessionCheckpoint restarted = new SessionCheckpoint(file);
+        assertNull(restarted.getSavedSession());
+        assertTrue(restarted.getSavedOtps().isEmpty());
+    }
+
+    @Test
+    public void versionOneHeaderRestoresWithoutRelayKey() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(512);
+        header.putInt(0x53434B50).putInt(1)
+            .putLong(42L)
+            .putInt(0).putInt(1).putInt(0xCAFE)
+            .put((byte) 0);
+        for (String value : new String[] {"session-old", "teacher-7", "CS-A", "3", "Lab 2"}) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            header.putShort((short) bytes.length).put(bytes);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, 508);
+        header.putInt(508, (int) crc.getValue());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(header.array());
+        }
+
+        SessionCheckpoint.Session saved = new SessionCheckpoint(file).getSavedSession();
+        assertEquals("session-old", saved.sessionId);
+        assertEquals("Lab 2", saved.room);
+        assertEquals(42L, saved.startedAt);
+        assertFalse(saved.lanRelay);
+        assertNull(saved.relayKey);
+    }
+}
@@ -0,0 +1,132 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// Sketch accuracy and the summary the beacon uploads
+public class SessionStatsTest {
+    private static final long START = 1_700_000_000_000L;
+
+    private final SessionStats stats = new SessionStats();
+
+    @Before
+    public void setUp() {
+        stats.reset("session-1", START);
+    }
+
+    private static String holder(int i) {
+        return String.format("%032x", i * 0x9E3779B97F4A7C15L);
+    }
+
+    @Test
+    public void repeatVisitsDoNotInflateTheEstimate() {
+        for (int i = 0; i < 40; i++) {
+            stats.onServed(holder(i), true, START);
+        }
+        long estimate = stats.estimateDistinct();
+        // Linear counting range: off by at most a register collision or two
+        assertTrue("estimate " + estimate, Math.abs(estimate - 40) <= 2);
+        for (int i = 0; i < 40; i++) {
+            stats.onServed(holder(i), false, START + 1000);
+        }
+        assertEquals(estimate, stats.estimateDistinct());
+    }
+
+    @Test
+    public void distinctEstimateStaysWithinTheSketchError() {
+        for (int i = 0; i < 20_000; i++) {
+            stats.onServed(holder(i), true, START);
+        }
+        long estimate = stats.estimateDistinct();
+        // About 3% standard error; allow three of them
+        assertTrue("estimate " + estimate, Math.abs(estimate - 20_000) < 20_000 * 0.1);
+    }
+
+    @Test
+    public void arrivalsCountFirstSightingsPerBin() {
+        stats.onServed(holder(1), true, START + 1000);
+        stats.onServed(holder(2), true, START + 29_000);
+        // Served again later: not an arrival
+        stats.onServed(holder(1), false, START + 31_000);
+        stats.onServed(holder(3), true, START + 95_000);
+
+        SessionStats.Summary summary = stats.snapshot(null, false, START + 100_000);
+        assertArrayEquals(new int[] {2, 0, 0, 1}, summary.arrivals);
+        assertEquals(30_000, summary.binMs);
+    }
+
+    @Test
+    public void lateArrivalsLandInTheLastBin() {
+        stats.onServed(holder(1), true, START + 5 * 3600_000L);
+        SessionStats.Summary summary = stats.snapshot(null, false, START + 5 * 3600_000L);
+        assertEquals(240, summary.arrivals.length);
+        assertEquals(1, summary.arrivals[239]);
+    }
+
+    @Test
+    public void snapshotCarriesCountersAndShard() {
+        stats.onServed(holder(1), true, START);
+        stats.onServed(holder(1), false, START);
+        stats.onServed(holder(2), true, START);
+        stats.onThrottled();
+        stats.onOutOfRange();
+        stats.onOutOfRange();
+        stats.onSubmission(true);
+        stats.onSubmission(false);
+
+        SessionStats.Summary summary = stats.snapshot(new BeaconShard(1, 3, 0xBEEF), true, START + 60_000);
+        assertEquals("session-1", summary.sessionId);
+        assertEquals(0xBEEF, summary.beaconId);
+        assertEquals(1, summary.shardIndex);
+        assertEquals(3, summary.shardCount);
+        assertEquals(START, summary.startedAt);
+        assertEquals(START + 60_000, summary.updatedAt);
+        assertTrue(summary.ended);
+        assertEquals(3, summary.served);
+        assertEquals(2, summary.issued);
+        assertEquals(1, summary.reused);
+        assertEquals(1, summary.throttled);
+        assertEquals(2, summary.outOfRange);
+        assertEquals(1, summary.consumed);
+        assertEquals(1, summary.rejected);
+        assertEquals(2, summary.distinctDevices);
+        // 1024 one-byte registers
+        assertEquals(2048, summary.hll.length());
+    }
+
+    @Test
+    public void snapshotWithoutShardIsASoloBeacon() {
+        SessionStats.Summary summary = stats.snapshot(null, false, START);
+        assertEquals(0, summary.shardIndex);
+        assertEquals(1, summary.shardCount);
+        assertEquals(0, summary.arrivals.length);
+    }
+
+    @Test
+    public void changedIsClearedBySnapshot() {
+        assertFalse(stats.hasChanged());
+        stats.onThrottled();
+        assertTrue(stats.hasChanged());
+        stats.snapshot(null, false, START);
+        assertFalse(stats.hasChanged());
+    }
+
+    @Test
+    public void resetStartsAFreshSession() {
+        stats.onServed(holder(1), true, START);
+        stats.reset("session-2", START + 1000);
+        stats.onServed(holder(1), true, START + 1000);
+
+        SessionStats.Summary summary = stats.snapshot(null, false, START + 1000);
+        assertEquals("session-2", summary.sessionId);
+        assertEquals(1, summary.served);
+        // The holder is a new arrival in the new session
+        assertArrayEquals(new int[] {1}, summary.arrivals);
+        assertEquals(1, summary.distinctDevices);
+    }
+}
@@ -0,0 +1,114 @@
+package com.claudeattendance.teacher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Raw HTTP against the relay on a loopback port
+public class SubmissionRelayTest {
+    private SubmissionRelay relay;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        // A fresh port per test; a just-stopped relay may still hold the last one
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        relay = new SubmissionRelay(port);
+        relay.start("relay-test-session");
+    }
+
+    @After
+    public void tearDown() {
+        relay.stop();
+    }
+
+    private String exchange(String request) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            return readAll(socket.getInputStream());
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void preflightIsAnswered() throws IOException {
+        String response = exchange("OPTIONS /api/attendance/submit HTTP/1.1\r\n"
+            + "Origin: https://portal.example\r\n"
+            + "Access-Control-Request-Method: POST\r\n"
+            + "Access-Control-Request-Private-Network: true\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 204"));
+        assertTrue(response.contains("Access-Control-Allow-Origin: *"));
+        assertTrue(response.contains("Access-Control-Allow-Methods: GET, POST, OPTIONS"));
+        assertTrue(response.contains("Access-Control-Allow-Private-Network: true"));
+    }
+
+    @Test
+    public void responsesAllowAnyOrigin() throws IOException {
+        String response = exchange("GET /api/health HTTP/1.1\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 200"));
+        assertTrue(response.contains("Access-Control-Allow-Origin: *"));
+    }
+
+    @Test
+    public void oversizedBodyIsRefused() throws IOException {
+        String response = exchange("POST /api/attendance/submit HTTP/1.1\r\nContent-Length: 100000\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 413"));
+    }
+
+    @Test
+    public void tricklingClientIsCutOffAtTheDeadline() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write("POST /api/attendance/submit HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+            // One header byte a second stays under any per-read timeout
+            Thread trickle = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        out.write('X');
+                        out.flush();
+                        Thread.sleep(1000);
+                    }
+                } catch (IOException | InterruptedException stopped) {
+                    // the relay hung up
+                }
+            });
+            trickle.setDaemon(true);
+            long started = System.nanoTime();
+            trickle.start();
+            try {
+                assertEquals(-1, socket.getInputStream().read());
+            } catch (SocketException reset) {
+                // also a hang-up
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            assertTrue("held for " + elapsedMs + " ms", elapsedMs < 4500);
+            trickle.interrupt();
+        }
+    }
+}
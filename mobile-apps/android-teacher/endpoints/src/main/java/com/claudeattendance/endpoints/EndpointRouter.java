@@ -0,0 +1,165 @@
+package com.claudeattendance.endpoints;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Picks which backend endpoint to talk to. Endpoints are given in rank
+ * order (e.g. campus relay, primary, fallback); each keeps an EWMA of its
+ * observed latency, fed by real requests and by periodic health probes.
+ * An endpoint that fails is put in a cooldown that doubles on repeated
+ * failures and is skipped until a probe or request succeeds again.
+ *
+ * Plain Java so the teacher, student and legacy apps share one copy; it
+ * logs through java.util.logging, which Android routes to logcat.
+ */
+public class EndpointRouter {
+    private static final Logger LOG = Logger.getLogger("EndpointRouter");
+
+    private static final double EWMA_ALPHA = 0.3;
+    // Assumed latency for an endpoint nobody has measured yet
+    private static final double UNKNOWN_LATENCY_MS = 250;
+    // Lower-ranked endpoints must be this much faster per rank to win
+    private static final double RANK_PENALTY_MS = 20;
+    private static final long MIN_COOLDOWN_MS = 5000;
+    private static final long MAX_COOLDOWN_MS = 60000;
+    private static final long PROBE_INTERVAL_MS = 15000;
+    private static final int PROBE_TIMEOUT_MS = 2000;
+    private static final long MIN_HEDGE_DELAY_MS = 75;
+    private static final long MAX_HEDGE_DELAY_MS = 1000;
+
+    public static final class Endpoint {
+        public final String baseUrl;
+        public final int rank;
+        private double ewmaMs = -1;
+        private int consecutiveFailures = 0;
+        private long downUntil = 0;
+
+        Endpoint(String baseUrl, int rank) {
+            this.baseUrl = baseUrl;
+            this.rank = rank;
+        }
+
+        public double getLatencyMs() {
+            return ewmaMs;
+        }
+
+        boolean isUp(long now) {
+            return now >= downUntil;
+        }
+
+        double score() {
+            return (ewmaMs < 0 ? UNKNOWN_LATENCY_MS : ewmaMs) + rank * RANK_PENALTY_MS;
+        }
+    }
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private ScheduledExecutorService prober;
+
+    public EndpointRouter(String... baseUrls) {
+        if (baseUrls.length == 0) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        for (int i = 0; i < baseUrls.length; i++) {
+            endpoints.add(new Endpoint(baseUrls[i].trim(), i));
+        }
+    }
+
+    // Endpoints to try, best first. Endpoints in cooldown go last, by rank,
+    // so a request still has somewhere to go when everything looks down.
+    public synchronized List<Endpoint> candidates() {
+        long now = System.currentTimeMillis();
+        List<Endpoint> up = new ArrayList<>(endpoints.size());
+        List<Endpoint> down = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            (endpoint.isUp(now) ? up : down).add(endpoint);
+        }
+        Collections.sort(up, (a, b) -> Double.compare(a.score(), b.score()));
+        up.addAll(down);
+        return up;
+    }
+
+    public Endpoint best() {
+        return candidates().get(0);
+    }
+
+    public synchronized void recordSuccess(Endpoint endpoint, long latencyMs) {
+        endpoint.ewmaMs = endpoint.ewmaMs < 0
+            ? latencyMs
+            : EWMA_ALPHA * latencyMs + (1 - EWMA_ALPHA) * endpoint.ewmaMs;
+        endpoint.consecutiveFailures = 0;
+        endpoint.downUntil = 0;
+    }
+
+    public synchronized void recordFailure(Endpoint endpoint) {
+        endpoint.consecutiveFailures++;
+        long cooldown = Math.min(MAX_COOLDOWN_MS,
+            MIN_COOLDOWN_MS << Math.min(endpoint.consecutiveFailures - 1, 4));
+        endpoint.downUntil = System.currentTimeMillis() + cooldown;
+        LOG.warning(endpoint.baseUrl + " marked down for " + cooldown + " ms");
+    }
+
+    // How long to wait on an endpoint before hedging to the next one
+    public synchronized long hedgeDelayMs(Endpoint endpoint) {
+        double expected = endpoint.ewmaMs < 0 ? UNKNOWN_LATENCY_MS : endpoint.ewmaMs;
+        return Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS, (long) (expected * 2)));
+    }
+
+    public synchronized void startProbes() {
+        if (prober != null) {
+            return;
+        }
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "EndpointProbe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probeAll, 0, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns whether probes were running, so a replacement router can take over
+    public synchronized boolean stopProbes() {
+        if (prober == null) {
+            return false;
+        }
+        prober.shutdownNow();
+        prober = null;
+        return true;
+    }
+
+    private void probeAll() {
+        for (Endpoint endpoint : endpoints) {
+            long start = System.nanoTime();
+            if (probe(endpoint)) {
+                recordSuccess(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } else {
+                recordFailure(endpoint);
+            }
+        }
+    }
+
+    private static boolean probe(Endpoint endpoint) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(endpoint.baseUrl + "/health").openConnection();
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(PROBE_TIMEOUT_MS);
+            connection.setReadTimeout(PROBE_TIMEOUT_MS);
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
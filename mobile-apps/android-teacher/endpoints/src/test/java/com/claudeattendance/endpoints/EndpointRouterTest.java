@@ -0,0 +1,119 @@
+package com.claudeattendance.endpoints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+// Routing against local stub servers standing in for relay, primary and fallback
+public class EndpointRouterTest {
+    private final List<HttpServer> servers = new ArrayList<>();
+    private EndpointRouter router;
+
+    @After
+    public void tearDown() {
+        if (router != null) {
+            router.stopProbes();
+        }
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    private String stub(int status, long delayMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/health", exchange -> {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    @Test
+    public void ranksByRankUntilMeasured() {
+        router = new EndpointRouter("http://a/api", "http://b/api", "http://c/api");
+        List<EndpointRouter.Endpoint> candidates = router.candidates();
+        assertEquals("http://a/api", candidates.get(0).baseUrl);
+        assertEquals("http://c/api", candidates.get(2).baseUrl);
+    }
+
+    @Test
+    public void fasterLowerRankedEndpointWins() {
+        router = new EndpointRouter("http://slow/api", "http://fast/api");
+        EndpointRouter.Endpoint slow = router.candidates().get(0);
+        EndpointRouter.Endpoint fast = router.candidates().get(1);
+        router.recordSuccess(slow, 400);
+        router.recordSuccess(fast, 40);
+        assertSame(fast, router.best());
+    }
+
+    @Test
+    public void failedEndpointGoesLastButStaysAvailable() {
+        router = new EndpointRouter("http://a/api", "http://b/api");
+        EndpointRouter.Endpoint first = router.best();
+        router.recordFailure(first);
+        List<EndpointRouter.Endpoint> candidates = router.candidates();
+        assertEquals(2, candidates.size());
+        assertSame(first, candidates.get(1));
+        assertFalse(first.isUp(System.currentTimeMillis()));
+
+        router.recordSuccess(first, 10);
+        assertTrue(first.isUp(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void hedgeDelayFollowsLatencyWithinBounds() {
+        router = new EndpointRouter("http://a/api");
+        EndpointRouter.Endpoint endpoint = router.best();
+        assertEquals(500, router.hedgeDelayMs(endpoint));
+        router.recordSuccess(endpoint, 10);
+        assertEquals(75, router.hedgeDelayMs(endpoint));
+        router.recordSuccess(endpoint, 5000);
+        assertEquals(1000, router.hedgeDelayMs(endpoint));
+    }
+
+    @Test
+    public void probesDemoteFailingStubAndMeasureHealthyOnes() throws Exception {
+        String failing = stub(503, 0);
+        String healthy = stub(200, 0);
+        router = new EndpointRouter(failing, healthy);
+        router.startProbes();
+
+        EndpointRouter.Endpoint best = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            best = router.best();
+            if (best.baseUrl.equals(healthy) && best.getLatencyMs() >= 0) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        assertEquals(healthy, best.baseUrl);
+        assertTrue(router.candidates().get(1).getLatencyMs() < 0);
+    }
+
+    @Test
+    public void stopProbesReportsWhetherTheyRan() {
+        router = new EndpointRouter("http://127.0.0.1:9/api");
+        assertFalse(router.stopProbes());
+        router.startProbes();
+        assertTrue(router.stopProbes());
+    }
+}
@@ -0,0 +1,120 @@
+package com.claudeattendance.teacher.macrobenchmark;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import androidx.annotation.OptIn;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.ExperimentalMetricApi;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import kotlin.Unit;
+
+/**
+ * Cold-start benchmarks for the teacher app. Section names mirror
+ * com.claudeattendance.teacher.StartupTrace.
+ *
+ * timeToFirstServedStudent needs a student device in range that keeps
+ * reading the OTP characteristic; without one the async section never
+ * closes and the metric is empty.
+ */
+@RunWith(AndroidJUnit4.class)
+@OptIn(markerClass = ExperimentalMetricApi.class)
+public class StartupBenchmark {
+    private static final String TARGET_PACKAGE = "com.claudeattendance.teacher";
+    private static final String ACTION_MAIN = "android.intent.action.MAIN";
+    private static final int ITERATIONS = 10;
+    private static final long BEACON_TIMEOUT_MS = 10000;
+    private static final long FIRST_SERVE_WINDOW_MS = 15000;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void coldStartToFirstFrame() {
+        List<Metric> metrics = Arrays.asList(
+            new StartupTimingMetric(),
+            new TraceSectionMetric("Teacher.activityCreate", TraceSectionMetric.Mode.First.INSTANCE),
+            new TraceSectionMetric("Teacher.idleInit", TraceSectionMetric.Mode.First.INSTANCE)
+        );
+
+        benchmarkRule.measureRepeated(TARGET_PACKAGE, metrics, new CompilationMode.Partial(),
+            StartupMode.COLD, ITERATIONS,
+            scope -> {
+                scope.pressHome();
+                return Unit.INSTANCE;
+            },
+            scope -> {
+                scope.startActivityAndWait();
+                return Unit.INSTANCE;
+            });
+    }
+
+    @Test
+    public void coldStartToBeaconActive() {
+        List<Metric> metrics = Arrays.asList(
+            new StartupTimingMetric(),
+            new TraceSectionMetric("Teacher.gattPreopen", TraceSectionMetric.Mode.First.INSTANCE),
+            new TraceSectionMetric("Teacher.beaconStart", TraceSectionMetric.Mode.First.INSTANCE)
+        );
+
+        benchmarkRule.measureRepeated(TARGET_PACKAGE, metrics, new CompilationMode.Partial(),
+            StartupMode.COLD, ITERATIONS,
+            scope -> {
+                scope.pressHome();
+                return Unit.INSTANCE;
+            },
+            scope -> {
+                scope.startActivityAndWait(autostartIntent());
+                scope.getDevice().wait(Until.hasObject(By.textContains("Beacon Active")), BEACON_TIMEOUT_MS);
+                return Unit.INSTANCE;
+            });
+    }
+
+    @Test
+    public void timeToFirstServedStudent() {
+        List<Metric> metrics = Arrays.asList(
+            new StartupTimingMetric(),
+            new TraceSectionMetric("Teacher.coldStartToFirstServe", TraceSectionMetric.Mode.First.INSTANCE)
+        );
+
+        benchmarkRule.measureRepeated(TARGET_PACKAGE, metrics, new CompilationMode.Partial(),
+            StartupMode.COLD, ITERATIONS,
+            scope -> {
+                scope.pressHome();
+                return Unit.INSTANCE;
+            },
+            scope -> {
+                scope.startActivityAndWait(autostartIntent());
+                scope.getDevice().wait(Until.hasObject(By.textContains("Beacon Active")), BEACON_TIMEOUT_MS);
+                // Give the student rig time to discover the beacon and read an OTP
+                SystemClock.sleep(FIRST_SERVE_WINDOW_MS);
+                return Unit.INSTANCE;
+            });
+    }
+
+    private static Intent autostartIntent() {
+        Intent intent = new Intent(ACTION_MAIN);
+        intent.setPackage(TARGET_PACKAGE);
+        intent.putExtra("com.claudeattendance.teacher.AUTOSTART", true);
+        intent.putExtra("com.claudeattendance.teacher.CLASS_NAME", "Benchmark 101");
+        intent.putExtra("com.claudeattendance.teacher.PERIOD", "1");
+        intent.putExtra("com.claudeattendance.teacher.ROOM", "BENCH");
+        intent.putExtra("com.claudeattendance.teacher.TEACHER_ID", "T_BENCH");
+        return intent;
+    }
+}
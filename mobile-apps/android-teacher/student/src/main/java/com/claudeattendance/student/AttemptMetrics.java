@@ -0,0 +1,47 @@
+package com.claudeattendance.student;
+
+import android.os.SystemClock;
+
+// Timestamps for one BLE attendance attempt, all in elapsed-realtime millis
+public class AttemptMetrics {
+    long scanStartedAt;
+    long beaconFoundAt;
+    long connectedAt;
+    long otpReadAt;
+    long radioOffAt;
+    int mtu = 23;
+    int gattOperations = 0;
+
+    void markScanStarted() { scanStartedAt = SystemClock.elapsedRealtime(); }
+    void markBeaconFound() { beaconFoundAt = SystemClock.elapsedRealtime(); }
+    void markConnected() { connectedAt = SystemClock.elapsedRealtime(); }
+    void markOtpRead() { otpReadAt = SystemClock.elapsedRealtime(); }
+    void markRadioOff() { radioOffAt = SystemClock.elapsedRealtime(); }
+
+    // Scan start to OTP in hand, or -1 if no OTP was read
+    public long getScanToOtpMs() {
+        return otpReadAt > 0 ? otpReadAt - scanStartedAt : -1;
+    }
+
+    // Time the radio was busy scanning, advertising or connected for this attempt
+    public long getRadioOnMs() {
+        long end = radioOffAt > 0 ? radioOffAt : SystemClock.elapsedRealtime();
+        return end - scanStartedAt;
+    }
+
+    public long getScanMs() {
+        return beaconFoundAt > 0 ? beaconFoundAt - scanStartedAt : -1;
+    }
+
+    public long getConnectMs() {
+        return connectedAt > 0 && beaconFoundAt > 0 ? connectedAt - beaconFoundAt : -1;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getGattOperations() {
+        return gattOperations;
+    }
+}
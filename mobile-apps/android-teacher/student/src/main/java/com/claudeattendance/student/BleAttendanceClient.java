@@ -0,0 +1,506 @@
+package com.claudeattendance.student;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * One-shot BLE client for the teacher's GATT server. Each attempt scans for
+ * the attendance service, connects once, raises the MTU so values fit in a
+ * single ATT read, reads the session id (skipped when a beacon advertises
+ * it as service data), writes this install's identity token for the
+ * session and reads the OTP, then disconnects straight away to release the
+ * radio. The token lets the beacon hand back the same OTP after a reconnect
+ * under a rotated BLE address. Beacons running a classroom LAN relay also
+ * announce its address; it is read right after the OTP, in the same
+ * connection, and handed out through getRelayUrl().
+ *
+ * Once the session id is known the device also advertises the student
+ * presence UUID, so the teacher's proximity scanner can measure its RSSI.
+ * The advertisement's service data is the start of the identity token; the
+ * advertising address differs from the connection's, so that tag is how
+ * the beacon matches the two.
+ */
+@SuppressLint("MissingPermission") // checked once in attempt()
+public class BleAttendanceClient {
+    private static final String TAG = "BleAttendanceClient";
+
+    // Must match GattServerManager and ProximityScanner in the teacher app
+    private static final UUID ATTENDANCE_SERVICE_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abc");
+    private static final UUID OTP_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abd");
+    private static final UUID SESSION_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abe");
+    private static final UUID IDENTITY_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ac0");
+    private static final UUID RELAY_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ac1");
+    private static final UUID STUDENT_PRESENCE_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abf");
+    // Must match PRESENCE_TAG_BYTES in the teacher's ProximityScanner
+    private static final int PRESENCE_TAG_BYTES = 8;
+
+    // The legacy beacon prefixes its advertised session id
+    private static final String LEGACY_SESSION_PREFIX = "SESSION:";
+
+    private static final int REQUESTED_MTU = 185;
+    private static final long SCAN_REPORT_DELAY_MS = 300;
+    private static final long ATTEMPT_TIMEOUT_MS = 15000;
+    // How long to keep listening for the other beacons of a sharded session
+    private static final long SHARD_DISCOVERY_MS = 1200;
+
+    public interface Listener {
+        void onOtpReceived(String sessionId, String otp, AttemptMetrics metrics);
+        void onAttemptFailed(String reason, AttemptMetrics metrics);
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final BluetoothAdapter adapter;
+
+    private Listener listener;
+    private AttemptMetrics metrics;
+    private BluetoothLeScanner scanner;
+    private BluetoothLeAdvertiser advertiser;
+    private BluetoothGatt gatt;
+    private boolean scanning = false;
+    private boolean advertising = false;
+    private boolean finished = true;
+    private String sessionId;
+    private String otp;
+    private String relayUrl;
+    private String failure;
+    private String studentKey;
+    private final Map<Integer, ScanResult> shardCandidates = new HashMap<>();
+    private int expectedBeacons = 0;
+    private boolean awaitingShards = false;
+
+    public BleAttendanceClient(Context context) {
+        this.context = context.getApplicationContext();
+        BluetoothManager manager = (BluetoothManager) this.context.getSystemService(Context.BLUETOOTH_SERVICE);
+        this.adapter = manager != null ? manager.getAdapter() : null;
+    }
+
+    public static String[] requiredPermissions() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return new String[] {
+                Manifest.permission.BLUETOOTH_SCAN,
+                Manifest.permission.BLUETOOTH_CONNECT,
+                Manifest.permission.BLUETOOTH_ADVERTISE
+            };
+        }
+        return new String[] { Manifest.permission.ACCESS_FINE_LOCATION };
+    }
+
+    public boolean hasPermissions() {
+        for (String permission : requiredPermissions()) {
+            if (ContextCompat.checkSelfPermission(context, permission) != PackageManager.PERMISSION_GRANTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // studentKey (e.g. the roll number) decides which beacon of a sharded session to use
+    public void attempt(String studentKey, Listener listener) {
+        this.studentKey = studentKey;
+        this.listener = listener;
+        this.metrics = new AttemptMetrics();
+        this.sessionId = null;
+        this.otp = null;
+        this.relayUrl = null;
+        this.failure = null;
+        this.finished = false;
+        shardCandidates.clear();
+        expectedBeacons = 0;
+        awaitingShards = false;
+        metrics.markScanStarted();
+
+        if (adapter == null || !adapter.isEnabled()) {
+            fail("Bluetooth is off");
+            return;
+        }
+        if (!hasPermissions()) {
+            fail("Bluetooth permissions not granted");
+            return;
+        }
+
+        scanner = adapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            fail("BLE scanning not supported");
+            return;
+        }
+
+        List<ScanFilter> filters = Collections.singletonList(new ScanFilter.Builder()
+            .setServiceUuid(new ParcelUuid(ATTENDANCE_SERVICE_UUID))
+            .build());
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+            .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        if (adapter.isOffloadedScanBatchingSupported()) {
+            // Let the controller collect matches instead of waking us per packet
+            settings.setReportDelay(SCAN_REPORT_DELAY_MS);
+        }
+        scanner.startScan(filters, settings.build(), scanCallback);
+        scanning = true;
+
+        mainHandler.postDelayed(timeout, ATTEMPT_TIMEOUT_MS);
+    }
+
+    // LAN relay announced by the beacon of the last successful attempt, or null
+    public String getRelayUrl() {
+        return relayUrl;
+    }
+
+    public void cancel() {
+        if (!finished) {
+            fail("Cancelled");
+        }
+    }
+
+    private final Runnable timeout = () -> fail("Timed out waiting for the beacon");
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            mainHandler.post(() -> onCandidates(Collections.singletonList(result)));
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            mainHandler.post(() -> onCandidates(results));
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            mainHandler.post(() -> fail("Scan failed: " + errorCode));
+        }
+    };
+
+    private void onCandidates(List<ScanResult> results) {
+        if (finished || gatt != null) {
+            return;
+        }
+
+        // Plain beacons: several teachers can be in range, take the strongest.
+        // Sharded beacons are collected until all of them have been seen.
+        ScanResult strongest = null;
+        for (int i = 0, n = results.size(); i < n; i++) {
+            ScanResult result = results.get(i);
+            ShardSelector.Beacon beacon = ShardSelector.decode(result.getScanRecord());
+            if (beacon == null || beacon.count == 1) {
+                if (strongest == null || result.getRssi() > strongest.getRssi()) {
+                    strongest = result;
+                }
+            } else {
+                shardCandidates.put(beacon.beaconId, result);
+                expectedBeacons = Math.max(expectedBeacons, beacon.count);
+            }
+        }
+
+        if (shardCandidates.isEmpty()) {
+            if (strongest != null) {
+                onBeaconFound(strongest);
+            }
+        } else if (shardCandidates.size() >= expectedBeacons) {
+            mainHandler.removeCallbacks(shardDecision);
+            onBeaconFound(pickShard());
+        } else if (!awaitingShards) {
+            awaitingShards = true;
+            mainHandler.postDelayed(shardDecision, SHARD_DISCOVERY_MS);
+        }
+    }
+
+    // Decides with whichever beacons were heard once the discovery window ends
+    private final Runnable shardDecision = () -> {
+        if (!finished && gatt == null && !shardCandidates.isEmpty()) {
+            onBeaconFound(pickShard());
+        }
+    };
+
+    private ScanResult pickShard() {
+        ScanResult chosen = null;
+        long best = -1;
+        for (Map.Entry<Integer, ScanResult> entry : shardCandidates.entrySet()) {
+            long weight = ShardSelector.weight(studentKey, entry.getKey());
+            if (weight > best) {
+                best = weight;
+                chosen = entry.getValue();
+            }
+        }
+        return chosen;
+    }
+
+    private void onBeaconFound(ScanResult result) {
+        stopScan();
+        metrics.markBeaconFound();
+        sessionId = sessionIdFromAdvertisement(result.getScanRecord());
+        if (sessionId != null) {
+            startPresenceAdvertising();
+        }
+
+        BluetoothDevice device = result.getDevice();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            gatt = device.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE);
+        } else {
+            gatt = device.connectGatt(context, false, gattCallback);
+        }
+        if (gatt == null) {
+            fail("Unable to connect to beacon");
+        }
+    }
+
+    private static String sessionIdFromAdvertisement(ScanRecord record) {
+        if (record == null) {
+            return null;
+        }
+        byte[] data = record.getServiceData(new ParcelUuid(ATTENDANCE_SERVICE_UUID));
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        String value = new String(data, StandardCharsets.UTF_8);
+        return value.startsWith(LEGACY_SESSION_PREFIX) ? value.substring(LEGACY_SESSION_PREFIX.length()) : value;
+    }
+
+    // GATT callbacks arrive on binder threads; state changes hop to the main thread
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt g, int status, int newState) {
+            mainHandler.post(() -> {
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    metrics.markConnected();
+                    // Short, bursty exchange: pay for a fast interval briefly
+                    g.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+                    metrics.gattOperations++;
+                    if (!g.requestMtu(REQUESTED_MTU)) {
+                        g.discoverServices();
+                    }
+                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    g.close();
+                    if (gatt == g) {
+                        gatt = null;
+                    }
+                    if (failure == null && otp == null) {
+                        failure = "Disconnected before OTP was read (status " + status + ")";
+                    }
+                    finish();
+                }
+            });
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt g, int mtu, int status) {
+            mainHandler.post(() -> {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    metrics.mtu = mtu;
+                }
+                metrics.gattOperations++;
+                g.discoverServices();
+            });
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt g, int status) {
+            mainHandler.post(() -> {
+                BluetoothGattService service = g.getService(ATTENDANCE_SERVICE_UUID);
+                if (status != BluetoothGatt.GATT_SUCCESS || service == null) {
+                    disconnectWithFailure("Attendance service not found");
+                    return;
+                }
+                // Beacons that advertise the session id skip the session read
+                if (sessionId == null) {
+                    readCharacteristic(g, service, SESSION_CHARACTERISTIC_UUID);
+                } else {
+                    presentIdentity(g, service);
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+            byte[] raw = characteristic.getValue();
+            UUID uuid = characteristic.getUuid();
+            mainHandler.post(() -> {
+                if (RELAY_CHARACTERISTIC_UUID.equals(uuid)) {
+                    // Optional: without it the submit goes to the backend
+                    String url = status == BluetoothGatt.GATT_SUCCESS && raw != null
+                        ? new String(raw, StandardCharsets.UTF_8) : "";
+                    relayUrl = url.startsWith("http://") ? url : null;
+                    g.disconnect();
+                    return;
+                }
+                if (status != BluetoothGatt.GATT_SUCCESS || raw == null) {
+                    disconnectWithFailure(status == BluetoothGatt.GATT_CONNECTION_CONGESTED
+                        ? "Beacon is busy, try again shortly"
+                        : "Read refused by beacon (status " + status + ")");
+                    return;
+                }
+
+                String value = new String(raw, StandardCharsets.UTF_8);
+                if (SESSION_CHARACTERISTIC_UUID.equals(uuid)) {
+                    sessionId = value;
+                    startPresenceAdvertising();
+                    presentIdentity(g, g.getService(ATTENDANCE_SERVICE_UUID));
+                } else if (OTP_CHARACTERISTIC_UUID.equals(uuid)) {
+                    otp = value;
+                    metrics.markOtpRead();
+                    // One more read for the relay address, then release the link
+                    BluetoothGattCharacteristic relay = g.getService(ATTENDANCE_SERVICE_UUID)
+                        .getCharacteristic(RELAY_CHARACTERISTIC_UUID);
+                    metrics.gattOperations++;
+                    if (relay == null || !g.readCharacteristic(relay)) {
+                        g.disconnect();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+            mainHandler.post(() -> {
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    // Still served, just keyed by this connection's address
+                    Log.w(TAG, "Identity refused by beacon (status " + status + ")");
+                }
+                readCharacteristic(g, g.getService(ATTENDANCE_SERVICE_UUID), OTP_CHARACTERISTIC_UUID);
+            });
+        }
+    };
+
+    // Older beacons have no identity characteristic; go straight to the OTP
+    private void presentIdentity(BluetoothGatt g, BluetoothGattService service) {
+        BluetoothGattCharacteristic identity = service.getCharacteristic(IDENTITY_CHARACTERISTIC_UUID);
+        if (identity == null) {
+            readCharacteristic(g, service, OTP_CHARACTERISTIC_UUID);
+            return;
+        }
+        identity.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        identity.setValue(SessionIdentity.tokenFor(context, sessionId));
+        metrics.gattOperations++;
+        if (!g.writeCharacteristic(identity)) {
+            readCharacteristic(g, service, OTP_CHARACTERISTIC_UUID);
+        }
+    }
+
+    private void readCharacteristic(BluetoothGatt g, BluetoothGattService service, UUID uuid) {
+        BluetoothGattCharacteristic characteristic = service.getCharacteristic(uuid);
+        metrics.gattOperations++;
+        if (characteristic == null || !g.readCharacteristic(characteristic)) {
+            disconnectWithFailure("Unable to read " + uuid);
+        }
+    }
+
+    private void disconnectWithFailure(String reason) {
+        failure = reason;
+        if (gatt != null) {
+            gatt.disconnect();
+        } else {
+            finish();
+        }
+    }
+
+    private void fail(String reason) {
+        failure = reason;
+        if (gatt != null) {
+            // finish() runs once the disconnect completes
+            gatt.disconnect();
+            return;
+        }
+        finish();
+    }
+
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        mainHandler.removeCallbacks(timeout);
+        mainHandler.removeCallbacks(shardDecision);
+        stopScan();
+        stopPresenceAdvertising();
+        if (gatt != null) {
+            gatt.close();
+            gatt = null;
+        }
+        metrics.markRadioOff();
+
+        if (otp != null && sessionId != null) {
+            Log.d(TAG, "OTP received in " + metrics.getScanToOtpMs() + " ms, radio on "
+                + metrics.getRadioOnMs() + " ms");
+            listener.onOtpReceived(sessionId, otp, metrics);
+        } else {
+            listener.onAttemptFailed(failure != null ? failure : "No OTP received", metrics);
+        }
+    }
+
+    private void stopScan() {
+        if (scanning && scanner != null) {
+            scanner.stopScan(scanCallback);
+        }
+        scanning = false;
+    }
+
+    private void startPresenceAdvertising() {
+        advertiser = adapter.getBluetoothLeAdvertiser();
+        if (advertiser == null || advertising) {
+            return;
+        }
+        byte[] tag = Arrays.copyOf(SessionIdentity.tokenFor(context, sessionId), PRESENCE_TAG_BYTES);
+        AdvertiseSettings settings = new AdvertiseSettings.Builder()
+            .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
+            .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
+            .setConnectable(false)
+            .setTimeout(0)
+            .build();
+        // Service data only: a UUID list entry as well would not fit in 31 bytes
+        AdvertiseData data = new AdvertiseData.Builder()
+            .setIncludeDeviceName(false)
+            .addServiceData(new ParcelUuid(STUDENT_PRESENCE_UUID), tag)
+            .build();
+        advertiser.startAdvertising(settings, data, advertiseCallback);
+        advertising = true;
+    }
+
+    private void stopPresenceAdvertising() {
+        if (advertising && advertiser != null) {
+            advertiser.stopAdvertising(advertiseCallback);
+        }
+        advertising = false;
+    }
+
+    private final AdvertiseCallback advertiseCallback = new AdvertiseCallback() {
+        @Override
+        public void onStartFailure(int errorCode) {
+            // Not fatal: the teacher falls back to serving unknown devices
+            Log.w(TAG, "Presence advertising failed: " + errorCode);
+        }
+    };
+}
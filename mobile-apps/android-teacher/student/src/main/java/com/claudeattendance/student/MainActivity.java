@@ -0,0 +1,201 @@
+package com.claudeattendance.student;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MainActivity extends AppCompatActivity {
+    private static final String TAG = "StudentApp";
+    private static final int REQUEST_PERMISSIONS = 2001;
+
+    // Benchmark mode reads the OTP repeatedly without submitting it
+    private static final int BENCHMARK_RUNS = 20;
+    private static final long BENCHMARK_PAUSE_MS = 1500;
+
+    private EditText editRollNumber;
+    private Button btnMarkAttendance, btnBenchmark;
+    private TextView txtStatus;
+
+    private BleAttendanceClient bleClient;
+    private SubmissionClient submissionClient;
+    private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+
+    private final List<AttemptMetrics> benchmarkResults = new ArrayList<>();
+    private int benchmarkFailures = 0;
+    private boolean busy = false;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_main);
+
+        editRollNumber = findViewById(R.id.editRollNumber);
+        btnMarkAttendance = findViewById(R.id.btnMarkAttendance);
+        btnBenchmark = findViewById(R.id.btnBenchmark);
+        txtStatus = findViewById(R.id.txtStatus);
+
+        bleClient = new BleAttendanceClient(this);
+        submissionClient = new SubmissionClient(this);
+
+        btnMarkAttendance.setOnClickListener(v -> markAttendance());
+        btnBenchmark.setOnClickListener(v -> startBenchmark());
+
+        if (!bleClient.hasPermissions()) {
+            ActivityCompat.requestPermissions(this, BleAttendanceClient.requiredPermissions(), REQUEST_PERMISSIONS);
+        }
+        // Open the backend connection while the user types their roll number
+        networkExecutor.execute(SubmissionClient::warmUp);
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_PERMISSIONS && !bleClient.hasPermissions()) {
+            txtStatus.setText("Bluetooth permissions are required to mark attendance");
+        }
+    }
+
+    private void markAttendance() {
+        String rollNumber = editRollNumber.getText().toString().trim();
+        if (rollNumber.isEmpty()) {
+            Toast.makeText(this, "Enter your roll number", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (busy) {
+            return;
+        }
+        setBusy(true);
+        txtStatus.setText("Looking for the classroom beacon...");
+
+        bleClient.attempt(rollNumber, new BleAttendanceClient.Listener() {
+            @Override
+            public void onOtpReceived(String sessionId, String otp, AttemptMetrics metrics) {
+                txtStatus.setText("OTP received in " + metrics.getScanToOtpMs() + " ms, submitting...");
+                submit(rollNumber, sessionId, otp, bleClient.getRelayUrl());
+            }
+
+            @Override
+            public void onAttemptFailed(String reason, AttemptMetrics metrics) {
+                txtStatus.setText("Failed: " + reason);
+                setBusy(false);
+            }
+        });
+    }
+
+    private void submit(String rollNumber, String sessionId, String otp, String relayUrl) {
+        networkExecutor.execute(() -> {
+            String message;
+            try {
+                submissionClient.submit(rollNumber, sessionId, otp, relayUrl);
+                message = "Attendance marked ✅";
+            } catch (IOException e) {
+                Log.e(TAG, "Submit failed", e);
+                message = "Submit failed: " + e.getMessage();
+            }
+            String status = message;
+            runOnUiThread(() -> {
+                txtStatus.setText(status);
+                setBusy(false);
+            });
+        });
+    }
+
+    private void startBenchmark() {
+        if (busy) {
+            return;
+        }
+        setBusy(true);
+        benchmarkResults.clear();
+        benchmarkFailures = 0;
+        runBenchmarkAttempt();
+    }
+
+    private void runBenchmarkAttempt() {
+        int run = benchmarkResults.size() + benchmarkFailures + 1;
+        if (run > BENCHMARK_RUNS) {
+            reportBenchmark();
+            setBusy(false);
+            return;
+        }
+        txtStatus.setText("Benchmark run " + run + "/" + BENCHMARK_RUNS);
+
+        String studentKey = editRollNumber.getText().toString().trim();
+        bleClient.attempt(studentKey.isEmpty() ? "benchmark" : studentKey, new BleAttendanceClient.Listener() {
+            @Override
+            public void onOtpReceived(String sessionId, String otp, AttemptMetrics metrics) {
+                benchmarkResults.add(metrics);
+                Log.d(TAG, "run " + run + ": scanToOtp=" + metrics.getScanToOtpMs()
+                    + "ms radioOn=" + metrics.getRadioOnMs() + "ms scan=" + metrics.getScanMs()
+                    + "ms connect=" + metrics.getConnectMs() + "ms mtu=" + metrics.getMtu()
+                    + " ops=" + metrics.getGattOperations());
+                next();
+            }
+
+            @Override
+            public void onAttemptFailed(String reason, AttemptMetrics metrics) {
+                benchmarkFailures++;
+                Log.w(TAG, "run " + run + " failed: " + reason);
+                next();
+            }
+
+            // Give the beacon's per-device read limiter time to refill between runs
+            private void next() {
+                txtStatus.postDelayed(MainActivity.this::runBenchmarkAttempt, BENCHMARK_PAUSE_MS);
+            }
+        });
+    }
+
+    private void reportBenchmark() {
+        if (benchmarkResults.isEmpty()) {
+            txtStatus.setText("Benchmark: all " + benchmarkFailures + " runs failed");
+            return;
+        }
+        List<Long> scanToOtp = new ArrayList<>();
+        List<Long> radioOn = new ArrayList<>();
+        for (AttemptMetrics metrics : benchmarkResults) {
+            scanToOtp.add(metrics.getScanToOtpMs());
+            radioOn.add(metrics.getRadioOnMs());
+        }
+        Collections.sort(scanToOtp);
+        Collections.sort(radioOn);
+
+        String report = "Benchmark: " + benchmarkResults.size() + " ok, " + benchmarkFailures + " failed\n"
+            + "Scan→OTP median " + percentile(scanToOtp, 50) + " ms, p95 " + percentile(scanToOtp, 95) + " ms\n"
+            + "Radio on median " + percentile(radioOn, 50) + " ms, p95 " + percentile(radioOn, 95) + " ms";
+        txtStatus.setText(report);
+        Log.i(TAG, report);
+    }
+
+    // Nearest-rank percentile of an ascending list
+    private static long percentile(List<Long> sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private void setBusy(boolean busy) {
+        this.busy = busy;
+        btnMarkAttendance.setEnabled(!busy);
+        btnBenchmark.setEnabled(!busy);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        bleClient.cancel();
+        networkExecutor.shutdown();
+    }
+}
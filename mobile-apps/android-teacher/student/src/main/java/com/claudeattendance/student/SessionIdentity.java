@@ -0,0 +1,47 @@
+package com.claudeattendance.student;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Token this install presents to a beacon before reading its OTP. It is
+ * stable for one session, so the beacon recognises a reconnect under a new
+ * private address, but differs between sessions, so beacons cannot link a
+ * student's sessions together.
+ */
+final class SessionIdentity {
+    // Must match IDENTITY_TOKEN_BYTES in the teacher's GattServerManager
+    static final int TOKEN_BYTES = 16;
+
+    private static final String PREFS = "identity";
+    private static final String KEY_SECRET = "install_secret";
+
+    private SessionIdentity() {}
+
+    // First TOKEN_BYTES of SHA-256(install secret | session id)
+    static byte[] tokenFor(Context context, String sessionId) {
+        String input = installSecret(context) + "|" + sessionId;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+            return Arrays.copyOf(digest, TOKEN_BYTES);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static synchronized String installSecret(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        String secret = prefs.getString(KEY_SECRET, null);
+        if (secret == null) {
+            secret = UUID.randomUUID().toString();
+            prefs.edit().putString(KEY_SECRET, secret).apply();
+        }
+        return secret;
+    }
+}
@@ -0,0 +1,60 @@
+package com.claudeattendance.student;
+
+import android.bluetooth.le.ScanRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Picks which of several cooperating beacons a student should use. Beacons
+ * put their id and index/count in the scan response (see BeaconShard in the
+ * teacher app); the student takes the beacon with the highest rendezvous
+ * weight for its key, so every student maps to one beacon without any
+ * coordination, and a beacon dropping out only moves its own students.
+ */
+final class ShardSelector {
+    static final int MANUFACTURER_ID = 0xFFFF;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int ADVERTISEMENT_BYTES = 7;
+
+    static final class Beacon {
+        final int index;
+        final int count;
+        final int beaconId;
+
+        Beacon(int index, int count, int beaconId) {
+            this.index = index;
+            this.count = count;
+            this.beaconId = beaconId;
+        }
+    }
+
+    private ShardSelector() {}
+
+    // Null for beacons that don't advertise shard info (single-device sessions)
+    static Beacon decode(ScanRecord record) {
+        byte[] data = record != null ? record.getManufacturerSpecificData(MANUFACTURER_ID) : null;
+        if (data == null || data.length < ADVERTISEMENT_BYTES || data[0] != FORMAT_VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, ADVERTISEMENT_BYTES - 1);
+        int index = buffer.get() & 0xFF;
+        int count = buffer.get() & 0xFF;
+        int beaconId = buffer.getInt();
+        return count > 0 && index < count ? new Beacon(index, count, beaconId) : null;
+    }
+
+    static long weight(String studentKey, int beaconId) {
+        return fnv1a(studentKey + ":" + Integer.toHexString(beaconId)) & 0xFFFFFFFFL;
+    }
+
+    // 32-bit FNV-1a over UTF-8, matching the teacher app's beacon ids
+    static int fnv1a(String value) {
+        int hash = 0x811C9DC5;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,233 @@
+package com.claudeattendance.student;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Build;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.claudeattendance.endpoints.EndpointRouter;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Submits attendance to the backend. A single pooled client is shared for
+ * the whole process so the TLS session and connection opened by the first
+ * submit (or by warmUp()) are reused instead of re-handshaking each time.
+ *
+ * Endpoints come from BuildConfig.API_ENDPOINTS and are ranked by the same
+ * EndpointRouter the teacher app uses; a submit fails over on connection
+ * errors and 5xx. When the beacon announced a classroom LAN relay, the
+ * submit goes there first and only falls back to the backend if the relay
+ * can't take it.
+ */
+public class SubmissionClient {
+    private static final String TAG = "SubmissionClient";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final int HTTP_TOO_EARLY = 425;
+    // The beacon's OTP log can reach the backend a moment after the code reached us
+    private static final int MAX_EARLY_RETRIES = 4;
+    private static final long DEFAULT_RETRY_AFTER_MS = 1000;
+    // The relay is on the same Wi-Fi; if it can't answer quickly, use the backend
+    private static final long RELAY_TIMEOUT_MS = 2000;
+
+    private static final EndpointRouter ROUTER = new EndpointRouter(BuildConfig.API_ENDPOINTS.split(","));
+
+    private static class ClientHolder {
+        static final OkHttpClient CLIENT = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(2, 5, TimeUnit.MINUTES))
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(10, TimeUnit.SECONDS)
+            .build();
+        static final OkHttpClient RELAY_CLIENT = CLIENT.newBuilder()
+            .connectTimeout(RELAY_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .readTimeout(RELAY_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    private final String deviceFingerprint;
+
+    public SubmissionClient(Context context) {
+        this.deviceFingerprint = computeDeviceFingerprint(context);
+    }
+
+    // Opens a connection ahead of time so the submit after the BLE read is a single round trip
+    public static void warmUp() {
+        EndpointRouter.Endpoint endpoint = ROUTER.best();
+        long start = System.nanoTime();
+        Request request = new Request.Builder().url(endpoint.baseUrl + "/health").head().build();
+        try (Response ignored = ClientHolder.CLIENT.newCall(request).execute()) {
+            // only the pooled connection matters
+            ROUTER.recordSuccess(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            ROUTER.recordFailure(endpoint);
+            Log.d(TAG, "Warm-up failed: " + e.getMessage());
+        }
+    }
+
+    // Blocking; call off the main thread. relayUrl is the LAN relay the beacon
+    // announced, or null. Returns the relay's or the backend's response body.
+    public String submit(String rollNumber, String sessionId, String otp, String relayUrl) throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("rollNumber", rollNumber);
+        body.addProperty("otp", otp);
+        body.addProperty("sessionId", sessionId);
+        body.addProperty("deviceFingerprint", deviceFingerprint);
+        body.addProperty("ipAddress", localIpAddress());
+        body.addProperty("browserFingerprint", "android-app/" + Build.MANUFACTURER + " " + Build.MODEL);
+
+        RequestBody requestBody = RequestBody.create(body.toString(), JSON);
+        if (relayUrl != null) {
+            String accepted = postToRelay(relayUrl, requestBody);
+            if (accepted != null) {
+                return accepted;
+            }
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return post(requestBody);
+            } catch (TooEarlyException e) {
+                if (attempt >= MAX_EARLY_RETRIES) {
+                    throw new IOException("Failed to submit attendance: code not known to the backend yet");
+                }
+                sleep(e.retryAfterMs);
+            }
+        }
+    }
+
+    // One submit, best endpoint first, failing over on connection errors and 5xx
+    private static String post(RequestBody requestBody) throws IOException {
+        IOException lastError = null;
+        for (EndpointRouter.Endpoint endpoint : ROUTER.candidates()) {
+            long start = System.nanoTime();
+            Request request = new Request.Builder()
+                .url(endpoint.baseUrl + "/attendance/submit")
+                .post(requestBody)
+                .build();
+            Response answer;
+            try {
+                answer = ClientHolder.CLIENT.newCall(request).execute();
+            } catch (IOException e) {
+                ROUTER.recordFailure(endpoint);
+                Log.w(TAG, "Submit failed on " + endpoint.baseUrl + ": " + e.getMessage());
+                lastError = e;
+                continue;
+            }
+            try (Response response = answer) {
+                String text = response.body() != null ? response.body().string() : "";
+                if (response.code() >= 500) {
+                    ROUTER.recordFailure(endpoint);
+                    lastError = new IOException("Failed to submit attendance: " + response.code() + " " + text);
+                    continue;
+                }
+                ROUTER.recordSuccess(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (response.code() == HTTP_TOO_EARLY) {
+                    throw new TooEarlyException(retryAfterMs(response.header("Retry-After")));
+                }
+                if (!response.isSuccessful()) {
+                    throw new IOException("Failed to submit attendance: " + response.code() + " " + text);
+                }
+                return text;
+            }
+        }
+        throw lastError;
+    }
+
+    // The relay's answer if it accepted the submission, otherwise null; the
+    // relay only accepts codes its own GATT server issued and still holds
+    private static String postToRelay(String relayUrl, RequestBody requestBody) {
+        try {
+            Request request = new Request.Builder()
+                .url(relayUrl + "/attendance/submit")
+                .post(requestBody)
+                .build();
+            try (Response response = ClientHolder.RELAY_CLIENT.newCall(request).execute()) {
+                String text = response.body() != null ? response.body().string() : "";
+                if (response.isSuccessful()) {
+                    return text;
+                }
+                Log.w(TAG, "Relay refused submit: " + response.code() + " " + text);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Relay unreachable: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static long retryAfterMs(String header) {
+        try {
+            return header != null ? Long.parseLong(header.trim()) * 1000 : DEFAULT_RETRY_AFTER_MS;
+        } catch (NumberFormatException e) {
+            return DEFAULT_RETRY_AFTER_MS;
+        }
+    }
+
+    private static void sleep(long ms) throws IOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to resubmit", e);
+        }
+    }
+
+    // 425: the backend doesn't know the beacon's code yet
+    private static class TooEarlyException extends IOException {
+        final long retryAfterMs;
+
+        TooEarlyException(long retryAfterMs) {
+            super("Too early");
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+    @SuppressLint("HardwareIds")
+    private static String computeDeviceFingerprint(Context context) {
+        String androidId = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+        String raw = androidId + "|" + Build.MANUFACTURER + "|" + Build.MODEL;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(raw.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return raw;
+        }
+    }
+
+    private static String localIpAddress() {
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp() || nif.isLoopback()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                    if (address instanceof Inet4Address) {
+                        return address.getHostAddress();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read local address: " + e.getMessage());
+        }
+        return "127.0.0.1";
+    }
+}